@@ -0,0 +1,12 @@
+#!/bin/sh
+# Runs the executable jar built by `mvn package -Pgraal-jit`
+# with the Graal compiler and Truffle on the module path,
+# so that guest code is JIT-compiled on a stock JDK.
+# Extra JVM options can be passed through JAVA_OPTS, app arguments are passed through.
+BASE_DIR=$(cd "$(dirname "$0")/.." && pwd)
+JVMCI_DIR="$BASE_DIR/target/jvmci"
+JAR=$(ls "$BASE_DIR"/target/js-executor-rest-*.jar | grep -v -e '-sources' -e '-javadoc' | head -n 1)
+
+exec java -XX:+UnlockExperimentalVMOptions -XX:+EnableJVMCI \
+     --module-path="$JVMCI_DIR" --upgrade-module-path="$JVMCI_DIR/compiler.jar" \
+     $JAVA_OPTS -jar "$JAR" "$@"
@@ -5,7 +5,23 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.databind.json.JsonMapper;
 import cz.jirutka.rsql.parser.RSQLParser;
+import io.github.daniil547.js_executor_rest.domain.ContextPool;
+import io.github.daniil547.js_executor_rest.domain.JsContextFactory;
+import io.github.daniil547.js_executor_rest.domain.LanguageTask;
+import io.github.daniil547.js_executor_rest.domain.SourceCache;
+import io.github.daniil547.js_executor_rest.domain.SpillStore;
+import io.github.daniil547.js_executor_rest.services.AdaptivePoolSizer;
+import io.github.daniil547.js_executor_rest.services.FairShareQueue;
+import io.github.daniil547.js_executor_rest.services.HashedTimerWheel;
+import io.github.daniil547.js_executor_rest.services.RejectionPolicy;
+import io.github.daniil547.js_executor_rest.services.RetentionPolicy;
+import io.github.daniil547.js_executor_rest.services.TaskExecutor;
+import io.github.daniil547.js_executor_rest.services.TaskJournal;
+import io.github.daniil547.js_executor_rest.services.WorkStealingExecutor;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.convert.ApplicationConversionService;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Primary;
@@ -14,8 +30,12 @@ import org.springframework.core.convert.converter.ConverterFactory;
 import org.springframework.format.FormatterRegistry;
 import org.springframework.hateoas.config.EnableHypermediaSupport;
 import org.springframework.hateoas.support.WebStack;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -27,9 +47,254 @@ public class Config implements WebMvcConfigurer {
     @Value("${task-execution.parallelism}")
     public Integer parallelism;
 
+    /**
+     * Whether all tasks' contexts are bound to one polyglot engine.
+     * See {@link JsContextFactory}.
+     */
+    @Value("${task-execution.shared-engine}")
+    public Boolean sharedEngine;
+
+    @Value("${task-execution.timer.tick}")
+    public Duration timerTick;
+
+    @Value("${task-execution.timer.wheel-size}")
+    public Integer timerWheelSize;
+
+    @Value("${task-execution.queue.capacity}")
+    public Integer queueCapacity;
+
+    @Value("${task-execution.queue.rejection-policy}")
+    public RejectionPolicy rejectionPolicy;
+
+    @Value("${task-execution.queue.admission-wait}")
+    public Duration admissionWait;
+
+    @Value("${task-execution.priority.slack.interactive}")
+    public Duration interactiveSlack;
+
+    @Value("${task-execution.priority.slack.normal}")
+    public Duration normalSlack;
+
+    @Value("${task-execution.priority.slack.batch}")
+    public Duration batchSlack;
+
+    @Value("${task-execution.fair-share.max-queued-per-client}")
+    public Integer maxQueuedPerClient;
+
+    /**
+     * Weights of clients by their IDs, as a SpEL map, e.g. {@code {'ui': 4, 'reports': 1}}.
+     */
+    @Value("#{${task-execution.fair-share.weights}}")
+    public Map<String, Integer> clientWeights;
+
+    @Value("${task-execution.fair-share.default-weight}")
+    public Integer defaultClientWeight;
+
+    @Value("${task-execution.fair-share.max-clients}")
+    public Integer maxClients;
+
+    @Bean
+    @ConditionalOnProperty(name = "task-execution.backend", havingValue = "fair-queue")
+    public FairShareQueue taskQueue() {
+        Map<LanguageTask.Priority, Duration> prioritySlack = Map.of(
+                LanguageTask.Priority.INTERACTIVE, interactiveSlack,
+                LanguageTask.Priority.NORMAL, normalSlack,
+                LanguageTask.Priority.BATCH, batchSlack
+        );
+        return new FairShareQueue(queueCapacity,
+                                  maxQueuedPerClient,
+                                  prioritySlack,
+                                  clientWeights,
+                                  defaultClientWeight,
+                                  maxClients);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "task-execution.backend", havingValue = "fair-queue")
+    public TaskExecutor threadPool(FairShareQueue taskQueue) {
+        return new TaskExecutor(parallelism, taskQueue, rejectionPolicy, admissionWait);
+    }
+
+    /**
+     * Alternative to {@link #threadPool(FairShareQueue)} with less contention
+     * on submission, but without priorities, fair share and resizing.
+     */
+    @Bean(name = "threadPool", destroyMethod = "shutdownNow")
+    @ConditionalOnProperty(name = "task-execution.backend", havingValue = "work-stealing")
+    public WorkStealingExecutor workStealingPool() {
+        return new WorkStealingExecutor(parallelism, queueCapacity);
+    }
+
+    @Value("${task-execution.adaptive.enabled}")
+    public Boolean adaptiveParallelism;
+
+    @Value("${task-execution.adaptive.min-parallelism}")
+    public Integer minParallelism;
+
+    @Value("${task-execution.adaptive.max-parallelism}")
+    public Integer maxParallelism;
+
+    @Value("${task-execution.adaptive.interval}")
+    public Duration adaptationInterval;
+
+    @Value("${task-execution.adaptive.target-queue-wait}")
+    public Duration targetQueueWait;
+
+    @Value("${task-execution.adaptive.cpu-high}")
+    public Double cpuHigh;
+
+    /**
+     * Adapts the pool size only if enabled, but can pin it either way.
+     */
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(name = "task-execution.backend", havingValue = "fair-queue")
+    public AdaptivePoolSizer poolSizer(TaskExecutor threadPool) {
+        AdaptivePoolSizer sizer = new AdaptivePoolSizer(threadPool,
+                                                        minParallelism,
+                                                        maxParallelism,
+                                                        adaptationInterval,
+                                                        targetQueueWait,
+                                                        cpuHigh);
+        if (adaptiveParallelism) {
+            sizer.start();
+        }
+        return sizer;
+    }
+
+    /**
+     * Timeouts stop running tasks, which blocks until their guest code stops,
+     * so there's a thread for every task that can be running at once: the pool may grow
+     * up to {@link #maxParallelism} workers. Output streams are dropped for not reading
+     * by the same wheel, so they only wait while every running task is being stopped.
+     */
+    @Bean(destroyMethod = "shutdownNow")
+    public ExecutorService timeoutExecutor() {
+        return Executors.newFixedThreadPool(Math.max(parallelism, maxParallelism));
+    }
+
+    @Bean(destroyMethod = "close")
+    public HashedTimerWheel timerWheel(@Qualifier("timeoutExecutor") ExecutorService timeoutExecutor) {
+        return new HashedTimerWheel(timerTick, timerWheelSize, timeoutExecutor);
+    }
+
+    @Value("${task-execution.output.stream.threads}")
+    public Integer outputStreamThreads;
+
+    /**
+     * Sends output of tasks to clients watching it, see {@link io.github.daniil547.js_executor_rest.services.OutputStreamer}.
+     */
+    @Bean(destroyMethod = "shutdownNow")
+    public ExecutorService outputStreamExecutor() {
+        return Executors.newFixedThreadPool(outputStreamThreads);
+    }
+
+    @Value("${task-execution.retention.ttl}")
+    public Duration retentionTtl;
+
+    @Value("${task-execution.retention.max-tasks}")
+    public Long retentionMaxTasks;
+
+    @Value("${task-execution.retention.max-output}")
+    public DataSize retentionMaxOutput;
+
+    @Value("${task-execution.retention.remembered-evicted}")
+    public Integer rememberedEvicted;
+
+    @Value("${task-execution.retention.sweep-interval}")
+    public Duration sweepInterval;
+
+    @Bean
+    public RetentionPolicy retentionPolicy() {
+        return new RetentionPolicy(retentionTtl,
+                                   retentionMaxTasks,
+                                   retentionMaxOutput.toBytes(),
+                                   rememberedEvicted,
+                                   sweepInterval);
+    }
+
+    @Value("${task-execution.spill.enabled}")
+    public Boolean spillEnabled;
+
+    @Value("${task-execution.spill.directory}")
+    public Path spillDirectory;
+
+    @Value("${task-execution.spill.segment-size}")
+    public DataSize spillSegmentSize;
+
+    @Value("${task-execution.spill.compaction-threshold}")
+    public Double spillCompactionThreshold;
+
+    /**
+     * @return a store for sources and outputs of ended tasks, or {@code null} if they're kept on heap
+     */
+    @Bean(destroyMethod = "close")
+    public SpillStore spillStore() {
+        if (!spillEnabled) {
+            return null;
+        }
+        return new SpillStore(spillDirectory,
+                              Math.toIntExact(spillSegmentSize.toBytes()),
+                              spillCompactionThreshold);
+    }
+
+    @Value("${task-execution.journal.enabled}")
+    public Boolean journalEnabled;
+
+    @Value("${task-execution.journal.directory}")
+    public Path journalDirectory;
+
+    @Value("${task-execution.journal.max-batch}")
+    public DataSize journalMaxBatch;
+
+    @Value("${task-execution.journal.snapshot-after}")
+    public DataSize journalSnapshotAfter;
+
+    /**
+     * @return a journal tasks are recovered from after a restart, or {@code null} if they're forgotten
+     */
+    @Bean(destroyMethod = "close")
+    public TaskJournal taskJournal() {
+        if (!journalEnabled) {
+            return null;
+        }
+        return new TaskJournal(journalDirectory,
+                               journalMaxBatch.toBytes(),
+                               journalSnapshotAfter.toBytes());
+    }
+
+    @Value("${task-execution.source-cache.max-entries}")
+    public Integer sourceCacheMaxEntries;
+
+    @Value("${task-execution.source-cache.max-chars}")
+    public Long sourceCacheMaxChars;
+
     @Bean
-    public ExecutorService threadPool() {
-        return Executors.newFixedThreadPool(parallelism);
+    public SourceCache sourceCache() {
+        return new SourceCache(sourceCacheMaxEntries, sourceCacheMaxChars);
+    }
+
+    @Value("${task-execution.context-pool.size}")
+    public Integer contextPoolSize;
+
+    @Value("${task-execution.statement-limit}")
+    public Long statementLimit;
+
+    @Bean(destroyMethod = "close")
+    public JsContextFactory jsContextFactory(SourceCache sourceCache) {
+        // without a shared engine there is no compiled code to reuse
+        return sharedEngine ? JsContextFactory.withSharedEngine(sourceCache)
+                            : JsContextFactory.perTaskEngine();
+    }
+
+    /**
+     * @return a started pool, or {@code null} if pooling is disabled
+     */
+    @Bean(destroyMethod = "close")
+    public ContextPool contextPool(JsContextFactory jsContextFactory) {
+        if (contextPoolSize <= 0) {
+            return null;
+        }
+        return jsContextFactory.startPool(contextPoolSize, statementLimit);
     }
 
     @Bean
@@ -43,6 +308,8 @@ public class Config implements WebMvcConfigurer {
 
     @Override
     public void addFormatters(FormatterRegistry registry) {
+        // e.g. durations as both "10s" and "PT10S"
+        ApplicationConversionService.addApplicationConverters(registry);
         registry.addConverterFactory(stringToEnumCaseInsensitiveConvFactory());
     }
 
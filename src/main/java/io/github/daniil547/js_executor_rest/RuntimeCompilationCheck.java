@@ -0,0 +1,53 @@
+package io.github.daniil547.js_executor_rest;
+
+import io.github.daniil547.js_executor_rest.domain.JsContextFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * Reports whether guest code is JIT-compiled.
+ * <p>
+ * On a stock JDK GraalJS falls back to interpreter-only mode,
+ * which is one to two orders of magnitude slower for CPU-heavy scripts,
+ * unless the app is run with the Graal compiler on the module path
+ * (see {@code graal-jit} Maven profile).
+ * <p>
+ * The result is logged on startup and shown in health details.
+ */
+@Component
+public class RuntimeCompilationCheck implements HealthIndicator {
+    private static final Logger log = LoggerFactory.getLogger(RuntimeCompilationCheck.class);
+
+    private final String implementationName;
+    private final boolean compilationEnabled;
+
+    @Autowired
+    public RuntimeCompilationCheck(JsContextFactory jsContextFactory) {
+        this.implementationName = jsContextFactory.getImplementationName();
+        this.compilationEnabled = jsContextFactory.isCompilationEnabled();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void report() {
+        if (compilationEnabled) {
+            log.info("Guest code runtime compilation is active (Truffle runtime: {})", implementationName);
+        } else {
+            log.warn("Guest code runs in interpreter-only mode, CPU-heavy scripts will be slow. "
+                     + "Run on GraalVM, or build and run with the graal-jit Maven profile");
+        }
+    }
+
+    @Override
+    public Health health() {
+        return Health.up()
+                     .withDetail("truffleRuntime", implementationName)
+                     .withDetail("runtimeCompilation", compilationEnabled)
+                     .build();
+    }
+}
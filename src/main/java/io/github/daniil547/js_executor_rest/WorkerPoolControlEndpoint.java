@@ -0,0 +1,48 @@
+package io.github.daniil547.js_executor_rest;
+
+import io.github.daniil547.js_executor_rest.services.AdaptivePoolSizer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.InvalidEndpointRequestException;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.boot.actuate.endpoint.jmx.annotation.JmxEndpoint;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Pins the size of the worker pool, or resumes adaptation by {@link AdaptivePoolSizer}.
+ * <p>
+ * JMX only (with {@code spring.jmx.enabled=true}): pinning starts workers,
+ * so it must not be open to anyone who can reach the service over HTTP.
+ * The size must be within the bounds of adaptation.
+ * Only available with the {@code fair-queue} backend.
+ */
+@Component
+@ConditionalOnProperty(name = "task-execution.backend", havingValue = "fair-queue")
+@JmxEndpoint(id = "workerpoolcontrol")
+public class WorkerPoolControlEndpoint {
+    private final AdaptivePoolSizer poolSizer;
+    private final WorkerPoolEndpoint state;
+
+    @Autowired
+    public WorkerPoolControlEndpoint(AdaptivePoolSizer poolSizer, WorkerPoolEndpoint state) {
+        this.poolSizer = poolSizer;
+        this.state = state;
+    }
+
+    @WriteOperation
+    public WorkerPoolEndpoint.WorkerPoolState pin(int size) {
+        try {
+            poolSizer.pin(size);
+        } catch (IllegalArgumentException e) {
+            throw new InvalidEndpointRequestException(e.getMessage(), "Bad pool size");
+        }
+        return state.state();
+    }
+
+    @DeleteOperation
+    public WorkerPoolEndpoint.WorkerPoolState unpin() {
+        poolSizer.unpin();
+        return state.state();
+    }
+}
@@ -0,0 +1,53 @@
+package io.github.daniil547.js_executor_rest;
+
+import io.github.daniil547.js_executor_rest.services.AdaptivePoolSizer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Shows the size of the worker pool and recent decisions of {@link AdaptivePoolSizer}
+ * ({@code GET /actuator/workerpool}).
+ * <p>
+ * Read-only, so that it's safe to expose over HTTP without authentication:
+ * the size is pinned through {@link WorkerPoolControlEndpoint}, over JMX only.
+ * Only available with the {@code fair-queue} backend.
+ */
+@Component
+@ConditionalOnProperty(name = "task-execution.backend", havingValue = "fair-queue")
+@Endpoint(id = "workerpool")
+public class WorkerPoolEndpoint {
+    private final AdaptivePoolSizer poolSizer;
+
+    @Autowired
+    public WorkerPoolEndpoint(AdaptivePoolSizer poolSizer) {
+        this.poolSizer = poolSizer;
+    }
+
+    @ReadOperation
+    public WorkerPoolState state() {
+        return new WorkerPoolState(poolSizer.getSize(),
+                                   poolSizer.getMinSize(),
+                                   poolSizer.getMaxSize(),
+                                   poolSizer.getPinnedSize(),
+                                   poolSizer.getLastDecision(),
+                                   poolSizer.getHistory());
+    }
+
+    /**
+     * @param pinnedSize   the size the pool is pinned to, or {@code null} if it isn't
+     * @param lastDecision the latest decision of the sizer, or {@code null} if there was none
+     * @param changes      recent decisions that changed the size, the latest first
+     */
+    public record WorkerPoolState(int size,
+                                  int minSize,
+                                  int maxSize,
+                                  Integer pinnedSize,
+                                  AdaptivePoolSizer.Decision lastDecision,
+                                  List<AdaptivePoolSizer.Decision> changes) {
+    }
+}
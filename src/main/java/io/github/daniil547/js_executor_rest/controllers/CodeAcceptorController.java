@@ -1,16 +1,35 @@
 package io.github.daniil547.js_executor_rest.controllers;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import cz.jirutka.rsql.parser.RSQLParser;
 import cz.jirutka.rsql.parser.ast.Node;
 import io.github.daniil547.js_executor_rest.domain.IsolatedJsTask;
+import io.github.daniil547.js_executor_rest.domain.JsContextFactory;
 import io.github.daniil547.js_executor_rest.domain.LanguageTask;
+import io.github.daniil547.js_executor_rest.domain.OutputLimit;
+import io.github.daniil547.js_executor_rest.domain.OutputRange;
+import io.github.daniil547.js_executor_rest.dtos.BatchItemDto;
+import io.github.daniil547.js_executor_rest.dtos.BatchSubmissionView;
+import io.github.daniil547.js_executor_rest.dtos.OutputView;
 import io.github.daniil547.js_executor_rest.dtos.PatchTaskDto;
+import io.github.daniil547.js_executor_rest.exceptions.OutputTransferAbortedException;
+import io.github.daniil547.js_executor_rest.exceptions.TaskNotFoundProblem;
+import io.github.daniil547.js_executor_rest.exceptions.TaskRejectedProblem;
+import io.github.daniil547.js_executor_rest.dtos.TaskStatusView;
 import io.github.daniil547.js_executor_rest.dtos.TaskView;
 import io.github.daniil547.js_executor_rest.mappers.TaskToViewMapper;
+import io.github.daniil547.js_executor_rest.services.BatchAdmission;
+import io.github.daniil547.js_executor_rest.services.OutputStreamer;
 import io.github.daniil547.js_executor_rest.services.RsqlToPredicateVisitor;
 import io.github.daniil547.js_executor_rest.services.TaskDispatcher;
 import io.github.daniil547.js_executor_rest.services.TaskViewRepresentationModelAssembler;
+import io.github.daniil547.js_executor_rest.util.HttpUtils;
+import io.github.daniil547.js_executor_rest.util.LimitedInputStream;
 import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.media.ArraySchema;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.ExampleObject;
 import io.swagger.v3.oas.annotations.media.Schema;
@@ -22,18 +41,36 @@ import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.web.PagedResourcesAssembler;
 import org.springframework.hateoas.EntityModel;
+import org.springframework.hateoas.Link;
 import org.springframework.hateoas.PagedModel;
 import org.springframework.hateoas.RepresentationModel;
 import org.springframework.hateoas.mediatype.Affordances;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+import org.zalando.problem.Problem;
+import org.zalando.problem.Status;
+import org.zalando.problem.ThrowableProblem;
 
-import java.util.List;
-import java.util.Map;
-import java.util.UUID;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletionStage;
 import java.util.function.Predicate;
 
 import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.linkTo;
@@ -50,11 +87,23 @@ import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.methodOn;
 @RestController
 @RequestMapping("/execution/")
 public class CodeAcceptorController {
+    public static final String NDJSON = "application/x-ndjson";
+    // of copying output of a running task, before sending what's copied even if its head was discarded
+    private static final int SNAPSHOT_ATTEMPTS = 3;
+
     private final TaskDispatcher taskDispatcher;
     private final Long statementLimit;
+    private final Duration defaultTimeout;
     private final RSQLParser rsqlParser;
     private final RsqlToPredicateVisitor<LanguageTask> rsqlToPredicateVisitor;
     private final TaskViewRepresentationModelAssembler taskReprAssembler;
+    private final JsContextFactory jsContextFactory;
+    private final ObjectMapper objectMapper;
+    private final Integer batchMaxItems;
+    private final DataSize batchMaxSize;
+    private final Duration maxWait;
+    private final OutputStreamer outputStreamer;
+    private final OutputLimit outputLimit;
 
     private final TaskToViewMapper taskToViewMapper;
 
@@ -62,13 +111,30 @@ public class CodeAcceptorController {
     public CodeAcceptorController(TaskDispatcher taskDispatcher,
                                   RSQLParser rsqlParser,
                                   @Value("${task-execution.statement-limit}") Long statementLimit,
+                                  @Value("${task-execution.default-timeout}") Duration defaultTimeout,
                                   TaskViewRepresentationModelAssembler taskReprAssembler,
-                                  TaskToViewMapper taskToViewMapper) {
+                                  TaskToViewMapper taskToViewMapper,
+                                  JsContextFactory jsContextFactory,
+                                  ObjectMapper objectMapper,
+                                  @Value("${task-execution.batch.max-items}") Integer batchMaxItems,
+                                  @Value("${task-execution.batch.max-size}") DataSize batchMaxSize,
+                                  @Value("${task-execution.max-wait}") Duration maxWait,
+                                  OutputStreamer outputStreamer,
+                                  @Value("${task-execution.output.max-size}") DataSize maxOutputSize,
+                                  @Value("${task-execution.output.limit-policy}") OutputLimit.Policy outputLimitPolicy) {
         this.taskDispatcher = taskDispatcher;
         this.statementLimit = statementLimit;
+        this.defaultTimeout = defaultTimeout;
         this.rsqlParser = rsqlParser;
         this.taskReprAssembler = taskReprAssembler;
         this.taskToViewMapper = taskToViewMapper;
+        this.jsContextFactory = jsContextFactory;
+        this.objectMapper = objectMapper;
+        this.batchMaxItems = batchMaxItems;
+        this.batchMaxSize = batchMaxSize;
+        this.maxWait = maxWait;
+        this.outputStreamer = outputStreamer;
+        this.outputLimit = new OutputLimit(maxOutputSize.toBytes(), outputLimitPolicy);
         rsqlToPredicateVisitor = new RsqlToPredicateVisitor<>(LanguageTask.class);
     }
 
@@ -115,23 +181,225 @@ public class CodeAcceptorController {
     @GetMapping("{id}/status")
     public ResponseEntity<RepresentationModel<?>> getTaskStatus(@PathVariable UUID id) {
         RepresentationModel<?> statusAndLinks = taskReprAssembler.toModel(
-                Map.of("status", taskDispatcher.getTask(id).status()),
+                taskDispatcher.getTaskStatus(id),
                 id
         );
         return ResponseEntity.ok(statusAndLinks);
     }
 
+    @Operation(summary = "wait for the task to end, then get its status",
+               description = "Responds as soon as the task is finished or canceled, "
+                             + "or with its current status once the wait is over. "
+                             + "The wait is capped by the server.",
+               operationId = "await status")
+    @GetMapping(path = "{id}/status", params = "wait")
+    public DeferredResult<ResponseEntity<RepresentationModel<?>>> awaitTaskStatus(
+            @PathVariable UUID id,
+            @Parameter(description = "how long to wait at most, e.g. 30s or PT30S",
+                       schema = @Schema(type = "string"))
+            @RequestParam Duration wait
+    ) {
+        CompletionStage<TaskStatusView> termination = taskDispatcher.whenTerminatedStatus(id);
+        // links depend on the current request, so they can't be built once the task ends
+        List<Link> links = taskReprAssembler.toModel(id).getLinks().toList();
+        if (wait.isNegative() || wait.isZero()) {
+            // zero is "no timeout" for the servlet container
+            DeferredResult<ResponseEntity<RepresentationModel<?>>> now = new DeferredResult<>();
+            now.setResult(ResponseEntity.ok(EntityModel.of(taskDispatcher.getTaskStatus(id), links)));
+            return now;
+        }
+
+        DeferredResult<ResponseEntity<RepresentationModel<?>>> result =
+                new DeferredResult<>(wait.compareTo(maxWait) < 0 ? wait.toMillis() : maxWait.toMillis());
+        result.onTimeout(() -> {
+            try {
+                result.setResult(ResponseEntity.ok(EntityModel.of(taskDispatcher.getTaskStatus(id), links)));
+            } catch (TaskNotFoundProblem e) {
+                result.setErrorResult(e);
+            }
+        });
+        // no thread waits: the result is set by whatever thread ends the task
+        termination.thenAccept(status -> result.setResult(ResponseEntity.ok(EntityModel.of(status, links))));
+        return result;
+    }
+
     @Operation(summary = "retrieve output produced by the task up to some \"recent\" moment in the past",
+               description = "Either all of it, only what's written from an offset on "
+                             + "(e.g. nextOffset of the previous response), or only its last lines.",
                operationId = "get output")
     @GetMapping("{id}/output")
-    public ResponseEntity<RepresentationModel<?>> getTaskOutput(@PathVariable UUID id) {
-        RepresentationModel<?> outputAndLinks = taskReprAssembler.toModel(
-                Map.of("output", taskDispatcher.getTask(id).output()),
-                id
-        );
-        return ResponseEntity.ok(outputAndLinks);
+    public ResponseEntity<RepresentationModel<?>> getTaskOutput(
+            @PathVariable UUID id,
+            @Parameter(description = "offset in bytes to read from")
+            @RequestParam(required = false) Long from,
+            @Parameter(description = "number of last lines to read")
+            @RequestParam(required = false) Integer tail
+    ) {
+        if (from != null && tail != null) {
+            throw Problem.builder()
+                         .withTitle("Bad request: conflicting parameters")
+                         .withStatus(Status.BAD_REQUEST)
+                         .withDetail("Output can be read either from an offset, or as last lines, not both")
+                         .build();
+        }
+        OutputView output = tail != null ? taskDispatcher.getTaskOutputTail(id, tail)
+                                         : taskDispatcher.getTaskOutput(id, from != null ? from : 0);
+        return ResponseEntity.ok(taskReprAssembler.toModel(output, id));
     }
 
+    @Operation(summary = "download output of the task as raw bytes",
+               description = "Only what's kept of the output, as it's at the moment of the request. "
+                             + "A single byte range (Range: bytes=...) is honored, offsets counting from "
+                             + "the first kept byte; several ranges get the whole output. "
+                             + "Output of ended tasks is sent straight from disk, if it was spilled there.",
+               operationId = "download output")
+    @GetMapping(path = "{id}/output", produces = {MediaType.TEXT_PLAIN_VALUE, MediaType.APPLICATION_OCTET_STREAM_VALUE})
+    public void downloadTaskOutput(
+            @PathVariable UUID id,
+            @RequestHeader(name = HttpHeaders.ACCEPT, required = false) String accept,
+            @Parameter(description = "e.g. bytes=0-1023, or bytes=-1024 for the last KiB")
+            @RequestHeader(name = HttpHeaders.RANGE, required = false) String rangeHeader,
+            HttpServletResponse response
+    ) throws IOException {
+        HttpRange range = singleRange(rangeHeader);
+        OutputRange output = taskDispatcher.getTaskOutputRange(id);
+        Span span = Span.of(output, range);
+        byte[] snapshot = null;
+        if (!output.complete()) {
+            // output of a running task keeps growing, and its head may be discarded while it's read,
+            // so it's copied first, for the headers to describe exactly what's sent
+            ByteArrayOutputStream copy = new ByteArrayOutputStream();
+            long copied = transfer(id, output, span, Channels.newChannel(copy));
+            for (int attempt = 1; copied < span.length() && attempt < SNAPSHOT_ATTEMPTS; attempt++) {
+                output = taskDispatcher.getTaskOutputRange(id);
+                span = Span.of(output, range);
+                copy.reset();
+                copied = transfer(id, output, span, Channels.newChannel(copy));
+            }
+            // still discarded faster than it's read: what was copied starts the range all the same
+            span = new Span(span.first(), span.first() + copied);
+            snapshot = copy.toByteArray();
+        }
+        if (range != null) {
+            // starts past the end, e.g. any range of empty output
+            if (span.length() <= 0) {
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + output.length());
+                throw Problem.builder()
+                             .withTitle("Range not satisfiable")
+                             .withStatus(Status.REQUESTED_RANGE_NOT_SATISFIABLE)
+                             .withDetail("Task " + id + " has " + output.length() + " bytes of output")
+                             .build();
+            }
+            response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+            response.setHeader(HttpHeaders.CONTENT_RANGE,
+                               "bytes " + span.first() + "-" + (span.last() - 1) + "/" + output.length());
+        }
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        response.setContentType(rawOutputType(accept).toString());
+        response.setContentLengthLong(span.length());
+        if (snapshot != null) {
+            response.getOutputStream().write(snapshot);
+            return;
+        }
+        long written = transfer(id, output, span, Channels.newChannel(response.getOutputStream()));
+        if (written < span.length()) {
+            if (!response.isCommitted()) {
+                // nothing was sent, most likely because the task was evicted meanwhile, which this reports
+                response.reset();
+                taskDispatcher.getTaskOutputRange(id);
+            }
+            throw new OutputTransferAbortedException(id, span.length(), written);
+        }
+    }
+
+    private long transfer(UUID id, OutputRange output, Span span, WritableByteChannel target) throws IOException {
+        if (span.length() <= 0) {
+            return 0;
+        }
+        return taskDispatcher.transferTaskOutput(id,
+                                                 output.offset() + span.first(),
+                                                 output.offset() + span.last(),
+                                                 target);
+    }
+
+    /**
+     * Bytes of kept output to send, counting from the first kept byte.
+     *
+     * @param first offset of the first byte
+     * @param last  offset right after the last byte; not after the first one if there's nothing to send
+     */
+    private record Span(long first, long last) {
+
+        /**
+         * @param range requested range, or {@code null} for the whole output
+         */
+        static Span of(OutputRange output, HttpRange range) {
+            long length = output.length();
+            if (range == null) {
+                return new Span(0, length);
+            }
+            return new Span(range.getRangeStart(length), range.getRangeEnd(length) + 1);
+        }
+
+        long length() {
+            return last - first;
+        }
+    }
+
+    /**
+     * @return the only range of the header, or {@code null} if there is no header, it's malformed,
+     * or has several ranges (which are answered with the whole output, as RFC 7233 allows)
+     */
+    private static HttpRange singleRange(String rangeHeader) {
+        List<HttpRange> ranges = parseRanges(rangeHeader);
+        return ranges.size() == 1 ? ranges.get(0) : null;
+    }
+
+    /**
+     * @return ranges of the header, or none if there is no header, or it's malformed,
+     * which is the same as far as RFC 7233 is concerned
+     */
+    private static List<HttpRange> parseRanges(String rangeHeader) {
+        try {
+            return HttpRange.parseRanges(rangeHeader);
+        } catch (IllegalArgumentException e) {
+            return List.of();
+        }
+    }
+
+    /**
+     * @param accept the Accept header, {@code null} if there's none
+     */
+    private static MediaType rawOutputType(String accept) {
+        List<MediaType> accepted = MediaType.parseMediaTypes(accept);
+        MediaType.sortBySpecificityAndQuality(accepted);
+        for (MediaType type : accepted) {
+            if (type.equalsTypeAndSubtype(MediaType.APPLICATION_OCTET_STREAM)) {
+                return MediaType.APPLICATION_OCTET_STREAM;
+            }
+            if (type.isCompatibleWith(MediaType.TEXT_PLAIN)) {
+                break;
+            }
+        }
+        // output is written as UTF-8, the same as it's decoded for the other representations
+        return new MediaType(MediaType.TEXT_PLAIN, StandardCharsets.UTF_8);
+    }
+
+    @Operation(summary = "watch output of the task as it's written, as server-sent events",
+               description = "Sends \"output\" events with pieces of output (the ID of an event is "
+                             + "the offset right after it, and each line of it is a data field of its own), "
+                             + "then an \"end\" event with the final status. "
+                             + "A client that falls too far behind gets an \"overflow\" event "
+                             + "with the offset to resume from, and is disconnected.",
+               operationId = "stream output")
+    @GetMapping(path = "{id}/output", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamTaskOutput(
+            @PathVariable UUID id,
+            @Parameter(description = "offset of the output to start from, e.g. ID of the last received event")
+            @RequestHeader(name = "Last-Event-ID", required = false) Long lastEventId
+    ) {
+        return outputStreamer.stream(id, lastEventId != null ? lastEventId : 0);
+    }
 
     @Operation(
             summary = "create a task by sending source as plain text",
@@ -145,20 +413,212 @@ public class CodeAcceptorController {
                     )
             ))
     @PostMapping(consumes = MediaType.TEXT_PLAIN_VALUE)
-    public ResponseEntity<RepresentationModel<?>> newTask(@RequestBody String source) {
-        IsolatedJsTask newTask = new IsolatedJsTask(source, statementLimit);
-        taskDispatcher.addForExecution(newTask);
-
-        ResponseEntity.BodyBuilder responseBuilder = ResponseEntity.created(
-                ServletUriComponentsBuilder.fromCurrentRequest()
-                                           .path("/{id}")
-                                           .buildAndExpand(newTask.getId()
-                                                                  .toString())
-                                           .toUri()
+    public ResponseEntity<RepresentationModel<?>> newTask(
+            @RequestBody String source,
+            @Parameter(description = "wall-clock time limit counting from submission, e.g. 10s or PT10S",
+                       schema = @Schema(type = "string"))
+            @RequestParam(required = false) Duration timeout,
+            @Parameter(description = "how urgently to execute the task; "
+                                     + "queued tasks of lower priority are still started eventually")
+            @RequestParam(required = false) LanguageTask.Priority priority,
+            @Parameter(description = "who submits the task; workers are shared fairly between clients")
+            @RequestHeader(name = "${task-execution.fair-share.client-header}", required = false) String client
+    ) {
+        IsolatedJsTask newTask = newIsolatedTask(source, timeout, priority);
+        taskDispatcher.addForExecution(newTask, clientOrAnonymous(client));
+
+        return ResponseEntity.created(location(newTask.getId()))
+                             .body(taskReprAssembler.toModel(newTask.getId()));
+    }
+
+    @Operation(
+            summary = "create a task and wait for it to end",
+            description = "If the task ends within the time given by Prefer: wait=<seconds>, "
+                          + "responds with the whole task, including its status and output. "
+                          + "Otherwise responds the same way as without the header. "
+                          + "The wait is capped by the server.",
+            operationId = "create and wait")
+    @PostMapping(consumes = MediaType.TEXT_PLAIN_VALUE, headers = HttpUtils.PREFER)
+    public DeferredResult<ResponseEntity<RepresentationModel<?>>> newTaskAndWait(
+            @RequestBody String source,
+            @RequestParam(required = false) Duration timeout,
+            @RequestParam(required = false) LanguageTask.Priority priority,
+            @RequestHeader(name = "${task-execution.fair-share.client-header}", required = false) String client,
+            @Parameter(description = "e.g. wait=5")
+            @RequestHeader(HttpUtils.PREFER) String prefer
+    ) {
+        IsolatedJsTask newTask = newIsolatedTask(source, timeout, priority);
+        taskDispatcher.addForExecution(newTask, clientOrAnonymous(client));
+
+        UUID id = newTask.getId();
+        // links depend on the current request, so they can't be built once the task ends
+        URI location = location(id);
+        RepresentationModel<?> links = taskReprAssembler.toModel(id);
+        Optional<Duration> wait = HttpUtils.getPreferredWait(prefer)
+                                           .map(preferred -> preferred.compareTo(maxWait) < 0 ? preferred : maxWait);
+        if (wait.isEmpty()) {
+            DeferredResult<ResponseEntity<RepresentationModel<?>>> result = new DeferredResult<>();
+            result.setResult(ResponseEntity.created(location).body(links));
+            return result;
+        }
+
+        String applied = "wait=" + wait.get().toSeconds();
+        if (wait.get().isZero()) {
+            // zero is "no timeout" for the servlet container, while the client doesn't want to wait at all
+            DeferredResult<ResponseEntity<RepresentationModel<?>>> result = new DeferredResult<>();
+            result.setResult(ResponseEntity.created(location)
+                                           .header(HttpUtils.PREFERENCE_APPLIED, applied)
+                                           .body(links));
+            return result;
+        }
+        ResponseEntity<RepresentationModel<?>> fallback = ResponseEntity.created(location)
+                                                                        .header(HttpUtils.PREFERENCE_APPLIED, applied)
+                                                                        .body(links);
+        DeferredResult<ResponseEntity<RepresentationModel<?>>> result =
+                new DeferredResult<>(wait.get().toMillis(), fallback);
+        // no thread waits: the result is set by whatever thread ends the task
+        taskDispatcher.whenTerminated(id).thenAccept(
+                view -> result.setResult(ResponseEntity.created(location)
+                                                       .header(HttpUtils.PREFERENCE_APPLIED, applied)
+                                                       .body(EntityModel.of(view, links.getLinks())))
+        );
+        return result;
+    }
+
+    private static URI location(UUID id) {
+        return ServletUriComponentsBuilder.fromCurrentRequest()
+                                          .path("/{id}")
+                                          .buildAndExpand(id.toString())
+                                          .toUri();
+    }
+
+    @Operation(
+            summary = "create many tasks at once, from a JSON array or NDJSON",
+            description = "Items are admitted in order up to the first rejected one, "
+                          + "which is rejected along with all items after it. "
+                          + "Responds with 201 if all items are admitted, 207 if only some are "
+                          + "(with Retry-After), and with the same problem as a single submission if none are.",
+            operationId = "create batch")
+    @PostMapping(path = "batch", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<EntityModel<BatchSubmissionView>> newTasks(
+            @io.swagger.v3.oas.annotations.parameters.RequestBody(
+                    content = @Content(array = @ArraySchema(schema = @Schema(implementation = BatchItemDto.class))))
+            InputStream items,
+            @Parameter(description = "who submits the tasks; workers are shared fairly between clients")
+            @RequestHeader(name = "${task-execution.fair-share.client-header}", required = false) String client
+    ) throws IOException {
+        return submitBatch(readBatch(items), client);
+    }
+
+    @Operation(summary = "create many tasks at once, from NDJSON: one JSON item per line",
+               operationId = "create batch ndjson")
+    @PostMapping(path = "batch", consumes = NDJSON)
+    public ResponseEntity<EntityModel<BatchSubmissionView>> newTasksNdjson(
+            @io.swagger.v3.oas.annotations.parameters.RequestBody(
+                    content = @Content(schema = @Schema(implementation = BatchItemDto.class)))
+            InputStream items,
+            @RequestHeader(name = "${task-execution.fair-share.client-header}", required = false) String client
+    ) throws IOException {
+        return submitBatch(readBatch(items), client);
+    }
+
+    /**
+     * Reads items of a batch one at a time, from either a JSON array or NDJSON (root values one after another),
+     * so that a batch with too many items, or too large, is rejected as soon as it's read that far.
+     */
+    private List<BatchItemDto> readBatch(InputStream body) throws IOException {
+        InputStream limited = new LimitedInputStream(
+                body,
+                batchMaxSize.toBytes(),
+                () -> batchTooLarge("A batch may have at most " + batchMaxSize.toBytes() + " bytes"));
+        List<BatchItemDto> items = new ArrayList<>();
+        try (MappingIterator<BatchItemDto> values = objectMapper.readerFor(BatchItemDto.class)
+                                                               .readValues(limited)) {
+            while (values.hasNextValue()) {
+                if (items.size() == batchMaxItems) {
+                    throw batchTooLarge("A batch may have at most " + batchMaxItems + " items");
+                }
+                items.add(values.nextValue());
+            }
+        } catch (JsonProcessingException e) {
+            throw Problem.builder()
+                         .withTitle("Bad request: malformed batch")
+                         .withStatus(Status.BAD_REQUEST)
+                         .withDetail(e.getOriginalMessage())
+                         .build();
+        }
+        return items;
+    }
+
+    private static ThrowableProblem batchTooLarge(String detail) {
+        return Problem.builder()
+                      .withTitle("Batch too large")
+                      .withStatus(Status.REQUEST_ENTITY_TOO_LARGE)
+                      .withDetail(detail)
+                      .build();
+    }
+
+    private ResponseEntity<EntityModel<BatchSubmissionView>> submitBatch(List<BatchItemDto> items, String client) {
+        List<IsolatedJsTask> tasks = new ArrayList<>(items.size());
+        for (int i = 0; i < items.size(); i++) {
+            BatchItemDto item = items.get(i);
+            if (item == null || item.source() == null) {
+                throw Problem.builder()
+                             .withTitle("Bad request: bad batch item")
+                             .withStatus(Status.BAD_REQUEST)
+                             .withDetail("Item " + i + " has no source")
+                             .build();
+            }
+            tasks.add(newIsolatedTask(item.source(), item.timeout(), item.priority()));
+        }
+
+        BatchAdmission admission = taskDispatcher.addAllForExecution(tasks, clientOrAnonymous(client));
+        if (admission.admitted() == 0 && !tasks.isEmpty()) {
+            // nothing was admitted, same as a rejected single submission
+            throw admission.rejection().orElseThrow();
+        }
+
+        List<UUID> ids = tasks.subList(0, admission.admitted())
+                              .stream()
+                              .map(IsolatedJsTask::getId)
+                              .toList();
+        Optional<Long> retryAfter = admission.rejection()
+                                             .map(rejection -> TaskRejectedProblem.toSeconds(rejection.getRetryAfter()));
+        BatchSubmissionView view = new BatchSubmissionView(ids,
+                                                           tasks.size() - admission.admitted(),
+                                                           admission.rejection().map(Problem::getDetail),
+                                                           retryAfter);
+        EntityModel<BatchSubmissionView> model = EntityModel.of(
+                view,
+                linkTo(CodeAcceptorController.class).slash("batch").withSelfRel(),
+                // one link for all items, instead of a set of links per item
+                Link.of(linkTo(CodeAcceptorController.class).toUriComponentsBuilder()
+                                                            .path("/{id}")
+                                                            .build()
+                                                            .toUriString(),
+                        "task"),
+                linkTo(CodeAcceptorController.class).withRel("tasks")
         );
-        // .body is called separately, otherwise Intellij messes up formatting
 
-        return responseBuilder.body(taskReprAssembler.toModel(newTask.getId()));
+        if (retryAfter.isEmpty()) {
+            return ResponseEntity.status(HttpStatus.CREATED).body(model);
+        }
+        return ResponseEntity.status(HttpStatus.MULTI_STATUS)
+                             .header(HttpHeaders.RETRY_AFTER, retryAfter.get().toString())
+                             .body(model);
+    }
+
+    private IsolatedJsTask newIsolatedTask(String source, Duration timeout, LanguageTask.Priority priority) {
+        return new IsolatedJsTask(source,
+                                  statementLimit,
+                                  timeout != null ? timeout : defaultTimeout,
+                                  priority,
+                                  outputLimit,
+                                  jsContextFactory);
+    }
+
+    private static String clientOrAnonymous(String client) {
+        return client != null && !client.isBlank() ? client : TaskDispatcher.ANONYMOUS_CLIENT;
     }
 
     @Operation(summary = "edit existing task (currently only cancel)",
@@ -184,7 +644,7 @@ public class CodeAcceptorController {
         return ResponseEntity.ok(RepresentationModel.of(null).add(
                 Affordances.of(linkTo(
                                        methodOn(this.getClass())
-                                               .newTask("")
+                                               .newTask("", null, null, null)
                                ).withRel("newTask")
                            ).afford(HttpMethod.POST)
                            .toLink(),
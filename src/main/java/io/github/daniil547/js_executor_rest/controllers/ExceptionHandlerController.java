@@ -1,8 +1,13 @@
 package io.github.daniil547.js_executor_rest.controllers;
 
 import cz.jirutka.rsql.parser.RSQLParserException;
+import io.github.daniil547.js_executor_rest.exceptions.OutputTransferAbortedException;
+import io.github.daniil547.js_executor_rest.exceptions.TaskRejectedProblem;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.RestControllerAdvice;
+import org.springframework.web.context.request.NativeWebRequest;
 import org.zalando.problem.Problem;
 import org.zalando.problem.Status;
 import org.zalando.problem.ThrowableProblem;
@@ -19,4 +24,22 @@ public class ExceptionHandlerController implements ProblemHandling {
                       .withDetail(exc.getCause().getMessage())
                       .build();
     }
+
+    @ExceptionHandler
+    public ResponseEntity<Problem> toProblem(TaskRejectedProblem problem, NativeWebRequest request) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RETRY_AFTER,
+                    String.valueOf(TaskRejectedProblem.toSeconds(problem.getRetryAfter())));
+        return create(problem, request, headers);
+    }
+
+    /**
+     * Part of the output has been sent already, so there's no writing a problem after it.
+     * Left unhandled, the exception makes the container close the connection,
+     * so that the client doesn't take the output for complete.
+     */
+    @ExceptionHandler
+    public void rethrow(OutputTransferAbortedException exc) throws OutputTransferAbortedException {
+        throw exc;
+    }
 }
@@ -0,0 +1,138 @@
+package io.github.daniil547.js_executor_rest.domain;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongFunction;
+
+/**
+ * A pool of pre-built, never used {@link TaskContext}s.
+ * <p>
+ * A background thread keeps the pool filled up to its target size,
+ * so that building a context (which includes engine bootstrap if the engine isn't shared)
+ * happens ahead of time, instead of when a task needs one.
+ * <p>
+ * Contexts are single-use: a context taken from the pool is never returned to it.
+ * All pooled contexts have the same statement limit; tasks with other limits
+ * get a context built synchronously.
+ * <p>
+ * Created by {@link JsContextFactory#startPool(int, long)}. Thread-safe.
+ */
+public class ContextPool implements MeterBinder, AutoCloseable {
+    // how long the replenisher sleeps if nobody takes contexts
+    private static final long IDLE_PARK_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final LongFunction<TaskContext> builder;
+    private final long statementLimit;
+    private final BlockingQueue<TaskContext> idle;
+    private final Thread replenisher;
+    private volatile boolean closed = false;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong refills = new AtomicLong();
+
+    ContextPool(LongFunction<TaskContext> builder, int targetSize, long statementLimit) {
+        this.builder = builder;
+        this.statementLimit = statementLimit;
+        this.idle = new ArrayBlockingQueue<>(targetSize);
+        this.replenisher = new Thread(this::replenish, "context-pool-replenisher");
+        this.replenisher.setDaemon(true);
+        this.replenisher.start();
+    }
+
+    /**
+     * Takes a context from the pool, or builds one in the calling thread
+     * if the pool is empty or the statement limit is different.
+     *
+     * @param statementLimit statement limit of the context
+     * @return a context that was never used
+     */
+    public TaskContext acquire(long statementLimit) {
+        if (statementLimit == this.statementLimit) {
+            TaskContext pooled = idle.poll();
+            if (pooled != null) {
+                hits.incrementAndGet();
+                LockSupport.unpark(replenisher);
+                return pooled;
+            }
+        }
+        misses.incrementAndGet();
+        return builder.apply(statementLimit);
+    }
+
+    private void replenish() {
+        while (!closed) {
+            if (idle.remainingCapacity() > 0) {
+                TaskContext context;
+                try {
+                    context = builder.apply(statementLimit);
+                } catch (RuntimeException e) {
+                    // e.g. the engine is being closed; don't spin on it
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                    continue;
+                }
+                // only the replenisher adds, so there is always room
+                idle.add(context);
+                refills.incrementAndGet();
+            } else {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+    }
+
+    public int getDepth() {
+        return idle.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getRefills() {
+        return refills.get();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("task.context.pool.depth", this, ContextPool::getDepth)
+             .register(registry);
+        FunctionCounter.builder("task.context.pool.acquisitions", this, ContextPool::getHits)
+                       .tag("result", "pooled")
+                       .register(registry);
+        FunctionCounter.builder("task.context.pool.acquisitions", this, ContextPool::getMisses)
+                       .tag("result", "built-synchronously")
+                       .register(registry);
+        FunctionCounter.builder("task.context.pool.refills", this, ContextPool::getRefills)
+                       .register(registry);
+    }
+
+    /**
+     * Stops refilling and closes all contexts left in the pool.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(replenisher);
+        try {
+            replenisher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        TaskContext context;
+        while ((context = idle.poll()) != null) {
+            context.close();
+        }
+    }
+}
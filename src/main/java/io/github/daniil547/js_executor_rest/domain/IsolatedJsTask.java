@@ -3,17 +3,18 @@ package io.github.daniil547.js_executor_rest.domain;
 import io.github.daniil547.js_executor_rest.exceptions.ScriptStateConflictProblem;
 import org.graalvm.polyglot.*;
 
-import java.io.BufferedOutputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.lang.management.ThreadMXBean;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.time.ZonedDateTime;
 import java.time.temporal.Temporal;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.StreamSupport;
 
 /**
@@ -22,88 +23,156 @@ import java.util.stream.StreamSupport;
  * <p>
  * Uses GraalVM (which in turn uses GraalJS) as Javascript engine.
  * <p>
- * Each script uses a separate engine object. It might be
- * changed to use a shared one for better performance. <br>
- * However doing so might allow one task to access/manipulate
- * other ones. (requires profiling and further research)
+ * Each script uses a separate context. Depending on the {@link JsContextFactory}
+ * contexts either have their own engines, or share one for better performance
+ * (engine bootstrap and compiled code are then reused). Guest state is per-context
+ * in both cases, so tasks can't access/manipulate each other.
+ * <p>
+ * The context (with its output buffer) and the parsed source are materialized
+ * only when the task starts executing. A {@link Status#SCHEDULED} task holds
+ * just its source code and metadata, so a long queue of tasks stays cheap.
+ * Once it has ended, its source and output can be {@link #spill(SpillStore) spilled}
+ * off heap, so that a lot of ended tasks stay cheap too.
  * <p>
  * Implementation is to be managed externally
  * (e.g. by an {@link java.util.concurrent.ExecutorService}).
- * It allows valid concurrent (non-blocking) access to its methods.
+ * It allows valid concurrent (non-blocking) access to its methods:
+ * the lifecycle is an immutable {@link State} swapped by compare-and-set,
+ * so status and timestamps are always read consistently and without locking,
+ * and concurrent transitions (e.g. starting vs canceling) are never lost.
  * <p>
  * Even though it's named Isolated<u>Js</u>Task, the only bit of
  * specialization currently present is "js" string being passed to
- * {@link Context#newBuilder(String...)} and
+ * {@link Context#newBuilder(String...)} (see {@link JsContextFactory}) and
  * {@link Source#newBuilder(String, CharSequence, String)}.
  * It can be easily generified (if required at some point)
  * by making language identifier into a constructor parameter.
  * <p>
  * {@link Status#CANCELED} means that the task was either canceled
- * by the user or executed {@code IsolatedJsTask(..., long statementLimit)}
- * statements.
+ * by the user, executed {@code IsolatedJsTask(..., long statementLimit)}
+ * statements, ran past its timeout or wrote more output than allowed
+ * (see {@link #getTerminationReason()}).
  */
 public class IsolatedJsTask implements LanguageTask {
     public static final String LANG = "js";
     public static final String EXECUTE = "start";
     public static final String CANCEL = "cancel";
-    private final Context polyglotContext;
+    private final JsContextFactory contextFactory;
+    private final long statementLimit;
+    private final Optional<Duration> timeout;
+    private final Priority priority;
     private final UUID id;
-    private final String sourceCode;
-    private Status currentStatus;
-    private final ByteArrayOutputStream out;
-    private String errors = "";
+    // null once spilled
+    private volatile String sourceCode;
+    private volatile SpillStore.Record spilledSource;
+    private SpillStore spillStore;
+    private final TaskOutput output;
+    private final AtomicReference<State> state = new AtomicReference<>(State.INITIAL);
+    // completed after the context is closed, so that the output is final
+    private final CompletableFuture<LanguageTask> termination = new CompletableFuture<>();
 
-    private Optional<ZonedDateTime> startTime;
-    private Optional<Duration> duration;
-    private Optional<ZonedDateTime> endTime;
+    /**
+     * Creates a task with a context of its own engine.
+     *
+     * @param sourceCode     JavaScript code to be executed
+     * @param statementLimit maximum number of statements allowed to be executed by this task
+     */
+    public IsolatedJsTask(String sourceCode, long statementLimit) {
+        this(sourceCode, statementLimit, JsContextFactory.perTaskEngine());
+    }
 
-    private final Object lock = new Object();
-    private final Source polyglotSource;
+    /**
+     * Creates a task with no time limit.
+     *
+     * @param sourceCode     JavaScript code to be executed
+     * @param statementLimit maximum number of statements allowed to be executed by this task
+     * @param contextFactory where the task's polyglot context comes from
+     */
+    public IsolatedJsTask(String sourceCode, long statementLimit, JsContextFactory contextFactory) {
+        this(sourceCode, statementLimit, null, contextFactory);
+    }
 
     /**
-     * One and only constructor.
+     * Creates a task with {@link Priority#NORMAL} priority.
      *
      * @param sourceCode     JavaScript code to be executed
      * @param statementLimit maximum number of statements allowed to be executed by this task
+     * @param timeout        wall-clock time limit of the task, or {@code null} for no limit
+     *                       (see {@link #getTimeout()})
+     * @param contextFactory where the task's polyglot context comes from
      */
-    public IsolatedJsTask(String sourceCode, long statementLimit) {
-        this.out = new ByteArrayOutputStream();
-        Context.Builder builder = Context.newBuilder(LANG)
-                                         .in(InputStream.nullInputStream())
-                                         .out(new BufferedOutputStream(out))
-                                         //provided, but unused by GraalJS
-                                         .err(new BufferedOutputStream(out))
-                                         .allowHostAccess(HostAccess.NONE)
-                                         .allowPolyglotAccess(PolyglotAccess.NONE)
-                                         .allowCreateProcess(false)
-                                         .allowCreateThread(false)
-                                         .allowHostAccess(HostAccess.SCOPED)
-                                         .allowAllAccess(false)
-                                         .allowEnvironmentAccess(EnvironmentAccess.NONE)
-                                         // unavailable in community edition of GraalVM
-                                         //.option("sandbox.MaxHeapMemory", /*inject from config*/);
-                                         // and also requires
-                                         //.allowExperimentalOptions(true)
-                                         //so there's a workaround (and the only stable resource limiting feature)
-                                         .resourceLimits(
-                                                 ResourceLimits.newBuilder()
-                                                               // perform no filtering
-                                                               .statementLimit(statementLimit,
-                                                                               null)
-                                                               // context is closed automatically
-                                                               // upon reaching the limit
-                                                               // this is for other actions
-                                                               .onLimit((s) -> this.cancel())
-                                                               .build());
-        this.startTime = Optional.empty();
-        this.duration = Optional.empty();
-        this.endTime = Optional.empty();
-        this.polyglotContext = builder.build();
+    public IsolatedJsTask(String sourceCode,
+                          long statementLimit,
+                          Duration timeout,
+                          JsContextFactory contextFactory) {
+        this(sourceCode, statementLimit, timeout, Priority.NORMAL, contextFactory);
+    }
+
+    /**
+     * Creates a task with no limit on its output.
+     *
+     * @param sourceCode     JavaScript code to be executed
+     * @param statementLimit maximum number of statements allowed to be executed by this task
+     * @param timeout        wall-clock time limit of the task, or {@code null} for no limit
+     *                       (see {@link #getTimeout()})
+     * @param priority       how urgently the task should be executed,
+     *                       or {@code null} for {@link Priority#NORMAL}
+     * @param contextFactory where the task's polyglot context comes from
+     */
+    public IsolatedJsTask(String sourceCode,
+                          long statementLimit,
+                          Duration timeout,
+                          Priority priority,
+                          JsContextFactory contextFactory) {
+        this(sourceCode, statementLimit, timeout, priority, OutputLimit.UNLIMITED, contextFactory);
+    }
+
+    /**
+     * Creates a task with a new random ID.
+     *
+     * @param sourceCode     JavaScript code to be executed
+     * @param statementLimit maximum number of statements allowed to be executed by this task
+     * @param timeout        wall-clock time limit of the task, or {@code null} for no limit
+     *                       (see {@link #getTimeout()})
+     * @param priority       how urgently the task should be executed,
+     *                       or {@code null} for {@link Priority#NORMAL}
+     * @param outputLimit    how much output of the task is kept
+     * @param contextFactory where the task's polyglot context comes from
+     */
+    public IsolatedJsTask(String sourceCode,
+                          long statementLimit,
+                          Duration timeout,
+                          Priority priority,
+                          OutputLimit outputLimit,
+                          JsContextFactory contextFactory) {
+        this(UUID.randomUUID(), sourceCode, statementLimit, timeout, priority, outputLimit, contextFactory);
+    }
+
+    /**
+     * @param id             ID of the task, e.g. the one it had before a restart
+     * @param sourceCode     JavaScript code to be executed
+     * @param statementLimit maximum number of statements allowed to be executed by this task
+     * @param timeout        wall-clock time limit of the task, or {@code null} for no limit
+     *                       (see {@link #getTimeout()})
+     * @param priority       how urgently the task should be executed,
+     *                       or {@code null} for {@link Priority#NORMAL}
+     * @param outputLimit    how much output of the task is kept
+     * @param contextFactory where the task's polyglot context comes from
+     */
+    public IsolatedJsTask(UUID id,
+                          String sourceCode,
+                          long statementLimit,
+                          Duration timeout,
+                          Priority priority,
+                          OutputLimit outputLimit,
+                          JsContextFactory contextFactory) {
+        this.output = new TaskOutput(outputLimit, this::outputLimitReached);
+        this.contextFactory = contextFactory;
+        this.statementLimit = statementLimit;
+        this.timeout = Optional.ofNullable(timeout);
+        this.priority = priority != null ? priority : Priority.NORMAL;
         this.sourceCode = sourceCode;
-        this.polyglotSource = makeSource();
-        polyglotContext.parse(polyglotSource);
-        currentStatus = Status.SCHEDULED;
-        id = UUID.randomUUID();
+        this.id = id;
     }
 
 
@@ -117,22 +186,66 @@ public class IsolatedJsTask implements LanguageTask {
      */
     @Override
     public String getSource() {
-        return sourceCode;
+        String source = sourceCode;
+        if (source != null) {
+            return source;
+        }
+        return StandardCharsets.UTF_8.decode(spillStore.read(spilledSource)).toString();
     }
 
     @Override
     public Status getStatus() {
-        return currentStatus;
+        return state.get().status();
     }
 
     @Override
     public String getOutput() {
-        return out.toString(StandardCharsets.UTF_8) + errors;
+        return output.toString();
+    }
+
+    @Override
+    public long getOutputSize() {
+        return output.getWritten();
+    }
+
+    @Override
+    public long getRetainedOutputSize() {
+        return output.getRetained();
+    }
+
+    @Override
+    public boolean isOutputTruncated() {
+        return output.isTruncated();
+    }
+
+    @Override
+    public OutputSlice readOutput(long from) {
+        return output.read(from);
+    }
+
+    @Override
+    public OutputSlice tailOutput(int lines) {
+        return output.tail(lines);
+    }
+
+    @Override
+    public OutputRange getOutputRange() {
+        return output.range();
+    }
+
+    @Override
+    public long transferOutput(long from, long to, WritableByteChannel target) throws IOException {
+        return output.transferTo(from, to, target);
+    }
+
+    @Override
+    public OutputSubscription subscribeToOutput(long from, long maxPendingBytes, Runnable onSignal) {
+        return output.subscribe(from, maxPendingBytes, onSignal);
     }
 
     @Override
     public Optional<ZonedDateTime> getStartTime() {
-        return startTime;
+        return Optional.ofNullable(state.get().startTime());
     }
 
     /**
@@ -153,20 +266,40 @@ public class IsolatedJsTask implements LanguageTask {
      */
     @Override
     public Optional<Duration> getDuration() {
-        synchronized (lock) {
-            if (currentStatus == Status.RUNNING) {
-                return startTime.map(
-                        zonedDateTime -> Duration.between(zonedDateTime, ZonedDateTime.now())
-                );
-            } else {
-                return duration;
-            }
+        State current = state.get();
+        // a task canceled while scheduled has never started
+        if (current.startTime() == null) {
+            return Optional.empty();
         }
+        return Optional.of(Duration.between(current.startTime(),
+                                            current.status() == Status.RUNNING ? ZonedDateTime.now()
+                                                                               : current.endTime()));
     }
 
     @Override
     public Optional<ZonedDateTime> getEndTime() {
-        return endTime;
+        return Optional.ofNullable(state.get().endTime());
+    }
+
+    @Override
+    public Optional<TerminationReason> getTerminationReason() {
+        return Optional.ofNullable(state.get().terminationReason());
+    }
+
+    @Override
+    public Optional<Duration> getTimeout() {
+        return timeout;
+    }
+
+    @Override
+    public Priority getPriority() {
+        return priority;
+    }
+
+    @Override
+    public CompletionStage<LanguageTask> getTermination() {
+        // can't be completed by anyone else
+        return termination.minimalCompletionStage();
     }
 
     /**
@@ -178,37 +311,62 @@ public class IsolatedJsTask implements LanguageTask {
      * or {@link Status#CANCELED}, if the task was canceled
      * by a user, or statement limit was hit.
      * <p>
-     * *Might* throw an {@link IOException}, if the loading of
+     * *Might* throw an {@link java.io.IOException}, if the loading of
      * code fails. <br> Here it is loaded from a string, so such
      * event is unlikely, but it is ultimately up to
      * a language engine implementation.
      */
     @Override
     public void execute() {
-        synchronized (lock) {
-            switch (currentStatus) {
-                case SCHEDULED -> {
-                    currentStatus = Status.RUNNING;
-                    startTime = Optional.of(ZonedDateTime.now());
-                }
+        State scheduled = state.get();
+        while (true) {
+            switch (scheduled.status()) {
                 case RUNNING -> throw new ScriptStateConflictProblem(
                         "Task " + this.id + " is already " + LanguageTask.Status.RUNNING.toString().toLowerCase(),
-                        this.id, this.currentStatus, EXECUTE
+                        this.id, scheduled.status(), EXECUTE
                 );
                 case FINISHED, CANCELED -> throw new ScriptStateConflictProblem(
-                        "Script " + this.id + "can't be executed as it is " + currentStatus.toString().toLowerCase()
+                        "Script " + this.id + "can't be executed as it is " + scheduled.status().toString().toLowerCase()
                         + ". Scripts can't be restarted.",
-                        this.id, this.currentStatus, EXECUTE
+                        this.id, scheduled.status(), EXECUTE
                 );
             }
+            State witness = state.compareAndExchange(scheduled, scheduled.start());
+            if (witness == scheduled) {
+                break;
+            }
+            // lost to a concurrent transition
+            scheduled = witness;
         }
 
+        TaskContext taskContext = null;
+        // anything but the script itself failing is a bug
+        TerminationReason outcome = TerminationReason.FAILED;
         try {
-            polyglotContext.eval(polyglotSource);
+            taskContext = contextFactory.acquireContext(statementLimit);
+            // context is closed automatically upon reaching the limit
+            // this is for other actions
+            taskContext.onLimit(this::statementLimitReached);
+            taskContext.redirectOutput(output);
+            State running = state.get();
+            // fails if canceled while the context was being acquired
+            if (running.status() != Status.RUNNING
+                || !state.compareAndSet(running, running.withContext(taskContext))) {
+                return;
+            }
+            // executing the parsed value runs the script without parsing it again
+            taskContext.getContext()
+                       .parse(contextFactory.makeSource(sourceCode))
+                       .execute();
+            outcome = TerminationReason.COMPLETED;
         }
         // GraalJS doesn't write errors to its err, even though it is provided
-        // to the builder in the constructor above
+        // to the context builder (see JsContextFactory)
         catch (PolyglotException e) {
+            if (e.isCancelled()) {
+                // closed by cancel() or upon reaching the statement limit
+                return;
+            }
             StringBuilder errorAcumulator = new StringBuilder("");
             errorAcumulator.append(e.getMessage());
             StreamSupport.stream(e.getPolyglotStackTrace().spliterator(), false)
@@ -216,54 +374,189 @@ public class IsolatedJsTask implements LanguageTask {
                          // though some formatting or wording may still be unique to GraalVM
                          .filter(PolyglotException.StackFrame::isGuestFrame)
                          .forEach(obj -> errorAcumulator.append(obj).append("\n"));
-            errors = errorAcumulator.toString();
+            // after the output written by the script, so that they're streamed too
+            try {
+                output.write(errorAcumulator.toString().getBytes(StandardCharsets.UTF_8));
+            } catch (IOException ex) {
+                throw new AssertionError("Output is closed only after the task has ended", ex);
+            }
         } finally {
-            currentStatus = Status.FINISHED;
-            catchEndTime();
-            polyglotContext.close();
+            // canceled tasks stay canceled
+            transitionFromRunning(Status.FINISHED, outcome);
+            if (taskContext != null) {
+                taskContext.close();
+            }
+            output.close();
+            termination.complete(this);
         }
     }
 
     /**
      * Cancels the task.
      * <p>
-     * This implementation is meant to be managed by an external
-     * executor, so it only changes the {@link #currentStatus}
-     * {@link Status#CANCELED}.
+     * A {@link Status#SCHEDULED} task just becomes {@link Status#CANCELED},
+     * so that it won't start. Guest code of a {@link Status#RUNNING} task
+     * is forcibly stopped: its context is closed with cancel semantics,
+     * which makes {@link #execute()} return. This method blocks until
+     * the guest code has stopped.
      */
     @Override
     public void cancel() {
-        synchronized (lock) {
-            switch (currentStatus) {
-                case SCHEDULED, RUNNING -> {
-                    this.currentStatus = Status.CANCELED;
-                    catchEndTime();
-                }
+        cancel(TerminationReason.CANCELED);
+    }
+
+    /**
+     * Cancels the task the same way {@link #cancel()} does.
+     */
+    @Override
+    public void timeOut() {
+        cancel(TerminationReason.TIMED_OUT);
+    }
+
+    private void cancel(TerminationReason reason) {
+        State previous = state.get();
+        while (true) {
+            switch (previous.status()) {
                 case FINISHED, CANCELED -> throw new ScriptStateConflictProblem(
-                        "Task " + this.id + " is already " + currentStatus.toString().toLowerCase() +
+                        "Task " + this.id + " is already " + previous.status().toString().toLowerCase() +
                         ". Canceling it again will have no effect",
-                        this.id, this.currentStatus, CANCEL);
+                        this.id, previous.status(), CANCEL);
             }
+            State witness = state.compareAndExchange(previous, previous.end(Status.CANCELED, reason));
+            if (witness == previous) {
+                break;
+            }
+            previous = witness;
+        }
+        if (previous.context() != null) {
+            previous.context().cancel();
+        }
+        // otherwise execute() completes it once the context is closed
+        if (previous.status() == Status.SCHEDULED) {
+            output.close();
+            termination.complete(this);
         }
     }
 
-    private Source makeSource() {
+    /**
+     * Ends a new task the way it ended before a restart, without executing it.
+     *
+     * @param status          {@link Status#FINISHED} or {@link Status#CANCELED}
+     * @param reason          why it ended
+     * @param startTime       when it started, {@code null} if it never did
+     * @param endTime         when it ended
+     * @param outputOffset    offset of the first kept byte of its output
+     * @param output          what was kept of its output
+     * @param outputSize      number of bytes of output it wrote, including discarded ones
+     * @param outputTruncated whether some of its output was discarded
+     */
+    public void restore(Status status,
+                        TerminationReason reason,
+                        ZonedDateTime startTime,
+                        ZonedDateTime endTime,
+                        long outputOffset,
+                        byte[] output,
+                        long outputSize,
+                        boolean outputTruncated) {
+        if (status != Status.FINISHED && status != Status.CANCELED) {
+            throw new IllegalArgumentException("Only ended tasks can be restored, not " + status);
+        }
+        if (!state.compareAndSet(State.INITIAL, new State(status, startTime, endTime, reason, null))) {
+            throw new ScriptStateConflictProblem("Task " + id + " can't be restored, as it is "
+                                                 + getStatus().toString().toLowerCase(),
+                                                 id, getStatus(), EXECUTE);
+        }
         try {
-            return Source.newBuilder(LANG, sourceCode, "Task")
-                         // can it even fail if loaded from a string?
-                         // who knows... nothing in the docs
-                         // also we have a context per script, so having a particular name
-                         // for a script inside a context shouldn't matter
-                         .build();
+            this.output.restore(outputOffset, output, outputSize, outputTruncated);
         } catch (IOException e) {
-            throw new AssertionError("Source.Builder.build() wasn't expected " +
-                                     "to fail when source is loaded from a string", e);
+            throw new AssertionError("Output of a new task is open", e);
         }
+        termination.complete(this);
     }
 
-    private void catchEndTime() {
-        endTime = Optional.of(ZonedDateTime.now());
-        duration = Optional.of(Duration.between(startTime.get(),
-                                                endTime.get()));
+    /**
+     * Unlike {@link #cancel()}, doesn't stop guest code:
+     * the context is closed by the engine itself.
+     */
+    private void statementLimitReached() {
+        // might have been canceled by a user at the same moment
+        transitionFromRunning(Status.CANCELED, TerminationReason.STATEMENT_LIMIT);
+    }
+
+    /**
+     * Invoked by the thread executing guest code, from within the guest's write.
+     * Closing the context with cancel semantics from that thread is allowed,
+     * and stops the guest as soon as the write returns.
+     */
+    private void outputLimitReached() {
+        // might have been canceled by a user at the same moment
+        State previous = transitionFromRunning(Status.CANCELED, TerminationReason.OUTPUT_LIMIT);
+        if (previous != null && previous.context() != null) {
+            previous.context().cancel();
+        }
+    }
+
+    /**
+     * Ends the task, unless it has already ended.
+     *
+     * @return the state the task has left, or {@code null} if it wasn't running
+     */
+    private State transitionFromRunning(Status status, TerminationReason reason) {
+        State running = state.get();
+        while (running.status() == Status.RUNNING) {
+            State witness = state.compareAndExchange(running, running.end(status, reason));
+            if (witness == running) {
+                return running;
+            }
+            running = witness;
+        }
+        return null;
+    }
+
+    @Override
+    public void spill(SpillStore store) {
+        if (!termination.isDone()) {
+            throw new IllegalStateException("Task " + id + " hasn't ended yet");
+        }
+        output.spill(store);
+        spillStore = store;
+        // published by the record, before the source is dropped
+        spilledSource = store.append(sourceCode.getBytes(StandardCharsets.UTF_8));
+        sourceCode = null;
+    }
+
+    @Override
+    public void discardSpilled() {
+        output.freeSpilled();
+        SpillStore.Record source = spilledSource;
+        if (source != null) {
+            spillStore.free(source);
+        }
+    }
+
+    /**
+     * A point of the task's lifecycle. Never mutated, but replaced as a whole,
+     * so that the status is always seen along with its timestamps.
+     *
+     * @param context context of the task while it's running, {@code null} otherwise
+     */
+    private record State(Status status,
+                         ZonedDateTime startTime,
+                         ZonedDateTime endTime,
+                         TerminationReason terminationReason,
+                         TaskContext context) {
+        static final State INITIAL = new State(Status.SCHEDULED, null, null, null, null);
+
+        State start() {
+            return new State(Status.RUNNING, ZonedDateTime.now(), null, null, null);
+        }
+
+        State withContext(TaskContext context) {
+            return new State(status, startTime, endTime, terminationReason, context);
+        }
+
+        State end(Status status, TerminationReason reason) {
+            return new State(status, startTime, ZonedDateTime.now(), reason, null);
+        }
     }
-}
\ No newline at end of file
+}
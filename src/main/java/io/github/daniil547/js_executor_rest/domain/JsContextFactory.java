@@ -0,0 +1,210 @@
+package io.github.daniil547.js_executor_rest.domain;
+
+import org.graalvm.polyglot.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Builds sandboxed polyglot {@link Context}s for {@link IsolatedJsTask}s.
+ * <p>
+ * Operates in one of two modes:
+ * <ul>
+ *     <li>per-task engine: every context gets its own implicit {@link Engine},
+ *         so nothing (including JIT-compiled code and parsed ASTs)
+ *         survives from one task to the next;</li>
+ *     <li>shared engine: all contexts are bound to a single explicit {@link Engine}.
+ *         Engine bootstrap is paid once, and code caches are reused across tasks.</li>
+ * </ul>
+ * In both modes every task still gets a context of its own.
+ * An engine only shares code, not guest state: global objects, bindings etc.
+ * belong to a context, so tasks can't see or manipulate each other.
+ * <p>
+ * Also makes {@link Source}s. With a shared engine they may come from a {@link SourceCache},
+ * so that identical scripts reuse code parsed and compiled by the engine.
+ * <p>
+ * Contexts can be built ahead of time by a {@link ContextPool}, see {@link #startPool(int, long)}.
+ */
+public class JsContextFactory implements AutoCloseable {
+    /**
+     * {@link Engine#getImplementationName()} of the fallback Truffle runtime,
+     * which is used when the Graal compiler isn't available (e.g. on a stock JDK).
+     */
+    public static final String INTERPRETER_ONLY_IMPLEMENTATION = "Interpreted";
+    // the warning is printed for every engine, instead it's reported once on startup
+    private static final String WARN_INTERPRETER_ONLY = "engine.WarnInterpreterOnly";
+
+    private final Engine sharedEngine;
+    private final SourceCache sourceCache;
+    private volatile ContextPool contextPool;
+
+    private JsContextFactory(Engine sharedEngine, SourceCache sourceCache) {
+        this.sharedEngine = sharedEngine;
+        this.sourceCache = sourceCache;
+    }
+
+    /**
+     * @return a factory, which creates a separate engine for each context
+     */
+    public static JsContextFactory perTaskEngine() {
+        return new JsContextFactory(null, null);
+    }
+
+    /**
+     * @return a factory, which binds all contexts to one engine;
+     * the engine lives until the factory is {@link #close() closed}
+     */
+    public static JsContextFactory withSharedEngine() {
+        return withSharedEngine(null);
+    }
+
+    /**
+     * @param sourceCache cache for sources made by the factory, or {@code null} to not cache them
+     * @return a factory, which binds all contexts to one engine;
+     * the engine lives until the factory is {@link #close() closed}
+     */
+    public static JsContextFactory withSharedEngine(SourceCache sourceCache) {
+        return new JsContextFactory(newEngine(), sourceCache);
+    }
+
+    private static Engine newEngine() {
+        return Engine.newBuilder()
+                     .in(InputStream.nullInputStream())
+                     .option(WARN_INTERPRETER_ONLY, "false")
+                     .build();
+    }
+
+    public boolean isEngineShared() {
+        return sharedEngine != null;
+    }
+
+    /**
+     * @return name of the Truffle runtime engines of this factory run on
+     */
+    public String getImplementationName() {
+        if (sharedEngine != null) {
+            return sharedEngine.getImplementationName();
+        }
+        try (Engine engine = newEngine()) {
+            return engine.getImplementationName();
+        }
+    }
+
+    /**
+     * @return whether guest code is JIT-compiled, rather than only interpreted
+     */
+    public boolean isCompilationEnabled() {
+        return !INTERPRETER_ONLY_IMPLEMENTATION.equals(getImplementationName());
+    }
+
+    /**
+     * Starts pre-building contexts, which are then returned by {@link #acquireContext(long)}.
+     *
+     * @param targetSize     how many contexts are kept ready
+     * @param statementLimit statement limit of pooled contexts
+     * @return the started pool
+     */
+    public ContextPool startPool(int targetSize, long statementLimit) {
+        ContextPool pool = new ContextPool(this::newTaskContext, targetSize, statementLimit);
+        this.contextPool = pool;
+        return pool;
+    }
+
+    /**
+     * Returns a context that was never used: a pooled one if possible,
+     * otherwise one built in the calling thread.
+     *
+     * @param statementLimit maximum number of statements allowed to be executed in the context
+     * @return a context ready to evaluate code
+     */
+    public TaskContext acquireContext(long statementLimit) {
+        ContextPool pool = contextPool;
+        return pool != null ? pool.acquire(statementLimit)
+                            : newTaskContext(statementLimit);
+    }
+
+    /**
+     * Builds a new context with no access to host VM, FS, processes, threads etc.
+     *
+     * @param statementLimit maximum number of statements allowed to be executed in the context
+     * @return a context ready to evaluate code
+     */
+    public TaskContext newTaskContext(long statementLimit) {
+        TaskContext taskContext = new TaskContext();
+        Context.Builder builder = Context.newBuilder(IsolatedJsTask.LANG)
+                                         .in(InputStream.nullInputStream())
+                                         // unbuffered, so that output can be watched as it's written
+                                         .out(taskContext.getSink())
+                                         //provided, but unused by GraalJS
+                                         .err(taskContext.getSink())
+                                         .allowHostAccess(HostAccess.NONE)
+                                         .allowPolyglotAccess(PolyglotAccess.NONE)
+                                         .allowCreateProcess(false)
+                                         .allowCreateThread(false)
+                                         .allowHostAccess(HostAccess.SCOPED)
+                                         .allowAllAccess(false)
+                                         .allowEnvironmentAccess(EnvironmentAccess.NONE)
+                                         // unavailable in community edition of GraalVM
+                                         //.option("sandbox.MaxHeapMemory", /*inject from config*/);
+                                         // and also requires
+                                         //.allowExperimentalOptions(true)
+                                         //so there's a workaround (and the only stable resource limiting feature)
+                                         .resourceLimits(
+                                                 ResourceLimits.newBuilder()
+                                                               // perform no filtering
+                                                               // (filter must be the same for all
+                                                               // contexts of a shared engine)
+                                                               .statementLimit(statementLimit,
+                                                                               null)
+                                                               // the task decides what to do
+                                                               .onLimit(e -> taskContext.limitReached())
+                                                               .build());
+        if (sharedEngine != null) {
+            builder.engine(sharedEngine);
+        } else {
+            // engine options can only be set for an implicit engine
+            builder.option(WARN_INTERPRETER_ONLY, "false");
+        }
+        taskContext.setContext(builder.build());
+        return taskContext;
+    }
+
+    /**
+     * @param sourceCode JavaScript code
+     * @return source of the code, possibly one made earlier for the same code
+     */
+    public Source makeSource(String sourceCode) {
+        if (sourceCache != null) {
+            return sourceCache.get(sourceCode, JsContextFactory::buildSource);
+        }
+        return buildSource(sourceCode);
+    }
+
+    private static Source buildSource(String sourceCode) {
+        try {
+            return Source.newBuilder(IsolatedJsTask.LANG, sourceCode, "Task")
+                         // can it even fail if loaded from a string?
+                         // who knows... nothing in the docs
+                         // the name is the same for all sources, since
+                         // engine's code cache treats only equal sources as the same code
+                         .build();
+        } catch (IOException e) {
+            throw new AssertionError("Source.Builder.build() wasn't expected " +
+                                     "to fail when source is loaded from a string", e);
+        }
+    }
+
+    /**
+     * Closes the pool and the shared engine, if there are ones.
+     * Contexts created by this factory must be closed before that.
+     */
+    @Override
+    public void close() {
+        if (contextPool != null) {
+            contextPool.close();
+        }
+        if (sharedEngine != null) {
+            sharedEngine.close();
+        }
+    }
+}
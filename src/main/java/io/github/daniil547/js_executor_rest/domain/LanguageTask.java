@@ -1,9 +1,12 @@
 package io.github.daniil547.js_executor_rest.domain;
 
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
 import java.time.Duration;
 import java.time.ZonedDateTime;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletionStage;
 
 /**
  * Represents a single script of a guest language.
@@ -45,6 +48,60 @@ public interface LanguageTask {
         FINISHED;
     }
 
+    /**
+     * Represents the reason task's execution has ended.
+     */
+    public static enum TerminationReason {
+        /**
+         * The script ran to its end.
+         */
+        COMPLETED,
+        /**
+         * The script was stopped by an error.
+         */
+        FAILED,
+        /**
+         * The task was canceled by a user or app's logic.
+         */
+        CANCELED,
+        /**
+         * The task executed the maximum number of statements it was allowed to.
+         */
+        STATEMENT_LIMIT,
+        /**
+         * The task ran past its deadline (see {@link #getTimeout()}).
+         */
+        TIMED_OUT,
+        /**
+         * The task wrote more output than it was allowed to (see {@link OutputLimit.Policy#CANCEL}).
+         */
+        OUTPUT_LIMIT,
+        /**
+         * The service stopped while the task was running, and the task was recovered after a restart.
+         * Output written before the stop is lost.
+         */
+        INTERRUPTED;
+    }
+
+    /**
+     * Represents how urgently a task should be executed
+     * relative to other queued tasks.
+     */
+    public static enum Priority {
+        /**
+         * Someone is waiting for the result.
+         */
+        INTERACTIVE,
+        /**
+         * The default.
+         */
+        NORMAL,
+        /**
+         * Bulk work, which can wait.
+         */
+        BATCH;
+    }
+
 
     /**
      * @return task's ID
@@ -81,6 +138,66 @@ public interface LanguageTask {
      */
     String getOutput();
 
+    /**
+     * @return number of bytes of output written by the task, including discarded ones
+     */
+    long getOutputSize();
+
+    /**
+     * @return number of bytes of output kept, in memory or {@link #spill(SpillStore) spilled}
+     */
+    long getRetainedOutputSize();
+
+    /**
+     * @return whether some of the output was discarded, because the task wrote more than it was allowed to
+     */
+    boolean isOutputTruncated();
+
+    /**
+     * Same as {@link #getOutput()}, but only the part of it starting at the given offset,
+     * so that reading new output costs as much as the new output.
+     *
+     * @param from offset in bytes, e.g. {@link OutputSlice#nextOffset()} of the previous read
+     * @return output from the offset on
+     */
+    OutputSlice readOutput(long from);
+
+    /**
+     * Same as {@link #getOutput()}, but only the given number of its last lines.
+     *
+     * @param lines how many lines to read
+     * @return last lines of the output
+     */
+    OutputSlice tailOutput(int lines);
+
+    /**
+     * Unlike {@link #readOutput(long)}, doesn't read the output itself.
+     *
+     * @return offsets of the output that's kept
+     */
+    OutputRange getOutputRange();
+
+    /**
+     * Writes the output between the offsets to the target as raw bytes, without decoding them,
+     * see {@link TaskOutput#transferTo(long, long, WritableByteChannel)}.
+     *
+     * @param from offset of the first byte to write, within {@link #getOutputRange()}
+     * @param to   offset right after the last byte to write
+     * @return number of bytes written
+     */
+    long transferOutput(long from, long to, WritableByteChannel target) throws IOException;
+
+    /**
+     * Subscribes to the output of the task, see {@link TaskOutput#subscribe(long, long, Runnable)}.
+     * The subscription ends once the task has ended.
+     *
+     * @param from            offset of the output to start from
+     * @param maxPendingBytes how far the subscriber may fall behind before it's dropped
+     * @param onSignal        invoked when the subscription has something new, must not block
+     * @return the subscription
+     */
+    OutputSubscription subscribeToOutput(long from, long maxPendingBytes, Runnable onSignal);
+
     /**
      * <ul>
      *     <li>If the task is {@link Status#SCHEDULED} returns {@link Optional#empty()}.</li>
@@ -118,6 +235,62 @@ public interface LanguageTask {
      */
     Optional<ZonedDateTime> getEndTime();
 
+    /**
+     * <ul>
+     *     <li>If the task is {@link Status#FINISHED} or {@link Status#CANCELED}
+     *         returns why it has ended as {@link Optional#of(Object) Optional.of(TerminationReason)}.
+     *         {@link Status#FINISHED} tasks are {@link TerminationReason#COMPLETED} or
+     *         {@link TerminationReason#FAILED}, all other reasons mean {@link Status#CANCELED}.</li>
+     *     <li>Otherwise returns {@link Optional#empty()}</li>
+     * </ul>
+     *
+     * @return reason the execution of the task has ended
+     */
+    Optional<TerminationReason> getTerminationReason();
+
+    /**
+     * Returns how much wall-clock time the task is given, counting from its submission
+     * (so time spent waiting in a queue is included). It's up to an external
+     * executor to enforce it by calling {@link #timeOut()}.
+     *
+     * @return time limit of the task, or {@link Optional#empty()} if it has none
+     */
+    Optional<Duration> getTimeout();
+
+    /**
+     * It's up to an external executor to honor it.
+     *
+     * @return how urgently the task should be executed
+     */
+    Priority getPriority();
+
+    /**
+     * Completes with the task once it has ended (for any reason), and
+     * its output doesn't change anymore. Never completes exceptionally.
+     * <p>
+     * Dependent actions may be run by whatever thread ends the task,
+     * so they best be short.
+     *
+     * @return a stage completed when the task becomes {@link Status#FINISHED}
+     * or {@link Status#CANCELED}
+     */
+    CompletionStage<LanguageTask> getTermination();
+
+    /**
+     * Moves the source and the output of an ended task to the store,
+     * so that they don't take heap anymore. They're read from the store afterwards.
+     * Must be called at most once, after {@link #getTermination()} has completed.
+     *
+     * @param store where to move them
+     */
+    void spill(SpillStore store);
+
+    /**
+     * Frees what was {@link #spill(SpillStore) spilled}, if anything, once the task is no longer needed.
+     * The source and the output can't be read afterwards.
+     */
+    void discardSpilled();
+
 
     /**
      * Executes the task.
@@ -146,4 +319,12 @@ public interface LanguageTask {
      * must return {@link Status#CANCELED}.
      */
     void cancel();
+
+    /**
+     * Cancels the task because it ran past its {@link #getTimeout() timeout}.
+     * <p>
+     * Same as {@link #cancel()}, except that {@link #getTerminationReason()}
+     * must return {@link TerminationReason#TIMED_OUT}.
+     */
+    void timeOut();
 }
\ No newline at end of file
@@ -0,0 +1,53 @@
+package io.github.daniil547.js_executor_rest.domain;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A piece of a task's output, as it was written by the guest.
+ * <p>
+ * One chunk is shared by all subscribers of the output (see {@link TaskOutput}),
+ * so it's decoded at most once, regardless of how many of them there are.
+ */
+public final class OutputChunk {
+    private final long offset;
+    private final byte[] bytes;
+    // racy, but decoding twice is harmless
+    private String text;
+
+    OutputChunk(long offset, byte[] bytes) {
+        this.offset = offset;
+        this.bytes = bytes;
+    }
+
+    /**
+     * @return offset of the chunk's first byte in the whole output
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return offset right after the chunk's last byte, i.e. where the next chunk starts
+     */
+    public long getEnd() {
+        return offset + bytes.length;
+    }
+
+    public int length() {
+        return bytes.length;
+    }
+
+    /**
+     * GraalJS writes every printed string at once, so a character is never split between chunks.
+     *
+     * @return the chunk decoded as UTF-8
+     */
+    public String getText() {
+        String decoded = text;
+        if (decoded == null) {
+            decoded = new String(bytes, StandardCharsets.UTF_8);
+            text = decoded;
+        }
+        return decoded;
+    }
+}
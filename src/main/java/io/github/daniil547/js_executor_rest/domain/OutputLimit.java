@@ -0,0 +1,32 @@
+package io.github.daniil547.js_executor_rest.domain;
+
+/**
+ * How much output of a task is kept, and what happens to the rest.
+ *
+ * @param maxBytes maximum number of bytes kept
+ * @param policy   what happens when the task writes more
+ */
+public record OutputLimit(long maxBytes, Policy policy) {
+    public static final OutputLimit UNLIMITED = new OutputLimit(Long.MAX_VALUE, Policy.KEEP_HEAD);
+
+    public OutputLimit {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("Output limit must not be negative, but is " + maxBytes);
+        }
+    }
+
+    public enum Policy {
+        /**
+         * Output past the limit is discarded.
+         */
+        KEEP_HEAD,
+        /**
+         * The oldest output is discarded to make room, so the last {@code maxBytes} are kept.
+         */
+        KEEP_TAIL,
+        /**
+         * Output past the limit is discarded, and the task is canceled.
+         */
+        CANCEL
+    }
+}
@@ -0,0 +1,20 @@
+package io.github.daniil547.js_executor_rest.domain;
+
+/**
+ * The part of a task's output that's kept, at the moment of reading, without its bytes.
+ * Offsets are the same as those of {@link OutputSlice}.
+ *
+ * @param offset    offset of the first kept byte in the whole output
+ * @param end       offset right after the last kept byte
+ * @param complete  whether the task has ended, so nothing will be written past the end
+ * @param truncated whether some of the output was discarded because of its limit
+ */
+public record OutputRange(long offset, long end, boolean complete, boolean truncated) {
+
+    /**
+     * @return number of kept bytes
+     */
+    public long length() {
+        return end - offset;
+    }
+}
@@ -0,0 +1,14 @@
+package io.github.daniil547.js_executor_rest.domain;
+
+/**
+ * A part of a task's output, from some offset up to what was written at the moment of reading.
+ * Offsets count all bytes written by the task, including discarded ones (see {@link OutputLimit}).
+ *
+ * @param text       the part, decoded as UTF-8
+ * @param offset     offset of the part's first byte in the whole output
+ * @param nextOffset offset right after the part, where the next read should start
+ * @param complete   whether the task has ended, so nothing will be written after the part
+ * @param truncated  whether some of the output was discarded because of its limit
+ */
+public record OutputSlice(String text, long offset, long nextOffset, boolean complete, boolean truncated) {
+}
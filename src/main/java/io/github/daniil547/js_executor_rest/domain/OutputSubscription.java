@@ -0,0 +1,162 @@
+package io.github.daniil547.js_executor_rest.domain;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Chunks of a {@link TaskOutput} written since one subscriber has subscribed,
+ * which it hasn't consumed yet.
+ * <p>
+ * Bounded by the number of pending bytes: a subscriber that falls behind
+ * by more than the bound is dropped (see {@link #isOverflowed()}),
+ * instead of holding the guest back or buffering without limit.
+ * <p>
+ * The subscriber is signaled whenever there is something new to {@link #poll()}.
+ * The signal is sent by the thread writing the output, so it must not block,
+ * e.g. it may schedule consumption on another thread. Thread-safe.
+ */
+public class OutputSubscription implements AutoCloseable {
+    private final TaskOutput output;
+    private final long maxPendingBytes;
+    private final Runnable onSignal;
+
+    private final Deque<OutputChunk> pending = new ArrayDeque<>();
+    private long pendingBytes = 0;
+    private long position;
+    // end of output written before subscribing; until it's known, nothing is delivered,
+    // since chunks offered meanwhile might come after the ones it's followed by
+    private long replayedEnd = -1;
+    private boolean ended = false;
+    private boolean overflowed = false;
+    private boolean closed = false;
+
+    OutputSubscription(TaskOutput output, long maxPendingBytes, Runnable onSignal) {
+        this.output = output;
+        this.maxPendingBytes = maxPendingBytes;
+        this.onSignal = onSignal;
+    }
+
+    /**
+     * @return whether the subscriber still wants chunks
+     */
+    boolean offer(OutputChunk chunk) {
+        boolean replayed;
+        synchronized (this) {
+            if (closed || overflowed) {
+                return false;
+            }
+            if (chunk.getEnd() <= replayedEnd) {
+                return true;
+            }
+            // a single chunk larger than the bound is let through,
+            // otherwise a big enough write would drop every subscriber
+            if (!pending.isEmpty() && pendingBytes + chunk.length() > maxPendingBytes) {
+                overflowed = true;
+            } else {
+                pending.add(chunk);
+                pendingBytes += chunk.length();
+            }
+            replayed = replayedEnd >= 0;
+        }
+        if (replayed) {
+            onSignal.run();
+        }
+        return true;
+    }
+
+    /**
+     * Puts output written before subscribing in front of the chunks offered meanwhile.
+     * Chunks offered before it that it covers are dropped, so are later ones.
+     */
+    void replay(OutputChunk existing) {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            replayedEnd = existing.getEnd();
+            position = existing.getOffset();
+            pending.removeIf(chunk -> {
+                if (chunk.getEnd() <= replayedEnd) {
+                    pendingBytes -= chunk.length();
+                    return true;
+                }
+                return false;
+            });
+            if (existing.length() > 0) {
+                pending.addFirst(existing);
+                pendingBytes += existing.length();
+            }
+        }
+        onSignal.run();
+    }
+
+    void end() {
+        boolean replayed;
+        synchronized (this) {
+            ended = true;
+            replayed = replayedEnd >= 0;
+        }
+        if (replayed) {
+            onSignal.run();
+        }
+    }
+
+    /**
+     * @return the oldest chunk not consumed yet, or {@code null} if there is none
+     */
+    public synchronized OutputChunk poll() {
+        if (replayedEnd < 0) {
+            return null;
+        }
+        OutputChunk chunk = pending.poll();
+        if (chunk != null) {
+            pendingBytes -= chunk.length();
+            position = chunk.getEnd();
+        }
+        return chunk;
+    }
+
+    /**
+     * @return offset of the output up to which the subscriber has consumed it
+     */
+    public synchronized long getPosition() {
+        return position;
+    }
+
+    /**
+     * @return whether all chunks are consumed and no more will come,
+     * because the output is closed
+     */
+    public synchronized boolean isEnded() {
+        return replayedEnd >= 0 && ended && pending.isEmpty();
+    }
+
+    /**
+     * @return whether all chunks are consumed and no more will come,
+     * because the subscriber fell too far behind; the output
+     * can be read again from {@link #getPosition()}
+     */
+    public synchronized boolean isOverflowed() {
+        return replayedEnd >= 0 && overflowed && pending.isEmpty();
+    }
+
+    /**
+     * @return whether {@link #poll()} has a chunk, or the subscription has ended either way
+     */
+    public synchronized boolean isReady() {
+        return replayedEnd >= 0 && (!pending.isEmpty() || ended || overflowed);
+    }
+
+    /**
+     * Stops receiving chunks.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            pending.clear();
+            pendingBytes = 0;
+        }
+        output.unsubscribe(this);
+    }
+}
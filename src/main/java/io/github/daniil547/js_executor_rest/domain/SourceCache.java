@@ -0,0 +1,138 @@
+package io.github.daniil547.js_executor_rest.domain;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.graalvm.polyglot.Source;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * A bounded cache of {@link Source}s keyed by SHA-256 of the source code.
+ * <p>
+ * With a shared {@link org.graalvm.polyglot.Engine} identical submissions
+ * then evaluate the very same {@link Source}, so code parsed and compiled
+ * for one task is reused by the next one.
+ * <p>
+ * Least recently used sources are evicted when either the number of entries,
+ * or the total number of cached characters exceeds its limit.
+ * Sources larger than the character limit are never cached.
+ * <p>
+ * Thread-safe.
+ */
+public class SourceCache implements MeterBinder {
+    private final int maxEntries;
+    private final long maxChars;
+
+    // access-ordered, so iteration starts from the least recently used entry
+    private final LinkedHashMap<String, Source> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private long cachedChars = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param maxEntries maximum number of cached sources; 0 disables caching
+     * @param maxChars   maximum number of characters in all cached sources combined
+     */
+    public SourceCache(int maxEntries, long maxChars) {
+        this.maxEntries = maxEntries;
+        this.maxChars = maxChars;
+    }
+
+    /**
+     * Returns the cached source with exactly this code,
+     * or builds one with {@code loader} and caches it.
+     *
+     * @param code   source code
+     * @param loader builds a source from the code on cache miss
+     * @return source of the code
+     */
+    public Source get(String code, Function<String, Source> loader) {
+        String key = hash(code);
+        synchronized (cache) {
+            Source cached = cache.get(key);
+            // practically impossible, but a collision must not run someone else's script
+            if (cached != null && cached.getCharacters().toString().equals(code)) {
+                hits.incrementAndGet();
+                return cached;
+            }
+        }
+        misses.incrementAndGet();
+        // built outside the lock: concurrent misses on the same code
+        // just build equal sources, the last one wins
+        Source source = loader.apply(code);
+        if (maxEntries > 0 && code.length() <= maxChars) {
+            put(key, source);
+        }
+        return source;
+    }
+
+    private void put(String key, Source source) {
+        synchronized (cache) {
+            Source previous = cache.put(key, source);
+            if (previous != null) {
+                cachedChars -= previous.getLength();
+            }
+            cachedChars += source.getLength();
+            Iterator<Map.Entry<String, Source>> lru = cache.entrySet().iterator();
+            while ((cache.size() > maxEntries || cachedChars > maxChars) && lru.hasNext()) {
+                Source evicted = lru.next().getValue();
+                lru.remove();
+                cachedChars -= evicted.getLength();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("task.source.cache.requests", this, SourceCache::getHits)
+                       .tag("result", "hit")
+                       .register(registry);
+        FunctionCounter.builder("task.source.cache.requests", this, SourceCache::getMisses)
+                       .tag("result", "miss")
+                       .register(registry);
+        FunctionCounter.builder("task.source.cache.evictions", this, SourceCache::getEvictions)
+                       .register(registry);
+        Gauge.builder("task.source.cache.size", this, SourceCache::size)
+             .register(registry);
+    }
+
+    private static String hash(String code) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(code.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError("SHA-256 is required to be supported by every JVM", e);
+        }
+    }
+}
@@ -0,0 +1,392 @@
+package io.github.daniil547.js_executor_rest.domain;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Off-heap storage for what ended tasks keep: their sources and outputs, which never change anymore.
+ * <p>
+ * An append-only log of memory-mapped segment files. Appending copies bytes into the current segment
+ * and returns a {@link Record}: just where the bytes are, which is all that stays on the heap.
+ * Reads are slices of the mapped segments, so they copy nothing until the caller does,
+ * and the OS pages segments in and out as needed. Records can also be
+ * {@link #transferTo(Record, long, long, WritableByteChannel) transferred} straight from their files.
+ * <p>
+ * {@link #free(Record) Freed} records leave holes. Once less than the compaction threshold
+ * of a full segment is still in use, what's left of it is appended anew, and the segment is deleted.
+ * Records are relocated by updating them in place, so their owners never notice.
+ * A segment deleted while being read stays mapped until nothing uses it.
+ * <p>
+ * Files are temporary, and private to the store: each store keeps them in a directory of its own,
+ * under the given one, which is locked while the store is open and deleted when it's closed.
+ * Directories left unlocked by stores that didn't close (e.g. of crashed processes) are deleted
+ * when another store is opened. So stores of several processes, or several stores of one,
+ * may share the given directory. Thread-safe.
+ */
+public class SpillStore implements MeterBinder, AutoCloseable {
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String STORE_PREFIX = "store-";
+    private static final String LOCK_FILE = ".lock";
+    private static final int OFFSET_BITS = 32;
+
+    // of this store only
+    private final Path directory;
+    // held while the store is open
+    private final FileChannel lockChannel;
+    private final int segmentSize;
+    private final double compactionThreshold;
+
+    // by segment id; replaced as a whole, deleted segments are null
+    private volatile Segment[] segments = new Segment[0];
+    // guarded by this
+    private Segment current;
+    private long liveBytes = 0;
+    private long compactions = 0;
+
+    /**
+     * @param parent              where the store's directory is created; created if missing
+     * @param segmentSize         size of a segment file; larger records get a segment of their own
+     * @param compactionThreshold share of a segment that must be in use, for it not to be compacted
+     */
+    public SpillStore(Path parent, int segmentSize, double compactionThreshold) {
+        this.segmentSize = segmentSize;
+        this.compactionThreshold = compactionThreshold;
+        try {
+            Files.createDirectories(parent);
+            deleteAbandoned(parent);
+            this.directory = Files.createTempDirectory(parent, STORE_PREFIX);
+            this.lockChannel = FileChannel.open(directory.resolve(LOCK_FILE),
+                                                StandardOpenOption.CREATE_NEW,
+                                                StandardOpenOption.WRITE);
+            // released along with the channel, by close() or by the process exiting
+            lockChannel.lock();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't prepare spill directory in " + parent, e);
+        }
+    }
+
+    /**
+     * Deletes directories of stores that weren't closed, which nobody holds a lock on anymore.
+     */
+    private static void deleteAbandoned(Path parent) throws IOException {
+        try (DirectoryStream<Path> stores = Files.newDirectoryStream(parent, STORE_PREFIX + "*")) {
+            for (Path store : stores) {
+                if (!Files.isDirectory(store) || isLocked(store)) {
+                    continue;
+                }
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(store)) {
+                    for (Path file : files) {
+                        Files.deleteIfExists(file);
+                    }
+                }
+                Files.deleteIfExists(store);
+            }
+        }
+    }
+
+    private static boolean isLocked(Path store) throws IOException {
+        Path lockFile = store.resolve(LOCK_FILE);
+        if (!Files.exists(lockFile)) {
+            // just created, and not locked yet, by a store being opened; or not a store at all
+            return true;
+        }
+        try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.WRITE)) {
+            FileLock lock = channel.tryLock();
+            if (lock == null) {
+                return true;
+            }
+            lock.release();
+            return false;
+        } catch (OverlappingFileLockException e) {
+            // held by another store of this process
+            return true;
+        } catch (NoSuchFileException e) {
+            // deleted by its store closing meanwhile
+            return true;
+        }
+    }
+
+    /**
+     * @param bytes what to store
+     * @return where it's stored
+     */
+    public Record append(byte[] bytes) {
+        return append(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * @param bytes what to store, from its position to its limit
+     * @return where it's stored
+     */
+    public synchronized Record append(ByteBuffer bytes) {
+        Record record = new Record(bytes.remaining());
+        place(record, bytes);
+        liveBytes += record.length;
+        return record;
+    }
+
+    // must hold this
+    private void place(Record record, ByteBuffer bytes) {
+        int length = record.length;
+        if (current == null || current.used + length > current.buffer.capacity()) {
+            current = newSegment(Math.max(segmentSize, length));
+        }
+        int offset = current.used;
+        current.buffer.put(offset, bytes, bytes.position(), length);
+        current.used += length;
+        current.liveBytes += length;
+        current.records.add(record);
+        // published after the bytes
+        record.position = (long) current.id << OFFSET_BITS | offset;
+    }
+
+    /**
+     * @return bytes of the record, as a read-only buffer; empty if the record was freed
+     */
+    public ByteBuffer read(Record record) {
+        while (true) {
+            long position = record.position;
+            if (position == Record.FREED) {
+                return ByteBuffer.allocate(0);
+            }
+            Segment[] all = segments;
+            int id = (int) (position >>> OFFSET_BITS);
+            Segment segment = id < all.length ? all[id] : null;
+            if (segment == null) {
+                // relocated by a compaction meanwhile, which updates the record before deleting the segment
+                if (record.position != position) {
+                    continue;
+                }
+                // the store is closed
+                return ByteBuffer.allocate(0);
+            }
+            return segment.buffer.slice((int) position, record.length).asReadOnlyBuffer();
+        }
+    }
+
+    /**
+     * Writes a part of the record to the target with {@link FileChannel#transferTo},
+     * so that the OS can send bytes from its page cache without them ever entering the heap,
+     * if the target allows (e.g. a socket).
+     * <p>
+     * Reads the record's file through a channel of its own, which keeps reading it
+     * even if a compaction deletes the file meanwhile.
+     *
+     * @param offset offset of the part in the record
+     * @param count  length of the part
+     * @return number of bytes written; 0 if the record was freed
+     */
+    public long transferTo(Record record, long offset, long count, WritableByteChannel target) throws IOException {
+        if (offset < 0 || count < 0 || offset + count > record.length) {
+            throw new IndexOutOfBoundsException("[" + offset + ", " + (offset + count) + ") of " + record.length);
+        }
+        while (true) {
+            long position = record.position;
+            if (position == Record.FREED) {
+                return 0;
+            }
+            Segment[] all = segments;
+            int id = (int) (position >>> OFFSET_BITS);
+            Segment segment = id < all.length ? all[id] : null;
+            FileChannel channel = segment != null ? openFile(segment) : null;
+            if (channel == null) {
+                // relocated by a compaction meanwhile, same as in read()
+                if (record.position != position) {
+                    continue;
+                }
+                return 0;
+            }
+            try (channel) {
+                // the bytes of a record never change, wherever they are
+                long start = (int) position + offset;
+                long transferred = 0;
+                while (transferred < count) {
+                    long sent = channel.transferTo(start + transferred, count - transferred, target);
+                    if (sent <= 0) {
+                        break;
+                    }
+                    transferred += sent;
+                }
+                return transferred;
+            }
+        }
+    }
+
+    /**
+     * @return a channel reading the segment's file, or {@code null} if a compaction has just deleted it
+     */
+    private static FileChannel openFile(Segment segment) throws IOException {
+        try {
+            return FileChannel.open(segment.file, StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Releases the record's bytes; nothing is read from it afterwards.
+     * Compacts its segment if it's mostly unused by then.
+     */
+    public synchronized void free(Record record) {
+        long position = record.position;
+        if (position == Record.FREED) {
+            return;
+        }
+        record.position = Record.FREED;
+        liveBytes -= record.length;
+        Segment segment = segments[(int) (position >>> OFFSET_BITS)];
+        segment.liveBytes -= record.length;
+        if (segment != current && segment.liveBytes < segment.buffer.capacity() * compactionThreshold) {
+            compact(segment);
+        }
+    }
+
+    // must hold this
+    private void compact(Segment segment) {
+        for (Record record : segment.records) {
+            if (record.position != Record.FREED) {
+                // a slice is read before the record moves, so it's the old bytes either way
+                place(record, segment.buffer.slice((int) record.position, record.length));
+            }
+        }
+        Segment[] remaining = segments.clone();
+        remaining[segment.id] = null;
+        segments = remaining;
+        compactions++;
+        try {
+            Files.deleteIfExists(segment.file);
+        } catch (IOException e) {
+            // the file will be deleted along with the rest on the next start
+        }
+    }
+
+    // must hold this
+    private Segment newSegment(int size) {
+        int id = segments.length;
+        Path file = directory.resolve(SEGMENT_PREFIX + id + SEGMENT_SUFFIX);
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file,
+                                                    StandardOpenOption.CREATE_NEW,
+                                                    StandardOpenOption.READ,
+                                                    StandardOpenOption.WRITE)) {
+            // stays valid after the channel is closed
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't create spill segment " + file, e);
+        }
+        Segment segment = new Segment(id, file, buffer);
+        Segment[] grown = Arrays.copyOf(segments, id + 1);
+        grown[id] = segment;
+        segments = grown;
+        return segment;
+    }
+
+    private void deleteSegmentFiles() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory,
+                                                                    SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    public synchronized long getLiveBytes() {
+        return liveBytes;
+    }
+
+    public synchronized long getSegmentCount() {
+        return Arrays.stream(segments).filter(segment -> segment != null).count();
+    }
+
+    public synchronized long getCompactions() {
+        return compactions;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("task.spill.bytes", this, SpillStore::getLiveBytes)
+             .description("bytes of sources and outputs spilled off heap, and not freed")
+             .baseUnit("bytes")
+             .register(registry);
+        Gauge.builder("task.spill.segments", this, SpillStore::getSegmentCount)
+             .register(registry);
+        FunctionCounter.builder("task.spill.compactions", this, SpillStore::getCompactions)
+                       .register(registry);
+    }
+
+    /**
+     * Deletes all segment files, and the store's directory. Records can't be read afterwards.
+     */
+    @Override
+    public synchronized void close() {
+        if (!lockChannel.isOpen()) {
+            return;
+        }
+        segments = new Segment[0];
+        current = null;
+        try {
+            deleteSegmentFiles();
+            Files.deleteIfExists(directory.resolve(LOCK_FILE));
+            lockChannel.close();
+            Files.deleteIfExists(directory);
+        } catch (IOException e) {
+            // unlocked either way, so deleted when another store is opened
+        }
+    }
+
+    /**
+     * Where bytes are stored. Updated in place when they're moved by compaction.
+     */
+    public static final class Record {
+        private static final long FREED = -1;
+
+        // segment id and offset in it
+        private volatile long position;
+        private final int length;
+
+        private Record(int length) {
+            this.length = length;
+        }
+
+        public int length() {
+            return length;
+        }
+    }
+
+    private static final class Segment {
+        private final int id;
+        private final Path file;
+        private final MappedByteBuffer buffer;
+        // the rest is guarded by the store
+        private int used = 0;
+        private long liveBytes = 0;
+        // to relocate them on compaction
+        private final List<Record> records = new ArrayList<>();
+
+        Segment(int id, Path file, MappedByteBuffer buffer) {
+            this.id = id;
+            this.file = file;
+            this.buffer = buffer;
+        }
+    }
+}
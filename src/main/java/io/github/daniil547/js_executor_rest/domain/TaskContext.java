@@ -0,0 +1,79 @@
+package io.github.daniil547.js_executor_rest.domain;
+
+import org.graalvm.polyglot.Context;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A single-use polyglot {@link Context}.
+ * <p>
+ * Might be built long before it's given to a task (see {@link ContextPool}),
+ * so the reaction to the statement limit and the destination of standard output
+ * are bound later via {@link #onLimit(Runnable)} and {@link #redirectOutput(OutputStream)}.
+ */
+public class TaskContext implements AutoCloseable {
+    private Context context;
+    private volatile Runnable onLimit = () -> {};
+    private volatile OutputStream out = OutputStream.nullOutputStream();
+    // what the context writes to, whatever the destination is
+    private final OutputStream sink = new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+    };
+
+    TaskContext() {
+    }
+
+    // the context needs a reference to this object (for onLimit) when it's built,
+    // so it can't be a constructor parameter
+    void setContext(Context context) {
+        this.context = context;
+    }
+
+    public Context getContext() {
+        return context;
+    }
+
+    OutputStream getSink() {
+        return sink;
+    }
+
+    /**
+     * @param out where standard output of the context is written from now on
+     */
+    public void redirectOutput(OutputStream out) {
+        this.out = out;
+    }
+
+    /**
+     * @param action invoked when the context reaches its statement limit
+     */
+    public void onLimit(Runnable action) {
+        this.onLimit = action;
+    }
+
+    void limitReached() {
+        onLimit.run();
+    }
+
+    /**
+     * Closes the context, stopping guest code if it's being executed
+     * in another thread. Blocks until it's stopped.
+     */
+    public void cancel() {
+        context.close(true);
+    }
+
+    @Override
+    public void close() {
+        context.close();
+    }
+}
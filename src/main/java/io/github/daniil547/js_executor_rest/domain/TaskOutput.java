@@ -0,0 +1,590 @@
+package io.github.daniil547.js_executor_rest.domain;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Supplier;
+
+/**
+ * Standard output of a task. Keeps what's written to it (up to an {@link OutputLimit}),
+ * and passes each write on to {@link #subscribe(long, long, Runnable) subscribers} as it happens.
+ * <p>
+ * Output is kept in fixed-size segments, so growing it never copies more than a segment,
+ * and the oldest output can be dropped a segment at a time (see {@link OutputLimit.Policy#KEEP_TAIL}).
+ * Offsets count all bytes written, including discarded ones.
+ * <p>
+ * Written by a single thread (the one executing guest code), read by any number of threads,
+ * and readers never block the writer. Bytes are only ever appended past the published
+ * {@code end}, so everything before it is stable and can be copied without locking.
+ * Moving bytes or line offsets around (adding or growing a segment, dropping old ones etc.)
+ * happens under a write lock that readers never take: they read optimistically,
+ * and retry if the layout has changed meanwhile. That happens once per segment at most.
+ * <p>
+ * Every write becomes one {@link OutputChunk} shared by all subscribers,
+ * so watchers don't multiply copying; if there are none, no chunk is made.
+ * <p>
+ * Offsets of line ends are indexed as the output is written, so reading
+ * only {@link #read(long) new output}, or only its {@link #tail(int) last lines},
+ * costs as much as the part read, not the whole output.
+ * Raw bytes can be {@link #transferTo(long, long, WritableByteChannel) transferred}
+ * without decoding them at all.
+ * <p>
+ * Closed once the task has ended, which ends all subscriptions.
+ * Then it may be {@link #spill(SpillStore) spilled}: what's kept is moved to a {@link SpillStore},
+ * and read from there.
+ */
+public class TaskOutput extends OutputStream {
+    static final int SEGMENT_SIZE = 64 * 1024;
+    // the last segment starts small and grows up to SEGMENT_SIZE,
+    // so that tasks printing little stay cheap
+    private static final int MIN_SEGMENT_SIZE = 64;
+    private static final long[] NO_LINES = new long[0];
+
+    private final OutputLimit limit;
+    private final Runnable onLimit;
+
+    // guards the layout (which arrays hold what), not the bytes
+    private final StampedLock layout = new StampedLock();
+
+    // all but the last one are full
+    private final List<byte[]> segments = new ArrayList<>(1);
+    // offset of the first byte of the first segment
+    private long segmentsStart = 0;
+    // owned by the writer
+    private int lastSegmentUsed = 0;
+
+    // kept output is [start, end), start is past segmentsStart if the head was discarded
+    private volatile long start = 0;
+    // published after the bytes before it are written
+    private volatile long end = 0;
+    private volatile long written = 0;
+    private volatile boolean truncated = false;
+
+    // offsets right after each line feed, i.e. where lines start;
+    // the ones up to start are no longer needed and are dropped when the array is full
+    private long[] lineEnds = NO_LINES;
+    // published after the offsets before it are written
+    private volatile int lineCount = 0;
+    // owned by the writer
+    private int firstLine = 0;
+
+    private final List<OutputSubscription> subscribers = new CopyOnWriteArrayList<>();
+    private volatile boolean closed = false;
+
+    // where [start, end) is once spilled, replacing segments and line ends
+    private SpillStore spillStore;
+    private volatile SpillStore.Record spilled;
+
+    /**
+     * Creates an output with no limit.
+     */
+    public TaskOutput() {
+        this(OutputLimit.UNLIMITED, () -> {});
+    }
+
+    /**
+     * @param limit   how much output is kept
+     * @param onLimit invoked by the writing thread when the limit is reached
+     *                with {@link OutputLimit.Policy#CANCEL}
+     */
+    public TaskOutput(OutputLimit limit, Runnable onLimit) {
+        this.limit = limit;
+        this.onLimit = onLimit;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    /**
+     * Must be called by one thread at a time.
+     */
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Output of an ended task can't be written");
+        }
+        written += len;
+        boolean limitReached = false;
+        int keep = len;
+        long room = limit.maxBytes() - (end - start);
+        if (len > room) {
+            truncated = true;
+            switch (limit.policy()) {
+                case KEEP_HEAD -> keep = (int) Math.max(0, room);
+                case CANCEL -> {
+                    keep = (int) Math.max(0, room);
+                    limitReached = true;
+                }
+                case KEEP_TAIL -> {
+                    if (len > limit.maxBytes()) {
+                        // nothing kept so far survives, nor does the head of this write
+                        keep = (int) limit.maxBytes();
+                        discardAll(end + (len - keep));
+                    }
+                }
+            }
+        }
+        if (keep > 0) {
+            int from = off + len - (limit.policy() == OutputLimit.Policy.KEEP_TAIL ? keep : len);
+            long offset = end;
+            append(b, from, keep);
+            long newEnd = offset + keep;
+            if (newEnd - start > limit.maxBytes()) {
+                // before publishing the end, so that readers never see more than the limit
+                start = newEnd - limit.maxBytes();
+            }
+            // published only now, so that readers see either none or all of this write
+            end = newEnd;
+            discardHead();
+            // after publishing, so that a concurrent subscriber either gets the chunk or copies the bytes
+            if (!subscribers.isEmpty()) {
+                OutputChunk chunk = new OutputChunk(offset, Arrays.copyOfRange(b, from, from + keep));
+                for (OutputSubscription subscriber : subscribers) {
+                    if (!subscriber.offer(chunk)) {
+                        subscribers.remove(subscriber);
+                    }
+                }
+            }
+        }
+        if (limitReached) {
+            onLimit.run();
+        }
+    }
+
+    private void append(byte[] b, int off, int len) {
+        long offset = end;
+        for (int i = 0; i < len; i++) {
+            if (b[off + i] == '\n') {
+                indexLineEnd(offset + i + 1);
+            }
+        }
+        while (len > 0) {
+            byte[] last = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+            if (last == null || lastSegmentUsed == last.length) {
+                long stamp = layout.writeLock();
+                try {
+                    if (last != null && last.length < SEGMENT_SIZE) {
+                        last = Arrays.copyOf(last, Math.min(SEGMENT_SIZE,
+                                                            Math.max(last.length * 2, lastSegmentUsed + len)));
+                        segments.set(segments.size() - 1, last);
+                    } else {
+                        last = new byte[Math.min(SEGMENT_SIZE, Math.max(MIN_SEGMENT_SIZE, len))];
+                        segments.add(last);
+                        lastSegmentUsed = 0;
+                    }
+                } finally {
+                    layout.unlockWrite(stamp);
+                }
+            }
+            // past the published end, so nobody reads it yet
+            int copied = Math.min(len, last.length - lastSegmentUsed);
+            System.arraycopy(b, off, last, lastSegmentUsed, copied);
+            lastSegmentUsed += copied;
+            off += copied;
+            len -= copied;
+        }
+    }
+
+    private void indexLineEnd(long offset) {
+        int count = lineCount;
+        if (count == lineEnds.length) {
+            long stamp = layout.writeLock();
+            try {
+                if (firstLine > 0) {
+                    // reuse room of discarded lines
+                    System.arraycopy(lineEnds, firstLine, lineEnds, 0, count - firstLine);
+                    count -= firstLine;
+                    firstLine = 0;
+                    lineCount = count;
+                }
+                if (count == lineEnds.length) {
+                    lineEnds = Arrays.copyOf(lineEnds, Math.max(16, lineEnds.length * 2));
+                }
+            } finally {
+                layout.unlockWrite(stamp);
+            }
+        }
+        lineEnds[count] = offset;
+        lineCount = count + 1;
+    }
+
+    private void discardHead() {
+        long newStart = start;
+        if (segments.size() > 1 && segmentsStart + SEGMENT_SIZE <= newStart) {
+            long stamp = layout.writeLock();
+            try {
+                while (segments.size() > 1 && segmentsStart + SEGMENT_SIZE <= newStart) {
+                    segments.remove(0);
+                    segmentsStart += SEGMENT_SIZE;
+                }
+            } finally {
+                layout.unlockWrite(stamp);
+            }
+        }
+        while (firstLine < lineCount && lineEnds[firstLine] <= newStart) {
+            firstLine++;
+        }
+    }
+
+    private void discardAll(long newStart) {
+        long stamp = layout.writeLock();
+        try {
+            segments.clear();
+            lastSegmentUsed = 0;
+            segmentsStart = newStart;
+            start = newStart;
+            end = newStart;
+            firstLine = 0;
+            lineCount = 0;
+        } finally {
+            layout.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Runs a read without locking, until it happens while the layout doesn't change.
+     * A read overlapping a change might see inconsistent arrays and fail,
+     * which is as good as seeing the change.
+     */
+    private <T> T readOptimistically(Supplier<T> read) {
+        while (true) {
+            long stamp = layout.tryOptimisticRead();
+            if (stamp != 0) {
+                try {
+                    T result = read.get();
+                    if (layout.validate(stamp)) {
+                        return result;
+                    }
+                } catch (RuntimeException e) {
+                    if (layout.validate(stamp)) {
+                        // not caused by a concurrent change
+                        throw e;
+                    }
+                }
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * Subscribes to the output. What's already kept from {@code from} on is delivered
+     * as the first chunk, so nothing is missed or delivered twice.
+     *
+     * @param from            offset to start from, e.g. where a previous subscription has stopped
+     * @param maxPendingBytes how far the subscriber may fall behind before it's dropped
+     * @param onSignal        invoked when the subscription has something new, must not block
+     * @return the subscription
+     */
+    public OutputSubscription subscribe(long from, long maxPendingBytes, Runnable onSignal) {
+        OutputSubscription subscription = new OutputSubscription(this, maxPendingBytes, onSignal);
+        // before reading, so that a concurrent write is either read, or offered to the subscription
+        subscribers.add(subscription);
+        OutputChunk existing = readOptimistically(() -> {
+            long last = end;
+            long first = clamp(from, last);
+            return new OutputChunk(first, copy(first, last));
+        });
+        subscription.replay(existing);
+        // a concurrent close() might have missed the subscription
+        if (closed) {
+            subscribers.remove(subscription);
+            subscription.end();
+        }
+        return subscription;
+    }
+
+    void unsubscribe(OutputSubscription subscription) {
+        subscribers.remove(subscription);
+    }
+
+    /**
+     * @param from offset to start from, e.g. {@link OutputSlice#nextOffset()} of the previous read
+     * @return output kept from the offset on
+     */
+    public OutputSlice read(long from) {
+        // before reading, so that output read from a closed output is complete
+        boolean complete = closed;
+        return readOptimistically(() -> {
+            long last = end;
+            return slice(clamp(from, last), last, complete);
+        });
+    }
+
+    /**
+     * A line is what ends with a line feed, or with the end of the output.
+     * If the head of the output was discarded, the first kept line might be incomplete.
+     *
+     * @param lines how many lines to read
+     * @return the last lines of kept output
+     */
+    public OutputSlice tail(int lines) {
+        boolean complete = closed;
+        return readOptimistically(() -> {
+            long last = end;
+            long first = clamp(start, last);
+            if (spilled != null) {
+                return slice(tailStart(first, last, lines), last, complete);
+            }
+            // line ends might have been indexed past the end read above
+            long[] ends = lineEnds;
+            int count = Math.min(lineCount, ends.length);
+            // line starts are first and line ends in (first, last)
+            int lo = firstIndexAbove(ends, count, first);
+            int hi = firstIndexAbove(ends, count, last - 1);
+            int total = first < last ? 1 + hi - lo : 0;
+            int skipped = total - Math.max(0, lines);
+            long from = skipped <= 0 ? first : ends[lo + skipped - 1];
+            return slice(from, last, complete);
+        });
+    }
+
+    /**
+     * There is no line index once spilled, so the output is scanned from its end.
+     *
+     * @return offset of the {@code lines}-th line from the end of spilled output
+     */
+    private long tailStart(long first, long last, int lines) {
+        ByteBuffer bytes = spillStore.read(spilled);
+        // nothing is read once freed
+        if (lines <= 0 || bytes.remaining() < last - start) {
+            return last;
+        }
+        int found = 0;
+        // line starts are first and line ends in (first, last)
+        for (long offset = last - 1; offset > first; offset--) {
+            if (bytes.get((int) (offset - 1 - start)) == '\n' && ++found == lines) {
+                return offset;
+            }
+        }
+        return first;
+    }
+
+    /**
+     * @return index of the first of sorted {@code values[0, count)} greater than {@code value}
+     */
+    private static int firstIndexAbove(long[] values, int count, long value) {
+        int lo = 0;
+        int hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (values[mid] <= value) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private OutputSlice slice(long from, long to, boolean complete) {
+        return new OutputSlice(new String(copy(from, to), StandardCharsets.UTF_8),
+                               from, to, complete, truncated);
+    }
+
+    /**
+     * Must be called within {@link #readOptimistically(Supplier)}.
+     */
+    private byte[] copy(long from, long to) {
+        byte[] result = new byte[Math.toIntExact(to - from)];
+        SpillStore.Record record = spilled;
+        if (record != null) {
+            ByteBuffer bytes = spillStore.read(record);
+            // empty once freed
+            if (bytes.remaining() < to - start) {
+                return new byte[0];
+            }
+            bytes.get((int) (from - start), result);
+            return result;
+        }
+        long base = segmentsStart;
+        int copied = 0;
+        while (from + copied < to) {
+            long position = from + copied - base;
+            byte[] segment = segments.get((int) (position / SEGMENT_SIZE));
+            int offset = (int) (position % SEGMENT_SIZE);
+            int length = (int) Math.min(segment.length - offset, to - from - copied);
+            if (length <= 0) {
+                throw new IllegalStateException("Segment at " + (from + copied) + " is smaller than expected");
+            }
+            System.arraycopy(segment, offset, result, copied, length);
+            copied += length;
+        }
+        return result;
+    }
+
+    /**
+     * @return offsets of what's kept
+     */
+    public OutputRange range() {
+        boolean complete = closed;
+        return readOptimistically(() -> {
+            long last = end;
+            return new OutputRange(clamp(start, last), last, complete, truncated);
+        });
+    }
+
+    /**
+     * Writes kept bytes between the offsets to the target, as they are.
+     * Spilled output goes straight from its file (see {@link SpillStore#transferTo}),
+     * otherwise it's copied a segment at a time.
+     * <p>
+     * Output discarded meanwhile (see {@link OutputLimit.Policy#KEEP_TAIL}) ends the transfer early.
+     *
+     * @param from offset of the first byte to write
+     * @param to   offset right after the last byte to write
+     * @return number of bytes written
+     */
+    public long transferTo(long from, long to, WritableByteChannel target) throws IOException {
+        SpillStore.Record record = spilled;
+        if (record != null) {
+            long first = Math.max(from, start);
+            long last = Math.min(to, end);
+            return first < last ? spillStore.transferTo(record, first - start, last - first, target) : 0;
+        }
+        long position = from;
+        while (position < to) {
+            long chunkStart = position;
+            byte[] chunk = readOptimistically(() -> {
+                long first = clamp(chunkStart, end);
+                // dropped meanwhile, so the rest can't follow what's been written
+                if (first != chunkStart) {
+                    return null;
+                }
+                long last = Math.min(Math.min(to, end), chunkStart + SEGMENT_SIZE);
+                return copy(first, last);
+            });
+            if (chunk == null || chunk.length == 0) {
+                break;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(chunk);
+            while (buffer.hasRemaining()) {
+                target.write(buffer);
+            }
+            position += chunk.length;
+        }
+        return position - from;
+    }
+
+    /**
+     * Offsets before the start are discarded, or belong to dropped segments.
+     */
+    private long clamp(long offset, long last) {
+        long first = Math.max(start, segmentsStart);
+        return Math.min(Math.max(first, offset), last);
+    }
+
+    /**
+     * @return number of bytes written so far, including discarded ones
+     */
+    public long getWritten() {
+        return written;
+    }
+
+    /**
+     * @return number of bytes kept
+     */
+    public long getRetained() {
+        return end - start;
+    }
+
+    /**
+     * @return whether some of the output was discarded because of its limit
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    /**
+     * @return kept output, decoded as UTF-8
+     */
+    @Override
+    public String toString() {
+        return read(0).text();
+    }
+
+    /**
+     * Restores output kept before a restart, and closes the output.
+     * Must be called on a new output, instead of writing to it.
+     *
+     * @param offset    offset of the first kept byte in the whole output
+     * @param kept      bytes that were kept
+     * @param written   number of bytes that were written, including discarded ones
+     * @param truncated whether some of the output was discarded
+     */
+    public void restore(long offset, byte[] kept, long written, boolean truncated) throws IOException {
+        if (this.written != 0 || closed) {
+            throw new IllegalStateException("Only a new output can be restored");
+        }
+        segmentsStart = offset;
+        start = offset;
+        end = offset;
+        write(kept);
+        this.written = Math.max(written, end);
+        this.truncated |= truncated;
+        close();
+    }
+
+    /**
+     * Moves what's kept to the store, so that it doesn't take heap anymore.
+     * Must be called after {@link #close()}, at most once.
+     * Empty output isn't spilled, and stays as it is.
+     */
+    public void spill(SpillStore store) {
+        if (!closed) {
+            throw new IllegalStateException("Output of a running task can't be spilled");
+        }
+        long first = start;
+        long last = end;
+        // nothing to move off heap
+        if (first == last) {
+            return;
+        }
+        SpillStore.Record record = store.append(copy(first, last));
+        long stamp = layout.writeLock();
+        try {
+            spillStore = store;
+            spilled = record;
+            segments.clear();
+            lineEnds = NO_LINES;
+            firstLine = 0;
+            lineCount = 0;
+        } finally {
+            layout.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Frees what was spilled; nothing is read afterwards.
+     */
+    public void freeSpilled() {
+        SpillStore.Record record = spilled;
+        if (record != null) {
+            spillStore.free(record);
+        }
+    }
+
+    /**
+     * Ends all subscriptions; nothing can be written afterwards.
+     * Must be called by the writer, or once nothing writes anymore.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (OutputSubscription subscriber : subscribers) {
+            subscriber.end();
+        }
+        subscribers.clear();
+    }
+}
@@ -0,0 +1,22 @@
+package io.github.daniil547.js_executor_rest.dtos;
+
+import io.github.daniil547.js_executor_rest.domain.LanguageTask;
+import io.swagger.v3.oas.annotations.media.Schema;
+
+import java.time.Duration;
+
+/**
+ * A script of a batch submission with its options.
+ *
+ * @param source   JavaScript code
+ * @param timeout  wall-clock time limit counting from submission, or {@code null} for the default
+ * @param priority how urgently to execute the task, or {@code null} for normal
+ */
+@Schema(title = "BatchItem")
+public record BatchItemDto(
+        String source,
+        @Schema(type = "string", example = "PT10S")
+        Duration timeout,
+        LanguageTask.Priority priority
+) {
+}
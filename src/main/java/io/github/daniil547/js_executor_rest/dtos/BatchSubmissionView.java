@@ -0,0 +1,26 @@
+package io.github.daniil547.js_executor_rest.dtos;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Result of a batch submission. Items are admitted in order, up to the first one,
+ * which is rejected; it and all items after it are rejected too. So {@code ids[i]}
+ * is the ID of the i-th item, and items from {@code ids.size()} on can be resubmitted as they are.
+ *
+ * @param ids               IDs of admitted items, in order
+ * @param rejected          number of rejected items
+ * @param rejection         why items were rejected
+ * @param retryAfterSeconds when it makes sense to resubmit rejected items
+ */
+@Schema(title = "BatchSubmission")
+public record BatchSubmissionView(
+        List<UUID> ids,
+        int rejected,
+        Optional<String> rejection,
+        Optional<Long> retryAfterSeconds
+) {
+}
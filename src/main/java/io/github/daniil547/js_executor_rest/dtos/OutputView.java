@@ -0,0 +1,22 @@
+package io.github.daniil547.js_executor_rest.dtos;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+/**
+ * Output of a task, or a part of it.
+ *
+ * @param output     the output from {@code offset} on
+ * @param offset     where the output starts, in bytes
+ * @param nextOffset where the next read should start to get only what's written after this one
+ * @param complete   whether the task has ended, so there won't be anything after {@code nextOffset}
+ * @param truncated  whether some of the output was discarded, because the task wrote more than allowed
+ */
+@Schema(title = "Output")
+public record OutputView(
+        String output,
+        long offset,
+        long nextOffset,
+        boolean complete,
+        boolean truncated
+) {
+}
@@ -0,0 +1,17 @@
+package io.github.daniil547.js_executor_rest.dtos;
+
+import io.github.daniil547.js_executor_rest.domain.LanguageTask;
+import io.swagger.v3.oas.annotations.media.Schema;
+
+import java.util.Optional;
+
+/**
+ * Just the state of a task, without its source and output,
+ * so that polling the status doesn't copy them.
+ */
+@Schema(title = "TaskStatus")
+public record TaskStatusView(
+        LanguageTask.Status status,
+        Optional<LanguageTask.TerminationReason> terminationReason
+) {
+}
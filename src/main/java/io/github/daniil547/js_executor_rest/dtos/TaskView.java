@@ -13,10 +13,15 @@ public record TaskView(
         UUID id,
         String source,
         LanguageTask.Status status,
+        Optional<LanguageTask.TerminationReason> terminationReason,
         String output,
+        long outputSize,
+        boolean outputTruncated,
 
         Optional<ZonedDateTime> startTime,
         Optional<Duration> duration,
-        Optional<ZonedDateTime> endTime
+        Optional<ZonedDateTime> endTime,
+        Optional<Duration> timeout,
+        LanguageTask.Priority priority
 ) {
 }
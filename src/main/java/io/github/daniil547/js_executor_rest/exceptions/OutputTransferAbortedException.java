@@ -0,0 +1,14 @@
+package io.github.daniil547.js_executor_rest.exceptions;
+
+import java.io.IOException;
+import java.util.UUID;
+
+/**
+ * Thrown when fewer bytes of output were sent than the response promised, after it was committed.
+ * It isn't turned into a problem: the client must see the connection closed, not a complete response.
+ */
+public class OutputTransferAbortedException extends IOException {
+    public OutputTransferAbortedException(UUID id, long expected, long written) {
+        super("Sent " + written + " of " + expected + " bytes of output of task " + id);
+    }
+}
@@ -0,0 +1,20 @@
+package io.github.daniil547.js_executor_rest.exceptions;
+
+import org.zalando.problem.AbstractThrowableProblem;
+import org.zalando.problem.Status;
+
+import java.util.Map;
+import java.util.UUID;
+
+public class TaskExpiredProblem extends AbstractThrowableProblem {
+    public TaskExpiredProblem(UUID id) {
+        super(null,
+              "Task expired",
+              Status.GONE,
+              "Task with ID " + id + " has ended long enough ago to be evicted",
+              null,
+              null,
+              Map.of("id", id)
+        );
+    }
+}
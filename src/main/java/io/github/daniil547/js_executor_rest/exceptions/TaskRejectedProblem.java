@@ -0,0 +1,42 @@
+package io.github.daniil547.js_executor_rest.exceptions;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import org.zalando.problem.AbstractThrowableProblem;
+import org.zalando.problem.Status;
+
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * The task wasn't accepted, because the service is overloaded.
+ * Sent with a {@code Retry-After} header.
+ */
+public class TaskRejectedProblem extends AbstractThrowableProblem {
+    private final Duration retryAfter;
+
+    public TaskRejectedProblem(Status status, String message, Duration retryAfter) {
+        super(null,
+              "Task rejected",
+              status,
+              message,
+              null,
+              null,
+              Map.of("retryAfterSeconds", toSeconds(retryAfter))
+        );
+        this.retryAfter = retryAfter;
+    }
+
+    // already in the parameters, as seconds
+    @JsonIgnore
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+
+    /**
+     * @return the duration in whole seconds, rounded up
+     */
+    public static long toSeconds(Duration duration) {
+        long seconds = duration.getSeconds();
+        return duration.getNano() > 0 ? seconds + 1 : seconds;
+    }
+}
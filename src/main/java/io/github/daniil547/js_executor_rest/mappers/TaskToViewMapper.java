@@ -1,11 +1,20 @@
 package io.github.daniil547.js_executor_rest.mappers;
 
 import io.github.daniil547.js_executor_rest.domain.LanguageTask;
+import io.github.daniil547.js_executor_rest.domain.OutputSlice;
+import io.github.daniil547.js_executor_rest.dtos.OutputView;
+import io.github.daniil547.js_executor_rest.dtos.TaskStatusView;
 import io.github.daniil547.js_executor_rest.dtos.TaskView;
 import org.mapstruct.Mapper;
+import org.mapstruct.Mapping;
 
 @Mapper(componentModel = "spring")
 public interface TaskToViewMapper {
 
     TaskView taskToView(LanguageTask task);
+
+    TaskStatusView taskToStatusView(LanguageTask task);
+
+    @Mapping(target = "output", source = "text")
+    OutputView sliceToView(OutputSlice slice);
 }
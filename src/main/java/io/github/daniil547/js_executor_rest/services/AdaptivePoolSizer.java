@@ -0,0 +1,282 @@
+package io.github.daniil547.js_executor_rest.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resizes the worker pool of a {@link TaskExecutor} at runtime, between min and max bounds.
+ * <p>
+ * Every interval it samples throughput, queue wait, backlog and CPU utilization of the process,
+ * and moves the pool size by hill climbing:
+ * <ul>
+ *     <li>workers are removed one by one while some of them are idle and nothing is queued;</li>
+ *     <li>workers are removed when CPU is saturated, since then they only compete
+ *         with each other and with JIT compiler and GC threads;</li>
+ *     <li>while tasks wait in the queue longer than the target, workers are added
+ *         as long as that raises throughput, and the last step is reverted when it doesn't.</li>
+ * </ul>
+ * CPU utilization is relative to {@link Runtime#availableProcessors()}, which respects
+ * container (cgroup) CPU quotas.
+ * <p>
+ * The size can be pinned, which suspends adaptation. The latest decision and recent changes
+ * of the size are kept for inspection.
+ */
+public class AdaptivePoolSizer implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(AdaptivePoolSizer.class);
+    private static final int HISTORY_SIZE = 20;
+    // relative throughput change considered noise
+    private static final double THROUGHPUT_TOLERANCE = 0.05;
+
+    private final TaskExecutor executor;
+    private final int minSize;
+    private final int maxSize;
+    private final Duration interval;
+    private final Duration targetQueueWait;
+    private final double cpuHigh;
+    private final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+    private final ScheduledExecutorService scheduler;
+
+    // guarded by this
+    private Integer pinnedSize = null;
+    private int lastStep = 0;
+    private double lastThroughput = 0;
+    private Decision lastDecision = null;
+    // only decisions that changed the size
+    private final Deque<Decision> history = new ArrayDeque<>();
+
+    // previous sample's counters
+    private long lastSampleAt = System.nanoTime();
+    private long lastCpuTime = processCpuTime();
+    private long lastCompleted = 0;
+
+    /**
+     * @param executor        executor to resize
+     * @param minSize         minimum number of workers
+     * @param maxSize         maximum number of workers
+     * @param interval        time between two decisions
+     * @param targetQueueWait mean queue wait, above which workers are added
+     * @param cpuHigh         CPU utilization (from 0 to 1), above which workers are removed
+     */
+    public AdaptivePoolSizer(TaskExecutor executor,
+                             int minSize,
+                             int maxSize,
+                             Duration interval,
+                             Duration targetQueueWait,
+                             double cpuHigh) {
+        if (minSize <= 0 || maxSize < minSize) {
+            throw new IllegalArgumentException("Bad pool size bounds: " + minSize + ".." + maxSize);
+        }
+        this.executor = executor;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.interval = interval;
+        this.targetQueueWait = targetQueueWait;
+        this.cpuHigh = cpuHigh;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "pool-sizer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts adapting the pool size every interval.
+     */
+    public void start() {
+        scheduler.scheduleWithFixedDelay(this::adapt,
+                                         interval.toNanos(), interval.toNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    private void adapt() {
+        try {
+            Sample sample = sample();
+            Decision decision;
+            // otherwise a pin made in between would be overridden by a size decided before it
+            synchronized (this) {
+                decision = decide(sample);
+                if (decision.to() != decision.from()) {
+                    executor.resize(decision.to());
+                }
+            }
+            if (decision.to() != decision.from()) {
+                log.info("Worker pool resized from {} to {}: {}", decision.from(), decision.to(), decision.reason());
+            }
+        } catch (RuntimeException e) {
+            // must not kill the schedule
+            log.warn("Failed to adapt worker pool size", e);
+        }
+    }
+
+    private Sample sample() {
+        long now = System.nanoTime();
+        long elapsed = Math.max(1, now - lastSampleAt);
+        long cpuTime = processCpuTime();
+        long completed = executor.getCompletedTaskCount();
+
+        double throughput = (completed - lastCompleted) * 1e9 / elapsed;
+        double cpu = cpuTime < 0 || lastCpuTime < 0
+                     ? Double.NaN
+                     : (double) (cpuTime - lastCpuTime) / elapsed / Runtime.getRuntime().availableProcessors();
+        lastSampleAt = now;
+        lastCpuTime = cpuTime;
+        lastCompleted = completed;
+        return new Sample(throughput,
+                          executor.drainMeanQueueWait(),
+                          executor.getQueueDepth(),
+                          executor.getActiveCount(),
+                          cpu);
+    }
+
+    private long processCpuTime() {
+        return os instanceof com.sun.management.OperatingSystemMXBean sunOs ? sunOs.getProcessCpuTime()
+                                                                            : -1;
+    }
+
+    /**
+     * Makes a decision based on the sample, and remembers it.
+     *
+     * @param sample measurements over the last interval
+     * @return the decision
+     */
+    synchronized Decision decide(Sample sample) {
+        int size = executor.getCorePoolSize();
+        int step;
+        String reason;
+        if (pinnedSize != null) {
+            step = pinnedSize - size;
+            reason = "pinned";
+        } else if (sample.queueDepth() == 0 && sample.activeWorkers() < size) {
+            step = -1;
+            reason = "idle workers";
+        } else if (sample.cpuUtilization() >= cpuHigh) {
+            step = -1;
+            reason = "CPU saturated";
+        } else if (lastStep > 0 && sample.throughput() <= lastThroughput * (1 + THROUGHPUT_TOLERANCE)) {
+            step = -lastStep;
+            reason = "no throughput gain from the last increase";
+        } else if (lastStep < 0 && sample.throughput() < lastThroughput * (1 - THROUGHPUT_TOLERANCE)) {
+            step = -lastStep;
+            reason = "throughput fell after the last decrease";
+        } else if (lastStep < 0) {
+            // a decrease, that didn't hurt, is kept for at least an interval
+            step = 0;
+            reason = "throughput held after the last decrease";
+        } else if (sample.meanQueueWait().compareTo(targetQueueWait) > 0) {
+            step = 1;
+            reason = lastStep > 0 ? "throughput rose, queue wait above target"
+                                  : "queue wait above target";
+        } else {
+            step = 0;
+            reason = "queue wait within target";
+        }
+        int target = pinnedSize != null ? pinnedSize
+                                        : Math.max(minSize, Math.min(maxSize, size + step));
+        Decision decision = new Decision(Instant.now(), size, target, reason, sample);
+        lastStep = target - size;
+        lastThroughput = sample.throughput();
+        lastDecision = decision;
+        if (target != size) {
+            history.addFirst(decision);
+            if (history.size() > HISTORY_SIZE) {
+                history.removeLast();
+            }
+        }
+        return decision;
+    }
+
+    /**
+     * Fixes the pool size and suspends adaptation.
+     *
+     * @param size number of workers, within the same bounds adaptation keeps to
+     */
+    public synchronized void pin(int size) {
+        if (size < minSize || size > maxSize) {
+            throw new IllegalArgumentException("Pool size must be within " + minSize + ".." + maxSize
+                                               + ", but is " + size);
+        }
+        pinnedSize = size;
+        executor.resize(size);
+        lastStep = 0;
+    }
+
+    /**
+     * Resumes adaptation from the current size.
+     */
+    public synchronized void unpin() {
+        pinnedSize = null;
+        lastStep = 0;
+    }
+
+    public synchronized Integer getPinnedSize() {
+        return pinnedSize;
+    }
+
+    /**
+     * @return the latest decision, or {@code null} if none was made yet
+     */
+    public synchronized Decision getLastDecision() {
+        return lastDecision;
+    }
+
+    /**
+     * @return recent decisions that changed the size, the latest first
+     */
+    public synchronized List<Decision> getHistory() {
+        return List.copyOf(history);
+    }
+
+    public int getSize() {
+        return executor.getCorePoolSize();
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Measurements over one interval.
+     *
+     * @param throughput     tasks completed per second
+     * @param meanQueueWait  mean time tasks started in the interval have waited in the queue
+     * @param queueDepth     number of queued tasks at the end of the interval
+     * @param activeWorkers  number of workers executing a task at the end of the interval
+     * @param cpuUtilization CPU time used by the process relative to available processors,
+     *                       or NaN if unknown
+     */
+    public record Sample(double throughput,
+                         Duration meanQueueWait,
+                         int queueDepth,
+                         int activeWorkers,
+                         double cpuUtilization) {
+    }
+
+    /**
+     * @param time   when the decision was made
+     * @param from   pool size before the decision
+     * @param to     pool size after the decision
+     * @param reason why
+     * @param sample what it was based on
+     */
+    public record Decision(Instant time, int from, int to, String reason, Sample sample) {
+    }
+}
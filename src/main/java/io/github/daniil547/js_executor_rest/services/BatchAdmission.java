@@ -0,0 +1,14 @@
+package io.github.daniil547.js_executor_rest.services;
+
+import io.github.daniil547.js_executor_rest.exceptions.TaskRejectedProblem;
+
+import java.util.Optional;
+
+/**
+ * Result of {@link TaskDispatcher#addAllForExecution}.
+ *
+ * @param admitted  number of tasks admitted, from the start of the batch
+ * @param rejection why the rest were rejected, or {@link Optional#empty()} if none were
+ */
+public record BatchAdmission(int admitted, Optional<TaskRejectedProblem> rejection) {
+}
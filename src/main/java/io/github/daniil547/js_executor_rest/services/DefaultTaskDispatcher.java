@@ -1,68 +1,296 @@
 package io.github.daniil547.js_executor_rest.services;
 
 import io.github.daniil547.js_executor_rest.domain.LanguageTask;
+import io.github.daniil547.js_executor_rest.domain.OutputRange;
+import io.github.daniil547.js_executor_rest.domain.OutputSubscription;
+import io.github.daniil547.js_executor_rest.domain.SpillStore;
+import io.github.daniil547.js_executor_rest.dtos.OutputView;
+import io.github.daniil547.js_executor_rest.dtos.TaskStatusView;
 import io.github.daniil547.js_executor_rest.dtos.TaskView;
 import io.github.daniil547.js_executor_rest.exceptions.PropertyNotFoundProblem;
+import io.github.daniil547.js_executor_rest.exceptions.ScriptStateConflictProblem;
+import io.github.daniil547.js_executor_rest.exceptions.TaskExpiredProblem;
 import io.github.daniil547.js_executor_rest.exceptions.TaskNotFoundProblem;
+import io.github.daniil547.js_executor_rest.exceptions.TaskRejectedProblem;
 import io.github.daniil547.js_executor_rest.mappers.TaskToViewMapper;
 import io.github.daniil547.js_executor_rest.util.ReflectionUtils;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
 import org.springframework.lang.Nullable;
 import org.springframework.stereotype.Service;
+import org.zalando.problem.AbstractThrowableProblem;
+import org.zalando.problem.Status;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.lang.reflect.Method;
+import java.nio.channels.WritableByteChannel;
+import java.time.Duration;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.stream.Stream;
 
 /**
  * An external executor for {@link LanguageTask}s. <br>
- * Uses an {@link ExecutorService} and maintains two registers:
- * managed task and task that are executing / queued for execution.
- * Beans for registers must be synchronized
+ * Uses an {@link ExecutorService} and keeps managed tasks in a {@link TaskRegistry},
+ * along with their executions.
+ * <p>
+ * Ended tasks are kept until deleted, or evicted according to a {@link RetentionPolicy}
+ * (see {@link RetentionSweeper}). Ids of evicted tasks are reported with a {@link TaskExpiredProblem}.
+ * Until then, their sources and outputs are {@link LanguageTask#spill(SpillStore) spilled} to a {@link SpillStore},
+ * if there is one, and freed once they're gone.
+ * <p>
+ * Records how long it takes from a cancel request until the worker
+ * executing the task is free again ({@code task.cancel.latency}).
+ * <p>
+ * Enforces {@link LanguageTask#getTimeout() timeouts} of tasks
+ * with a single {@link HashedTimerWheel}.
+ * <p>
+ * Journals tasks to a {@link TaskJournal}, if there is one: a task is accepted only once its submission
+ * is on disk, so that it's {@link #recover(Function) recovered} after a restart.
+ * <p>
+ * Submits tasks along with their clients and {@link LanguageTask#getPriority() priorities},
+ * which the executor may honor (see {@link TaskExecutor}).
+ * Tasks the executor has no room for are forgotten and reported
+ * with a {@link TaskRejectedProblem}.
+ * <p>
+ * Takes no locks: tasks guard their own lifecycle, so of concurrent
+ * cancellations, timeouts and removals of a task exactly one ends it,
+ * and of concurrent removals exactly one succeeds.
  */
 @Service
-public class DefaultTaskDispatcher implements TaskDispatcher {
+public class DefaultTaskDispatcher implements TaskDispatcher, AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(DefaultTaskDispatcher.class);
+
     private final ExecutorService threadPool;
-    private final Map<UUID, LanguageTask> taskRegister;
-    private final Map<UUID, Future<?>> futureRegister;
+    private final TaskRegistry registry;
+    private final RetentionSweeper sweeper;
+    @Nullable
+    private final SpillStore spillStore;
+    @Nullable
+    private final TaskJournal journal;
 
     private final TaskToViewMapper ttvMapper;
+    private final HashedTimerWheel timerWheel;
+    private final Timer cancelLatency;
+    private final Status rejectionStatus;
 
     @Autowired
-    public DefaultTaskDispatcher(ExecutorService threadPool,
-                                 TaskToViewMapper ttvMapper) {
+    public DefaultTaskDispatcher(@Qualifier("threadPool") ExecutorService threadPool,
+                                 TaskToViewMapper ttvMapper,
+                                 HashedTimerWheel timerWheel,
+                                 MeterRegistry meterRegistry,
+                                 @Value("${task-execution.queue.rejection-status}") int rejectionStatus,
+                                 RetentionPolicy retentionPolicy,
+                                 @Nullable SpillStore spillStore,
+                                 @Nullable TaskJournal journal) {
         this.threadPool = threadPool;
+        this.rejectionStatus = Status.valueOf(rejectionStatus);
+        this.timerWheel = timerWheel;
         this.ttvMapper = ttvMapper;
-        this.taskRegister = new ConcurrentHashMap<>();
-        this.futureRegister = new ConcurrentHashMap<>();
+        this.registry = new TaskRegistry();
+        this.sweeper = new RetentionSweeper(retentionPolicy, registry);
+        this.sweeper.bindTo(meterRegistry);
+        this.spillStore = spillStore;
+        this.journal = journal;
+        this.cancelLatency = Timer.builder("task.cancel.latency")
+                                  .description("time from a cancel request until "
+                                               + "the worker executing the task is free")
+                                  .register(meterRegistry);
+    }
+
+    @Override
+    public void addForExecution(LanguageTask task, String client) {
+        CompletableFuture<Void> journaled = admit(new TaskExecution(task, client), true);
+        if (journaled != null) {
+            awaitJournaled(journaled);
+        }
+    }
+
+    /**
+     * Registers the task and submits it for execution.
+     *
+     * @param journal whether to journal the submission
+     * @return completed once the submission is journaled; {@code null} if there's nothing to wait for
+     */
+    @Nullable
+    private CompletableFuture<Void> admit(TaskExecution execution, boolean journal) {
+        LanguageTask task = execution.getTask();
+        if (task.getStatus() != LanguageTask.Status.SCHEDULED) {
+            return null;
+        }
+        // already added ones aren't submitted twice
+        if (registry.putIfAbsent(execution) != null) {
+            return null;
+        }
+        // before the task can end, so that its end is journaled after its submission
+        CompletableFuture<Void> journaled = journal && this.journal != null ? this.journal.submitted(execution)
+                                                                            : null;
+        task.getTermination().thenRun(() -> retire(execution, true));
+        task.getTimeout().ifPresent(timeout -> execution.setTimeout(
+                timerWheel.schedule(() -> timeOut(execution), timeout)
+        ));
+        try {
+            execution.setFuture(threadPool.submit(
+                    ScheduledJob.of(execution.getClient(), task.getPriority(), () -> execute(execution))
+            ));
+        } catch (RejectedExecutionException e) {
+            execution.cancelTimeout();
+            registry.remove(task.getId());
+            if (journaled != null) {
+                this.journal.removed(task.getId());
+            }
+            throw reject(e);
+        }
+        return journaled;
+    }
+
+    /**
+     * The task is accepted either way: it's registered, and might even be running.
+     * It just won't be recovered after a restart.
+     */
+    private static void awaitJournaled(CompletableFuture<Void> journaled) {
+        try {
+            journaled.join();
+        } catch (CompletionException | CancellationException e) {
+            log.warn("Failed to journal a submitted task", e);
+        }
+    }
+
+    /**
+     * Journals the end of the task, spills it, and hands it over to the sweeper.
+     *
+     * @param journalEnd whether to journal the end
+     */
+    private void retire(TaskExecution execution, boolean journalEnd) {
+        LanguageTask task = execution.getTask();
+        // before it's spilled, so that the output is read from the heap
+        if (journalEnd && journal != null) {
+            journal.ended(task);
+        }
+        if (spillStore != null) {
+            try {
+                task.spill(spillStore);
+            } catch (UncheckedIOException e) {
+                // what wasn't spilled stays on heap
+                log.warn("Failed to spill task {}", task.getId(), e);
+            }
+        }
+        // removed while it was being spilled, so nobody else frees it
+        if (!sweeper.ended(execution)) {
+            task.discardSpilled();
+        }
     }
 
+    /**
+     * Stops at the first rejection, so that admitted tasks are always a prefix of the batch,
+     * and the rest can be resubmitted as is, without reordering.
+     * <p>
+     * Waits for the journal once, after the last admitted task: submissions are written in order,
+     * so they're all on disk by then, and all of them share a sync.
+     */
     @Override
-    public void addForExecution(LanguageTask task) {
-        synchronized (task) {
+    public BatchAdmission addAllForExecution(List<? extends LanguageTask> tasks, String client) {
+        CompletableFuture<Void> lastJournaled = null;
+        try {
+            for (int i = 0; i < tasks.size(); i++) {
+                try {
+                    CompletableFuture<Void> journaled = admit(new TaskExecution(tasks.get(i), client), true);
+                    if (journaled != null) {
+                        lastJournaled = journaled;
+                    }
+                } catch (TaskRejectedProblem rejection) {
+                    return new BatchAdmission(i, Optional.of(rejection));
+                }
+            }
+            return new BatchAdmission(tasks.size(), Optional.empty());
+        } finally {
+            if (lastJournaled != null) {
+                awaitJournaled(lastJournaled);
+            }
+        }
+    }
+
+    /**
+     * Re-registers tasks journaled before a restart: ended ones as they are, and scheduled ones
+     * are submitted again, canceled if there's no room for them. Tasks that were running
+     * must be ended by the factory, as they can't continue where they stopped.
+     * Then starts snapshotting the journal, which has all tasks by then.
+     */
+    @Override
+    public int recover(Function<JournaledTask, LanguageTask> newTask) {
+        if (journal == null) {
+            return 0;
+        }
+        List<JournaledTask> journaled = journal.recover();
+        for (JournaledTask entry : journaled) {
+            TaskExecution execution = new TaskExecution(newTask.apply(entry), entry.client());
+            // kept by snapshots, so that the order survives the next restart too
+            execution.setSubmissionSeq(entry.submissionSeq());
+            LanguageTask task = execution.getTask();
             if (task.getStatus() == LanguageTask.Status.SCHEDULED) {
-                taskRegister.put(task.getId(), task);
+                try {
+                    // already journaled
+                    admit(execution, false);
+                } catch (TaskRejectedProblem rejection) {
+                    log.warn("No room for recovered task {}, canceling it", task.getId());
+                    // ended by the termination hook, which journals it
+                    registry.putIfAbsent(execution);
+                    task.cancel();
+                }
+            } else if (registry.putIfAbsent(execution) == null) {
+                // only what changed while the service was down
+                retire(execution, entry.status() != task.getStatus());
+            }
+        }
+        journal.snapshotFrom(registry::stream);
+        return journaled.size();
+    }
 
-                futureRegister.put(task.getId(), threadPool.submit(task::execute));
+    private TaskRejectedProblem reject(RejectedExecutionException e) {
+        // other executors don't know when to retry
+        Duration retryAfter = e instanceof TaskRejectedException rejected ? rejected.getRetryAfter()
+                                                                          : Duration.ofSeconds(1);
+        return new TaskRejectedProblem(rejectionStatus, e.getMessage(), retryAfter);
+    }
+
+    private void execute(TaskExecution execution) {
+        try {
+            if (journal != null) {
+                journal.started(execution.getTask().getId());
+            }
+            execution.getTask().execute();
+        } finally {
+            execution.cancelTimeout();
+            execution.release();
+            if (execution.isCancelRequested()) {
+                cancelLatency.record(System.nanoTime() - execution.getCancelRequestedAt(),
+                                     TimeUnit.NANOSECONDS);
             }
         }
     }
 
     @Override
     public void cancelExecution(UUID id) {
-        LanguageTask task;
-        // getTask() throws if already removed
-        synchronized (task = getTaskInternal(id)) {
-            // and this checks if already cancelled
-            doCancel(task);
-        }
+        // getExecution() throws if already removed,
+        // and this checks if already cancelled
+        doCancel(getExecution(id));
     }
 
     /**
@@ -74,30 +302,64 @@ public class DefaultTaskDispatcher implements TaskDispatcher {
      */
     @Override
     public void removeTask(UUID id) {
-        LanguageTask task;
-        // getTask() throws if already removed
-        synchronized (task = getTaskInternal(id)) {
-            doCancel(task);
-            taskRegister.remove(id);
+        // getExecution() throws if already removed
+        TaskExecution execution = getExecution(id);
+        try {
+            doCancel(execution);
+        } catch (ScriptStateConflictProblem e) {
+            // it has already ended
         }
+        // only one of concurrent removals gets the task
+        if (registry.remove(id) == null) {
+            throw notFound(id);
+        }
+        if (journal != null) {
+            journal.removed(id);
+        }
+        sweeper.removed(execution);
     }
 
-    private void doCancel(LanguageTask task) {
-        task.cancel();
-        UUID id = task.getId();
-        // gets a future, not the task
-        futureRegister.get(id).cancel(true);
-        futureRegister.remove(id);
+    private void timeOut(TaskExecution execution) {
+        try {
+            terminate(execution, LanguageTask::timeOut);
+        } catch (ScriptStateConflictProblem e) {
+            // it has ended (or was canceled) right before the deadline
+        }
+    }
 
+    private void doCancel(TaskExecution execution) {
+        terminate(execution, LanguageTask::cancel);
     }
 
+    /**
+     * @param execution   execution of the task to terminate
+     * @param termination either {@link LanguageTask#cancel()} or {@link LanguageTask#timeOut()}
+     */
+    private void terminate(TaskExecution execution, Consumer<LanguageTask> termination) {
+        execution.cancelRequested();
+        // stops guest code if it's running
+        termination.accept(execution.getTask());
+        execution.cancelTimeout();
+        // dequeues the task if it hasn't started
+        execution.cancelFuture();
+        execution.release();
+    }
 
-    private LanguageTask getTaskInternal(UUID id) {
-        LanguageTask languageTask = taskRegister.get(id);
-        if (languageTask == null) {
-            throw new TaskNotFoundProblem(id);
+    private TaskExecution getExecution(UUID id) {
+        TaskExecution execution = registry.get(id);
+        if (execution == null) {
+            throw notFound(id);
         }
-        return languageTask;
+        return execution;
+    }
+
+    private AbstractThrowableProblem notFound(UUID id) {
+        return registry.isEvicted(id) ? new TaskExpiredProblem(id)
+                                      : new TaskNotFoundProblem(id);
+    }
+
+    private LanguageTask getTaskInternal(UUID id) {
+        return getExecution(id).getTask();
     }
 
 
@@ -112,6 +374,48 @@ public class DefaultTaskDispatcher implements TaskDispatcher {
         return ttvMapper.taskToView(getTaskInternal(id));
     }
 
+    @Override
+    public CompletionStage<TaskView> whenTerminated(UUID id) {
+        return getTaskInternal(id).getTermination()
+                                  .thenApply(ttvMapper::taskToView);
+    }
+
+    @Override
+    public TaskStatusView getTaskStatus(UUID id) {
+        return ttvMapper.taskToStatusView(getTaskInternal(id));
+    }
+
+    @Override
+    public CompletionStage<TaskStatusView> whenTerminatedStatus(UUID id) {
+        return getTaskInternal(id).getTermination()
+                                  .thenApply(ttvMapper::taskToStatusView);
+    }
+
+    @Override
+    public OutputView getTaskOutput(UUID id, long from) {
+        return ttvMapper.sliceToView(getTaskInternal(id).readOutput(from));
+    }
+
+    @Override
+    public OutputView getTaskOutputTail(UUID id, int lines) {
+        return ttvMapper.sliceToView(getTaskInternal(id).tailOutput(lines));
+    }
+
+    @Override
+    public OutputRange getTaskOutputRange(UUID id) {
+        return getTaskInternal(id).getOutputRange();
+    }
+
+    @Override
+    public long transferTaskOutput(UUID id, long from, long to, WritableByteChannel target) throws IOException {
+        return getTaskInternal(id).transferOutput(from, to, target);
+    }
+
+    @Override
+    public OutputSubscription subscribeToOutput(UUID id, long from, long maxPendingBytes, Runnable onSignal) {
+        return getTaskInternal(id).subscribeToOutput(from, maxPendingBytes, onSignal);
+    }
+
     /**
      * Returns a read-only view of all the tasks as {@link TaskView}s
      *
@@ -120,8 +424,8 @@ public class DefaultTaskDispatcher implements TaskDispatcher {
     @Override
     public List<TaskView> getAllTasks(Predicate<LanguageTask> filter, Pageable paging) {
         // it starts looking ugly when you add stream operations conditionally
-        Stream<LanguageTask> stream1 = taskRegister.values()
-                                                   .stream();
+        Stream<LanguageTask> stream1 = registry.stream()
+                                               .map(TaskExecution::getTask);
         if (filter != null) {
             stream1 = stream1.filter(filter);
         }
@@ -137,7 +441,7 @@ public class DefaultTaskDispatcher implements TaskDispatcher {
 
     @Override
     public long getTaskCount() {
-        return this.taskRegister.size();
+        return registry.size();
     }
 
     @Nullable
@@ -171,4 +475,12 @@ public class DefaultTaskDispatcher implements TaskDispatcher {
                     .reduce(Comparator::thenComparing);
         return taskViewComparator.orElse(null);
     }
+
+    /**
+     * Stops evicting ended tasks.
+     */
+    @Override
+    public void close() {
+        sweeper.close();
+    }
 }
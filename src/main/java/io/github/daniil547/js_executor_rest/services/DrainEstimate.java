@@ -0,0 +1,40 @@
+package io.github.daniil547.js_executor_rest.services;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Estimates when a queue of tasks is expected to have room again, judging by recent throughput:
+ * the average interval between completions (by any worker), times the number of tasks to complete.
+ * Thread-safe; concurrent completions may be averaged racily, which doesn't matter for an estimate.
+ */
+final class DrainEstimate {
+    // weight of the latest completion in the average interval between completions
+    private static final double EWMA_ALPHA = 0.1;
+    private static final Duration MIN_RETRY_AFTER = Duration.ofSeconds(1);
+    private static final Duration MAX_RETRY_AFTER = Duration.ofMinutes(5);
+
+    private final AtomicLong lastCompletion = new AtomicLong(System.nanoTime());
+    // average nanos between two task completions
+    private volatile double completionInterval = 0;
+
+    void completed() {
+        long now = System.nanoTime();
+        long interval = now - lastCompletion.getAndSet(now);
+        double current = completionInterval;
+        completionInterval = current == 0 ? interval
+                                          : current + EWMA_ALPHA * (interval - current);
+    }
+
+    /**
+     * @param ahead number of tasks to complete before there's room for one more
+     * @return time until then, between a second and five minutes
+     */
+    Duration retryAfter(int ahead) {
+        Duration estimate = Duration.ofNanos((long) (completionInterval * (ahead + 1)));
+        if (estimate.compareTo(MIN_RETRY_AFTER) < 0) {
+            return MIN_RETRY_AFTER;
+        }
+        return estimate.compareTo(MAX_RETRY_AFTER) > 0 ? MAX_RETRY_AFTER : estimate;
+    }
+}
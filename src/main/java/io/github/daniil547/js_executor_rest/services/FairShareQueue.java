@@ -0,0 +1,624 @@
+package io.github.daniil547.js_executor_rest.services;
+
+import io.github.daniil547.js_executor_rest.domain.LanguageTask;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded blocking queue of jobs, which shares workers fairly between clients
+ * and, within a client, takes jobs of higher {@link LanguageTask.Priority priority} first.
+ * <p>
+ * Every client has a queue of its own. Clients with queued jobs are served
+ * by deficit round-robin: on its turn a client is credited with its weight,
+ * and it's served while it has at least one job's worth of credit.
+ * So, while they all have jobs queued, clients get workers in proportion to their weights,
+ * no matter how many jobs each of them has submitted. A client's queue is bounded too,
+ * so that one client can't fill the whole queue either.
+ * <p>
+ * Within a client's queue each priority has a slack: how long its jobs can be put off.
+ * A job is ordered by its virtual deadline, which is the time it was queued plus the slack.
+ * So a job is overtaken only by jobs queued less than the difference between their slacks
+ * after it: no matter how many jobs of higher priority keep coming,
+ * one of lower priority waits at most that much longer than it would in a FIFO queue.
+ * Jobs with equal deadlines are taken in FIFO order.
+ * <p>
+ * Clients come and go: a client's queue is kept only while it has jobs queued or in flight.
+ * Client IDs come from requests, so there are at most so many queues of their own at a time;
+ * jobs of other clients share a single overflow queue, {@value #OVERFLOW_CLIENT}, along with its limit
+ * and its share. Clients with a configured weight always have a queue of their own.
+ * <p>
+ * Client and priority of a job are determined by {@link ScheduledJob}.
+ * The executor taking jobs from the queue should report their completion
+ * with {@link #completed(Runnable)}, so that jobs in flight are counted.
+ */
+public class FairShareQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable>, MeterBinder {
+    /**
+     * Client whose queue jobs of clients past the maximum number of clients share.
+     */
+    public static final String OVERFLOW_CLIENT = "other";
+    private static final int DEFAULT_MAX_CLIENTS = 1000;
+
+    private final int capacity;
+    private final int clientCapacity;
+    private final long[] slackNanos;
+    private final Map<String, Integer> weights;
+    private final int defaultWeight;
+    private final int maxClients;
+
+    // guarded by the lock: clients with jobs queued, in flight or waiting for room, by ID
+    private final Map<String, Member> members = new HashMap<>();
+    // guarded by the lock: jobs taken and not yet completed, so that completion of other jobs is ignored
+    private final Set<Runnable> taken = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final ClientQueue overflow;
+    // number of clients with queues of their own, not counting ones with a configured weight
+    private int ownQueues = 0;
+    // clients with queued jobs, the head is the one being served
+    private final Deque<ClientQueue> active = new ArrayDeque<>();
+    private int activeWeight = 0;
+    private int size = 0;
+    private long sequence = 0;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    private volatile MeterRegistry registry;
+
+    /**
+     * Creates a queue for up to {@value #DEFAULT_MAX_CLIENTS} clients with queues of their own.
+     *
+     * @param capacity       maximum number of queued jobs
+     * @param clientCapacity maximum number of queued jobs of a single client
+     * @param prioritySlack  how long jobs of each priority can be put off; missing priorities have none
+     * @param weights        weights of clients
+     * @param defaultWeight  weight of clients missing from {@code weights}
+     */
+    public FairShareQueue(int capacity,
+                          int clientCapacity,
+                          Map<LanguageTask.Priority, Duration> prioritySlack,
+                          Map<String, Integer> weights,
+                          int defaultWeight) {
+        this(capacity, clientCapacity, prioritySlack, weights, defaultWeight, DEFAULT_MAX_CLIENTS);
+    }
+
+    /**
+     * @param capacity       maximum number of queued jobs
+     * @param clientCapacity maximum number of queued jobs of a single client
+     * @param prioritySlack  how long jobs of each priority can be put off; missing priorities have none
+     * @param weights        weights of clients
+     * @param defaultWeight  weight of clients missing from {@code weights}
+     * @param maxClients     maximum number of clients missing from {@code weights}
+     *                       with queues of their own at a time
+     */
+    public FairShareQueue(int capacity,
+                          int clientCapacity,
+                          Map<LanguageTask.Priority, Duration> prioritySlack,
+                          Map<String, Integer> weights,
+                          int defaultWeight,
+                          int maxClients) {
+        if (capacity <= 0 || clientCapacity <= 0 || maxClients < 0) {
+            throw new IllegalArgumentException("Capacities must be positive, but are "
+                                               + capacity + " and " + clientCapacity);
+        }
+        if (defaultWeight <= 0 || weights.values().stream().anyMatch(weight -> weight <= 0)) {
+            throw new IllegalArgumentException("Weights must be positive");
+        }
+        this.capacity = capacity;
+        this.clientCapacity = clientCapacity;
+        this.slackNanos = new long[LanguageTask.Priority.values().length];
+        prioritySlack.forEach((priority, duration) -> slackNanos[priority.ordinal()] = duration.toNanos());
+        this.weights = Map.copyOf(weights);
+        this.defaultWeight = defaultWeight;
+        this.maxClients = maxClients;
+        this.overflow = new ClientQueue(OVERFLOW_CLIENT);
+    }
+
+    // must hold the lock
+    private boolean isFullFor(ClientQueue client) {
+        return size >= capacity || client.jobs.size() >= clientCapacity;
+    }
+
+    /**
+     * Counts a job of the client in, until it {@link #leave(String, Member) leaves}.
+     * Must hold the lock.
+     *
+     * @return the client's membership, in a queue of its own, if it may have one, or the overflow queue
+     */
+    private Member join(String name) {
+        Member member = members.get(name);
+        if (member == null) {
+            boolean weighted = weights.containsKey(name);
+            boolean own = !name.equals(OVERFLOW_CLIENT) && (weighted || ownQueues < maxClients);
+            if (own && !weighted) {
+                ownQueues++;
+            }
+            member = new Member(own ? new ClientQueue(name) : overflow);
+            members.put(name, member);
+        }
+        member.jobs++;
+        return member;
+    }
+
+    /**
+     * Counts a job of the client out: it was taken and completed, removed, or never queued.
+     * Must hold the lock.
+     *
+     * @return the client's queue if it's gone along with the client, so that its meters are removed
+     */
+    private ClientQueue leave(String name, Member member) {
+        if (--member.jobs > 0) {
+            return null;
+        }
+        members.remove(name);
+        if (member.queue == overflow) {
+            return null;
+        }
+        if (!weights.containsKey(name)) {
+            ownQueues--;
+        }
+        return member.queue;
+    }
+
+    // must hold the lock
+    private void enqueue(Runnable job, ClientQueue client) {
+        long deadline = System.nanoTime() + slackNanos[ScheduledJob.priorityOf(job).ordinal()];
+        client.jobs.add(new Entry(job, deadline, sequence++));
+        client.queued.set(client.jobs.size());
+        if (client.jobs.size() == 1) {
+            active.addLast(client);
+            activeWeight += client.weight;
+        }
+        size++;
+        notEmpty.signal();
+    }
+
+    // must hold the lock and the queue must not be empty
+    private Runnable dequeue() {
+        while (true) {
+            ClientQueue client = active.peekFirst();
+            if (!client.onTurn) {
+                client.onTurn = true;
+                client.deficit += client.weight;
+            }
+            if (client.deficit < 1) {
+                // can't happen with integer weights, but don't rely on it
+                endTurn(client);
+                continue;
+            }
+            client.deficit--;
+            Runnable job = client.jobs.poll().job;
+            client.queued.set(client.jobs.size());
+            client.served.incrementAndGet();
+            client.inFlight.incrementAndGet();
+            taken.add(job);
+            size--;
+            if (client.jobs.isEmpty()) {
+                deactivate(client);
+            } else if (client.deficit < 1) {
+                endTurn(client);
+            }
+            // waiters may be blocked by different limits
+            notFull.signalAll();
+            return job;
+        }
+    }
+
+    // must hold the lock
+    private void endTurn(ClientQueue client) {
+        client.onTurn = false;
+        active.addLast(active.pollFirst());
+    }
+
+    // must hold the lock
+    private void deactivate(ClientQueue client) {
+        active.remove(client);
+        activeWeight -= client.weight;
+        // an idle client doesn't accumulate credit
+        client.deficit = 0;
+        client.onTurn = false;
+    }
+
+    /**
+     * Must be called once a worker is done with a job taken from this queue.
+     * Jobs that weren't taken from it are ignored: an executor may hand jobs to its workers directly,
+     * e.g. while it's starting them.
+     *
+     * @param job the job, as it was taken from the queue
+     */
+    public void completed(Runnable job) {
+        String name = ScheduledJob.clientOf(job);
+        ClientQueue gone;
+        lock.lock();
+        try {
+            if (!taken.remove(job)) {
+                return;
+            }
+            Member member = members.get(name);
+            if (member == null) {
+                return;
+            }
+            member.queue.inFlight.decrementAndGet();
+            gone = leave(name, member);
+        } finally {
+            lock.unlock();
+        }
+        unregisterMeters(gone);
+    }
+
+    /**
+     * Estimates how many jobs have to be taken from the queue,
+     * before the client's jobs now in the queue are all taken.
+     *
+     * @param client a client
+     * @return number of jobs
+     */
+    public int drainLength(String client) {
+        lock.lock();
+        try {
+            Member member = members.get(client);
+            ClientQueue queue = member != null ? member.queue : null;
+            if (queue == null || queue.jobs.isEmpty()) {
+                return 0;
+            }
+            // the client gets its share of the workers
+            long share = (long) Math.ceil((double) queue.jobs.size() * activeWeight / queue.weight);
+            return (int) Math.min(size, share);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getClientCapacity() {
+        return clientCapacity;
+    }
+
+    @Override
+    public boolean offer(Runnable job) {
+        try {
+            return admit(job, true, 0);
+        } catch (InterruptedException e) {
+            throw new AssertionError("Doesn't wait, so isn't interrupted", e);
+        }
+    }
+
+    @Override
+    public boolean offer(Runnable job, long timeout, TimeUnit unit) throws InterruptedException {
+        return admit(job, true, unit.toNanos(timeout));
+    }
+
+    @Override
+    public void put(Runnable job) throws InterruptedException {
+        admit(job, false, 0);
+    }
+
+    /**
+     * @param timed whether to wait for room at most {@code nanos}, or as long as it takes
+     * @return whether the job was queued
+     */
+    private boolean admit(Runnable job, boolean timed, long nanos) throws InterruptedException {
+        Objects.requireNonNull(job);
+        String name = ScheduledJob.clientOf(job);
+        ClientQueue queued = null;
+        ClientQueue gone = null;
+        try {
+            if (timed && nanos <= 0) {
+                lock.lock();
+            } else {
+                lock.lockInterruptibly();
+            }
+            try {
+                // waiting counts too, so that the client's queue isn't removed meanwhile
+                Member member = join(name);
+                try {
+                    while (isFullFor(member.queue) && (!timed || nanos > 0)) {
+                        if (timed) {
+                            nanos = notFull.awaitNanos(nanos);
+                        } else {
+                            notFull.await();
+                        }
+                    }
+                    if (!isFullFor(member.queue)) {
+                        enqueue(job, member.queue);
+                        queued = member.queue;
+                    }
+                } finally {
+                    if (queued == null) {
+                        gone = leave(name, member);
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            unregisterMeters(gone);
+        }
+        if (queued != null) {
+            registerMeters(queued);
+        }
+        return queued != null;
+    }
+
+    @Override
+    public Runnable poll() {
+        lock.lock();
+        try {
+            return size == 0 ? null : dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (size == 0) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (size == 0) {
+                notEmpty.await();
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the head of the queue of the client being served, which isn't
+     * necessarily the next job to be taken
+     */
+    @Override
+    public Runnable peek() {
+        lock.lock();
+        try {
+            ClientQueue client = active.peekFirst();
+            return client == null ? null : client.jobs.peek().job;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * O(n) of the client's queue, but it's only used for removal of canceled jobs.
+     */
+    @Override
+    public boolean remove(Object job) {
+        String name = ScheduledJob.clientOf(job);
+        ClientQueue gone = null;
+        lock.lock();
+        try {
+            Member member = members.get(name);
+            if (member == null) {
+                return false;
+            }
+            ClientQueue client = member.queue;
+            Iterator<Entry> entries = client.jobs.iterator();
+            while (entries.hasNext()) {
+                if (entries.next().job == job) {
+                    entries.remove();
+                    client.queued.set(client.jobs.size());
+                    size--;
+                    if (client.jobs.isEmpty()) {
+                        deactivate(client);
+                    }
+                    gone = leave(name, member);
+                    notFull.signalAll();
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            lock.unlock();
+            unregisterMeters(gone);
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return capacity - size();
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> sink) {
+        return drainTo(sink, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Drained jobs aren't counted as served.
+     */
+    @Override
+    public int drainTo(Collection<? super Runnable> sink, int maxElements) {
+        Objects.requireNonNull(sink);
+        if (sink == this) {
+            throw new IllegalArgumentException("Can't drain a queue into itself");
+        }
+        List<ClientQueue> gone = new ArrayList<>();
+        lock.lock();
+        try {
+            int drained = 0;
+            while (drained < maxElements && !active.isEmpty()) {
+                ClientQueue client = active.peekFirst();
+                Runnable job = client.jobs.poll().job;
+                sink.add(job);
+                client.queued.set(client.jobs.size());
+                size--;
+                drained++;
+                if (client.jobs.isEmpty()) {
+                    deactivate(client);
+                }
+                String name = ScheduledJob.clientOf(job);
+                ClientQueue left = leave(name, members.get(name));
+                if (left != null) {
+                    gone.add(left);
+                }
+            }
+            if (drained > 0) {
+                notFull.signalAll();
+            }
+            return drained;
+        } finally {
+            lock.unlock();
+            gone.forEach(this::unregisterMeters);
+        }
+    }
+
+    /**
+     * @return iterator over a snapshot of the queue, in no particular order;
+     * doesn't support removal
+     */
+    @Override
+    public Iterator<Runnable> iterator() {
+        lock.lock();
+        try {
+            List<Runnable> snapshot = new ArrayList<>(size);
+            active.forEach(client -> client.jobs.forEach(entry -> snapshot.add(entry.job)));
+            return Collections.unmodifiableList(snapshot).iterator();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Registers {@code task.client.*} meters for every client, including ones that show up later,
+     * and removes them once the client is gone. So there are as many {@code client} tags
+     * as there are queues, at most the maximum number of clients, weighted ones,
+     * and {@value #OVERFLOW_CLIENT}.
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        this.registry = registry;
+        List<ClientQueue> current = new ArrayList<>();
+        lock.lock();
+        try {
+            members.values().forEach(member -> current.add(member.queue));
+        } finally {
+            lock.unlock();
+        }
+        registerMeters(overflow);
+        current.forEach(this::registerMeters);
+    }
+
+    // outside the lock, since meters read client's counters while holding the registry's locks
+    private void registerMeters(ClientQueue client) {
+        MeterRegistry current = registry;
+        if (current == null) {
+            return;
+        }
+        // the client might be gone by now
+        synchronized (client) {
+            if (client.gone || !client.meters.isEmpty()) {
+                return;
+            }
+            client.meters.add(Gauge.builder("task.client.queued", client.queued, AtomicInteger::get)
+                                   .tag("client", client.name)
+                                   .register(current));
+            client.meters.add(Gauge.builder("task.client.in-flight", client.inFlight, AtomicInteger::get)
+                                   .tag("client", client.name)
+                                   .register(current));
+            client.meters.add(FunctionCounter.builder("task.client.served", client.served, AtomicLong::get)
+                                             .tag("client", client.name)
+                                             .register(current));
+        }
+    }
+
+    private void unregisterMeters(ClientQueue client) {
+        if (client == null) {
+            return;
+        }
+        synchronized (client) {
+            client.gone = true;
+            MeterRegistry current = registry;
+            if (current != null) {
+                client.meters.forEach(current::remove);
+            }
+            client.meters.clear();
+        }
+    }
+
+    /**
+     * A client's place in a queue, its own or the overflow one.
+     */
+    private static final class Member {
+        private final ClientQueue queue;
+        // queued, in flight, or waiting for room
+        private int jobs = 0;
+
+        Member(ClientQueue queue) {
+            this.queue = queue;
+        }
+    }
+
+    private final class ClientQueue {
+        private final String name;
+        private final int weight;
+        private final PriorityQueue<Entry> jobs = new PriorityQueue<>();
+        // round-robin state, guarded by the lock
+        private int deficit = 0;
+        private boolean onTurn = false;
+
+        private final AtomicInteger queued = new AtomicInteger();
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicLong served = new AtomicLong();
+        // guarded by the queue itself
+        private final List<Meter> meters = new ArrayList<>(3);
+        private boolean gone = false;
+
+        ClientQueue(String name) {
+            this.name = name;
+            this.weight = weights.getOrDefault(name, defaultWeight);
+        }
+    }
+
+    private record Entry(Runnable job, long deadline, long sequence) implements Comparable<Entry> {
+        @Override
+        public int compareTo(Entry other) {
+            // nanoTime values must be compared by their difference
+            long diff = deadline - other.deadline;
+            if (diff != 0) {
+                return diff < 0 ? -1 : 1;
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package io.github.daniil547.js_executor_rest.services;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Fires timeouts of any number of tasks with a single thread.
+ * <p>
+ * Timeouts are hashed by their deadline into a ring of buckets ("wheel"),
+ * each covering one tick. The worker thread advances one bucket per tick
+ * and fires the timeouts in it whose deadline is within the current round,
+ * so scheduling, canceling and firing a timeout are all O(1), regardless of
+ * how many timeouts are pending. The price is precision: a timeout fires
+ * up to one tick late.
+ * <p>
+ * Scheduling and canceling don't touch the wheel: they are queued
+ * and applied by the worker thread, which owns the buckets.
+ * Expired timeouts are run on a separate {@link Executor}, so that
+ * a slow action doesn't delay others.
+ */
+public class HashedTimerWheel implements MeterBinder, AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(HashedTimerWheel.class);
+    // upper bound on the work done per tick, so that the wheel keeps ticking under bursts
+    private static final int MAX_TRANSFERS_PER_TICK = 100_000;
+
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final Executor expiryExecutor;
+
+    private final Queue<Timeout> toSchedule = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> toCancel = new ConcurrentLinkedQueue<>();
+    private final AtomicLong pending = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+
+    private final Thread worker;
+    private final long startTime;
+    private volatile boolean closed = false;
+
+    /**
+     * @param tick           duration of a single tick, i.e. precision of the timer
+     * @param wheelSize      number of buckets; rounded up to a power of two
+     * @param expiryExecutor runs actions of expired timeouts
+     */
+    public HashedTimerWheel(Duration tick, int wheelSize, Executor expiryExecutor) {
+        if (tick.isNegative() || tick.isZero()) {
+            throw new IllegalArgumentException("Tick must be positive, but is " + tick);
+        }
+        this.tickNanos = tick.toNanos();
+        int size = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+        this.wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new Bucket();
+        }
+        this.mask = size - 1;
+        this.expiryExecutor = expiryExecutor;
+        this.startTime = System.nanoTime();
+        this.worker = new Thread(this::run, "timer-wheel");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Schedules an action to be run once the delay passes.
+     *
+     * @param action what to run
+     * @param delay  how long to wait
+     * @return handle for canceling the timeout
+     */
+    public Timeout schedule(Runnable action, Duration delay) {
+        if (closed) {
+            throw new IllegalStateException("Timer wheel is closed");
+        }
+        Timeout timeout = new Timeout(this, action, System.nanoTime() + delay.toNanos());
+        pending.incrementAndGet();
+        toSchedule.add(timeout);
+        return timeout;
+    }
+
+    private void run() {
+        long tick = 0;
+        while (!closed) {
+            long deadline = startTime + tickNanos * (tick + 1);
+            long sleep;
+            while ((sleep = deadline - System.nanoTime()) > 0 && !closed) {
+                LockSupport.parkNanos(sleep);
+            }
+            processCanceled();
+            transferScheduled(tick);
+            wheel[(int) (tick & mask)].expire(deadline);
+            tick++;
+        }
+    }
+
+    private void transferScheduled(long currentTick) {
+        for (int i = 0; i < MAX_TRANSFERS_PER_TICK; i++) {
+            Timeout timeout = toSchedule.poll();
+            if (timeout == null) {
+                return;
+            }
+            if (timeout.state.get() == Timeout.CANCELED) {
+                continue;
+            }
+            long ticks = Math.max(0, (timeout.deadline - startTime) / tickNanos);
+            timeout.remainingRounds = (ticks - currentTick) / wheel.length;
+            // deadlines in the past fire on the current tick
+            long tickToFire = Math.max(ticks, currentTick);
+            wheel[(int) (tickToFire & mask)].add(timeout);
+        }
+    }
+
+    private void processCanceled() {
+        Timeout timeout;
+        while ((timeout = toCancel.poll()) != null) {
+            // null if canceled before it was transferred into a bucket
+            if (timeout.bucket != null) {
+                timeout.bucket.remove(timeout);
+            }
+        }
+    }
+
+    private void fire(Timeout timeout) {
+        if (timeout.state.compareAndSet(Timeout.INIT, Timeout.EXPIRED)) {
+            pending.decrementAndGet();
+            expired.incrementAndGet();
+            try {
+                expiryExecutor.execute(timeout.action);
+            } catch (RejectedExecutionException e) {
+                // the executor is shut down, so is the app
+            } catch (RuntimeException e) {
+                // thrown by an action run on the worker thread itself, which must go on firing the rest
+                log.error("Timeout action failed", e);
+            }
+        }
+    }
+
+    public long getPending() {
+        return pending.get();
+    }
+
+    public long getExpired() {
+        return expired.get();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("task.timeouts.pending", this, HashedTimerWheel::getPending)
+             .register(registry);
+        FunctionCounter.builder("task.timeouts.expired", this, HashedTimerWheel::getExpired)
+                       .register(registry);
+    }
+
+    /**
+     * Stops the worker thread. Pending timeouts never fire.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(worker);
+        try {
+            worker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * A handle of a scheduled action.
+     */
+    public static final class Timeout {
+        private static final int INIT = 0;
+        private static final int CANCELED = 1;
+        private static final int EXPIRED = 2;
+
+        private final HashedTimerWheel timer;
+        private final Runnable action;
+        private final long deadline;
+        private final AtomicInteger state = new AtomicInteger(INIT);
+
+        // the rest is owned by the worker thread
+        private long remainingRounds;
+        private Bucket bucket;
+        private Timeout prev;
+        private Timeout next;
+
+        private Timeout(HashedTimerWheel timer, Runnable action, long deadline) {
+            this.timer = timer;
+            this.action = action;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Prevents the action from being run, unless it already was.
+         *
+         * @return whether the action was prevented
+         */
+        public boolean cancel() {
+            if (!state.compareAndSet(INIT, CANCELED)) {
+                return false;
+            }
+            timer.pending.decrementAndGet();
+            timer.toCancel.add(this);
+            return true;
+        }
+
+        public boolean isExpired() {
+            return state.get() == EXPIRED;
+        }
+    }
+
+    /**
+     * Doubly-linked list of timeouts. Accessed only by the worker thread.
+     */
+    private final class Bucket {
+        private Timeout head;
+        private Timeout tail;
+
+        void add(Timeout timeout) {
+            timeout.bucket = this;
+            if (head == null) {
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+
+        void remove(Timeout timeout) {
+            if (timeout.prev != null) {
+                timeout.prev.next = timeout.next;
+            } else {
+                head = timeout.next;
+            }
+            if (timeout.next != null) {
+                timeout.next.prev = timeout.prev;
+            } else {
+                tail = timeout.prev;
+            }
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.bucket = null;
+        }
+
+        void expire(long tickDeadline) {
+            Timeout timeout = head;
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                if (timeout.remainingRounds <= 0) {
+                    remove(timeout);
+                    if (timeout.deadline <= tickDeadline) {
+                        fire(timeout);
+                    } else {
+                        throw new AssertionError("Timeout was placed into a wrong bucket");
+                    }
+                } else {
+                    timeout.remainingRounds--;
+                }
+                timeout = next;
+            }
+        }
+    }
+}
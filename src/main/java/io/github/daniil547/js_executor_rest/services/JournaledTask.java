@@ -0,0 +1,76 @@
+package io.github.daniil547.js_executor_rest.services;
+
+import io.github.daniil547.js_executor_rest.domain.LanguageTask;
+
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.UUID;
+
+/**
+ * A task as {@link TaskJournal journaled} before a restart: what it was submitted with,
+ * and how far it got. Output is only journaled once the task has ended.
+ *
+ * @param id                ID of the task
+ * @param submissionSeq     orders it among the other journaled tasks by submission
+ * @param client            who submitted it
+ * @param source            its source code
+ * @param priority          its priority
+ * @param timeout           its timeout, {@code null} if it has none
+ * @param status            its last journaled status
+ * @param terminationReason why it ended, {@code null} unless it has
+ * @param startTime         when it started, {@code null} unless it has
+ * @param endTime           when it ended, {@code null} unless it has
+ * @param outputOffset      offset of the first kept byte of its output
+ * @param output            what was kept of its output, empty unless it has ended
+ * @param outputSize        number of bytes of output it wrote, including discarded ones
+ * @param outputTruncated   whether some of its output was discarded
+ */
+public record JournaledTask(UUID id,
+                            long submissionSeq,
+                            String client,
+                            String source,
+                            LanguageTask.Priority priority,
+                            Duration timeout,
+                            LanguageTask.Status status,
+                            LanguageTask.TerminationReason terminationReason,
+                            ZonedDateTime startTime,
+                            ZonedDateTime endTime,
+                            long outputOffset,
+                            byte[] output,
+                            long outputSize,
+                            boolean outputTruncated) {
+    private static final byte[] NO_OUTPUT = new byte[0];
+
+    static JournaledTask submitted(UUID id,
+                                   long submissionSeq,
+                                   String client,
+                                   String source,
+                                   LanguageTask.Priority priority,
+                                   Duration timeout) {
+        return new JournaledTask(id, submissionSeq, client, source, priority, timeout, LanguageTask.Status.SCHEDULED,
+                                 null, null, null, 0, NO_OUTPUT, 0, false);
+    }
+
+    /**
+     * @return the task as it is once started; the same task if it has already started, or ended
+     */
+    JournaledTask started(ZonedDateTime startTime) {
+        if (status != LanguageTask.Status.SCHEDULED) {
+            return this;
+        }
+        return new JournaledTask(id, submissionSeq, client, source, priority, timeout, LanguageTask.Status.RUNNING,
+                                 null, startTime, null, 0, NO_OUTPUT, 0, false);
+    }
+
+    JournaledTask ended(LanguageTask.Status status,
+                        LanguageTask.TerminationReason terminationReason,
+                        ZonedDateTime startTime,
+                        ZonedDateTime endTime,
+                        long outputOffset,
+                        byte[] output,
+                        long outputSize,
+                        boolean outputTruncated) {
+        return new JournaledTask(id, submissionSeq, client, source, priority, timeout, status, terminationReason,
+                                 startTime, endTime, outputOffset, output, outputSize, outputTruncated);
+    }
+}
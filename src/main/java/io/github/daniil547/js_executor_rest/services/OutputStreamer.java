@@ -0,0 +1,215 @@
+package io.github.daniil547.js_executor_rest.services;
+
+import io.github.daniil547.js_executor_rest.domain.OutputChunk;
+import io.github.daniil547.js_executor_rest.domain.OutputSubscription;
+import io.github.daniil547.js_executor_rest.exceptions.TaskNotFoundProblem;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Streams output of tasks to HTTP clients as server-sent events, while it's being written.
+ * <p>
+ * Events are:
+ * <ul>
+ *     <li>{@code output}: a piece of output, its ID is the offset right after it,
+ *         so a client can resume from it (e.g. with {@code Last-Event-ID}).
+ *         Each line of it is sent as a data field of its own, so the client gets the text back as is,
+ *         except that {@code \r\n} and {@code \r} line breaks arrive as {@code \n};</li>
+ *     <li>{@code end}: the task has ended, carries its final status;</li>
+ *     <li>{@code overflow}: the client has fallen too far behind and is disconnected,
+ *         carries the offset to resume from.</li>
+ * </ul>
+ * The guest never waits for clients: chunks are queued per client (see {@link OutputSubscription})
+ * and sent by a separate pool of threads.
+ * <p>
+ * Senders do wait for clients, since writes to the connection block, and a client that doesn't read
+ * would hold a sender until the connection's own write timeout. So a client whose event isn't sent
+ * within the send timeout is dropped the same as one falling behind: nothing more is queued for it,
+ * and the stream ends as soon as the blocked send does.
+ */
+@Service
+public class OutputStreamer {
+    // the line breaks that end a field of an event
+    private static final Pattern LINE_BREAK = Pattern.compile("\\r\\n|\\r|\\n");
+
+    private final TaskDispatcher taskDispatcher;
+    private final ExecutorService senders;
+    private final long maxPendingBytes;
+    private final Duration timeout;
+    private final HashedTimerWheel timerWheel;
+    private final Duration sendTimeout;
+
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicLong dropped = new AtomicLong();
+
+    @Autowired
+    public OutputStreamer(TaskDispatcher taskDispatcher,
+                          @Qualifier("outputStreamExecutor") ExecutorService outputStreamExecutor,
+                          @Value("${task-execution.output.stream.max-pending}") DataSize maxPending,
+                          @Value("${task-execution.output.stream.timeout}") Duration timeout,
+                          HashedTimerWheel timerWheel,
+                          @Value("${task-execution.output.stream.send-timeout}") Duration sendTimeout,
+                          MeterRegistry meterRegistry) {
+        this.taskDispatcher = taskDispatcher;
+        this.senders = outputStreamExecutor;
+        this.maxPendingBytes = maxPending.toBytes();
+        this.timeout = timeout;
+        this.timerWheel = timerWheel;
+        this.sendTimeout = sendTimeout;
+        Gauge.builder("task.output.streams", this, OutputStreamer::getActive)
+             .description("clients watching output of tasks")
+             .register(meterRegistry);
+        FunctionCounter.builder("task.output.streams.dropped", this, OutputStreamer::getDropped)
+                       .description("clients disconnected for falling too far behind, or not reading")
+                       .register(meterRegistry);
+    }
+
+    /**
+     * @param id   of the task to watch
+     * @param from offset of the output to start from
+     * @return emitter the output is sent to
+     */
+    public SseEmitter stream(UUID id, long from) {
+        SseEmitter emitter = new SseEmitter(timeout.toMillis());
+        Stream stream = new Stream(id, emitter);
+        // throws if there is no such task, before anything is sent
+        stream.subscription = taskDispatcher.subscribeToOutput(id, from, maxPendingBytes, stream::signal);
+        active.incrementAndGet();
+        emitter.onCompletion(stream::close);
+        emitter.onError(e -> stream.close());
+        emitter.onTimeout(() -> {
+            stream.close();
+            emitter.complete();
+        });
+        // signals sent while subscribing were ignored
+        stream.signal();
+        return emitter;
+    }
+
+    public int getActive() {
+        return active.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    private class Stream {
+        private final UUID id;
+        private final SseEmitter emitter;
+        private volatile OutputSubscription subscription;
+        // at most one thread sends to the emitter at a time
+        private final AtomicBoolean scheduled = new AtomicBoolean(false);
+        private final AtomicBoolean closed = new AtomicBoolean(false);
+
+        Stream(UUID id, SseEmitter emitter) {
+            this.id = id;
+            this.emitter = emitter;
+        }
+
+        void signal() {
+            if (subscription != null && !closed.get() && scheduled.compareAndSet(false, true)) {
+                senders.execute(this::send);
+            }
+        }
+
+        private void send() {
+            try {
+                OutputChunk chunk;
+                while ((chunk = subscription.poll()) != null) {
+                    SseEmitter.SseEventBuilder output = SseEmitter.event()
+                                                                  .id(Long.toString(chunk.getEnd()))
+                                                                  .name("output");
+                    // a data field can't hold a line break, the client joins the fields with one
+                    for (String line : LINE_BREAK.split(chunk.getText(), -1)) {
+                        output.data(line, MediaType.TEXT_PLAIN);
+                    }
+                    send(output);
+                    if (closed.get()) {
+                        // dropped while the send was blocked
+                        emitter.complete();
+                        return;
+                    }
+                }
+                if (subscription.isOverflowed()) {
+                    dropped.incrementAndGet();
+                    send(SseEmitter.event()
+                                   .name("overflow")
+                                   .data(subscription.getPosition()));
+                    close();
+                    emitter.complete();
+                } else if (subscription.isEnded()) {
+                    SseEmitter.SseEventBuilder end = SseEmitter.event().name("end");
+                    try {
+                        end.data(taskDispatcher.getTaskStatus(id));
+                    } catch (TaskNotFoundProblem e) {
+                        // deleted right after it has ended
+                    }
+                    send(end);
+                    close();
+                    emitter.complete();
+                }
+            } catch (IOException | IllegalStateException e) {
+                // the client is gone, or the emitter has timed out
+                close();
+            } finally {
+                scheduled.set(false);
+            }
+            // something might have come after the last poll, but before the flag was reset
+            if (subscription.isReady()) {
+                signal();
+            }
+        }
+
+        private void send(SseEmitter.SseEventBuilder event) throws IOException {
+            HashedTimerWheel.Timeout blocked = timerWheel.schedule(this::drop, sendTimeout);
+            try {
+                emitter.send(event);
+            } finally {
+                // expired meanwhile: the client is dropped by the time this returns, either way
+                if (!blocked.cancel()) {
+                    drop();
+                }
+            }
+        }
+
+        /**
+         * Drops the client while a send to it is blocked. The emitter can't be completed meanwhile,
+         * it's left to the sender once the send returns, or fails with the connection's write timeout.
+         */
+        private void drop() {
+            if (close()) {
+                dropped.incrementAndGet();
+            }
+        }
+
+        /**
+         * @return whether the stream was closed by this call
+         */
+        boolean close() {
+            if (closed.compareAndSet(false, true)) {
+                active.decrementAndGet();
+                subscription.close();
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package io.github.daniil547.js_executor_rest.services;
+
+/**
+ * What {@link TaskExecutor} does with a task submitted when its queue is full.
+ */
+public enum RejectionPolicy {
+    /**
+     * Rejects the task right away.
+     */
+    ABORT,
+    /**
+     * Waits for room in the queue for a limited time, then rejects the task.
+     * Smooths out short bursts at the cost of holding the submitting thread.
+     */
+    WAIT;
+}
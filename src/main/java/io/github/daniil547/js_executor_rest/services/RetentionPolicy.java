@@ -0,0 +1,29 @@
+package io.github.daniil547.js_executor_rest.services;
+
+import java.time.Duration;
+
+/**
+ * How long ended tasks are kept by a {@link DefaultTaskDispatcher}.
+ * The oldest ended tasks are evicted while any of the limits is exceeded.
+ *
+ * @param ttl               how long a task is kept after it has ended, or {@code null} for no limit
+ * @param maxTasks          maximum number of tasks, including not ended ones
+ * @param maxOutputBytes    maximum number of output bytes retained by ended tasks combined
+ * @param rememberedEvicted how many ids of evicted tasks are remembered,
+ *                          to tell them from ids that never existed
+ * @param sweepInterval     how often the limits are checked
+ */
+public record RetentionPolicy(Duration ttl,
+                              long maxTasks,
+                              long maxOutputBytes,
+                              int rememberedEvicted,
+                              Duration sweepInterval) {
+    /**
+     * Ended tasks are kept until deleted.
+     */
+    public static final RetentionPolicy UNLIMITED = new RetentionPolicy(null,
+                                                                        Long.MAX_VALUE,
+                                                                        Long.MAX_VALUE,
+                                                                        0,
+                                                                        Duration.ofSeconds(1));
+}
@@ -0,0 +1,208 @@
+package io.github.daniil547.js_executor_rest.services;
+
+import io.github.daniil547.js_executor_rest.domain.LanguageTask;
+import io.github.daniil547.js_executor_rest.domain.SpillStore;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import java.time.ZonedDateTime;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Evicts ended tasks from a {@link TaskRegistry} according to a {@link RetentionPolicy}.
+ * <p>
+ * Ended tasks are queued in the order they end, so the ones to evict first are always
+ * at the head, and a sweep touches only the tasks it evicts, never the whole registry.
+ * A single thread sweeps every {@link RetentionPolicy#sweepInterval()}, or as soon as
+ * a count or size limit is exceeded, evicting at most a batch at a time,
+ * so that a burst of evictions doesn't hog the registry's locks.
+ * <p>
+ * What evicted and removed tasks {@link LanguageTask#spill(SpillStore) spilled} is freed.
+ * <p>
+ * Tasks removed on request stay queued, but stop counting towards the limits right away,
+ * and are skipped once they reach the head.
+ * <p>
+ * Ids of evicted tasks are remembered, up to {@link RetentionPolicy#rememberedEvicted()}
+ * most recent ones (see {@link TaskRegistry#isEvicted(UUID)}).
+ */
+class RetentionSweeper implements MeterBinder, AutoCloseable {
+    // upper bound on the work done per registry lock, so that a burst doesn't stall requests
+    private static final int MAX_EVICTIONS_PER_BATCH = 10_000;
+
+    private final RetentionPolicy policy;
+    private final TaskRegistry registry;
+    private final Queue<TaskExecution> ended = new ConcurrentLinkedQueue<>();
+    private final AtomicLong retainedTasks = new AtomicLong();
+    private final AtomicLong retainedBytes = new AtomicLong();
+
+    // ids of evicted tasks, oldest first; owned by the sweeper thread
+    private final long[] remembered;
+    private int rememberedNext = 0;
+    private boolean rememberedFull = false;
+
+    private final AtomicLong expired = new AtomicLong();
+    private final AtomicLong overCount = new AtomicLong();
+    private final AtomicLong overSize = new AtomicLong();
+
+    private final Thread sweeper;
+    private volatile boolean closed = false;
+
+    RetentionSweeper(RetentionPolicy policy, TaskRegistry registry) {
+        this.policy = policy;
+        this.registry = registry;
+        this.remembered = new long[Math.max(0, policy.rememberedEvicted()) * 2];
+        this.sweeper = new Thread(this::run, "retention-sweeper");
+        this.sweeper.setDaemon(true);
+        this.sweeper.start();
+    }
+
+    /**
+     * Queues the task for eviction, unless it was removed meanwhile. Must be called once it has ended.
+     *
+     * @return whether it's queued, i.e. it's freed by this sweeper once evicted or removed
+     */
+    boolean ended(TaskExecution execution) {
+        long bytes = execution.getTask().getRetainedOutputSize();
+        if (!execution.retain(bytes)) {
+            return false;
+        }
+        retainedTasks.incrementAndGet();
+        ended.add(execution);
+        if (retainedBytes.addAndGet(bytes) > policy.maxOutputBytes()
+            || registry.size() > policy.maxTasks()) {
+            LockSupport.unpark(sweeper);
+        }
+        return true;
+    }
+
+    /**
+     * Stops accounting for the task, which was removed on request.
+     */
+    void removed(TaskExecution execution) {
+        if (execution.discard()) {
+            release(execution);
+        }
+    }
+
+    private void release(TaskExecution execution) {
+        retainedTasks.decrementAndGet();
+        retainedBytes.addAndGet(-execution.getRetainedBytes());
+        execution.getTask().discardSpilled();
+    }
+
+    private void run() {
+        long intervalNanos = policy.sweepInterval().toNanos();
+        while (!closed) {
+            // full batches are followed by another one right away
+            if (sweep() < MAX_EVICTIONS_PER_BATCH) {
+                LockSupport.parkNanos(intervalNanos);
+            }
+        }
+    }
+
+    /**
+     * @return number of tasks evicted
+     */
+    private int sweep() {
+        ZonedDateTime expiredBefore = policy.ttl() != null ? ZonedDateTime.now().minus(policy.ttl()) : null;
+        int evicted = 0;
+        while (evicted < MAX_EVICTIONS_PER_BATCH) {
+            TaskExecution oldest = ended.peek();
+            if (oldest == null) {
+                break;
+            }
+            if (oldest.isDiscarded()) {
+                ended.poll();
+                continue;
+            }
+            AtomicLong cause;
+            if (expiredBefore != null && oldest.getTask().getEndTime()
+                                               .map(end -> end.isBefore(expiredBefore))
+                                               .orElse(false)) {
+                cause = expired;
+            } else if (registry.size() > policy.maxTasks()) {
+                cause = overCount;
+            } else if (retainedBytes.get() > policy.maxOutputBytes()) {
+                cause = overSize;
+            } else {
+                break;
+            }
+            ended.poll();
+            // a removal on request discards the entry as well: only the first to discard it releases it
+            if (oldest.discard()) {
+                if (registry.evict(oldest)) {
+                    remember(oldest.getTask().getId());
+                    cause.incrementAndGet();
+                }
+                release(oldest);
+                evicted++;
+            }
+        }
+        return evicted;
+    }
+
+    private void remember(UUID id) {
+        if (remembered.length == 0) {
+            registry.forget(id);
+            return;
+        }
+        if (rememberedFull) {
+            registry.forget(new UUID(remembered[rememberedNext], remembered[rememberedNext + 1]));
+        }
+        remembered[rememberedNext] = id.getMostSignificantBits();
+        remembered[rememberedNext + 1] = id.getLeastSignificantBits();
+        rememberedNext += 2;
+        if (rememberedNext == remembered.length) {
+            rememberedNext = 0;
+            rememberedFull = true;
+        }
+    }
+
+    public long getRetainedTasks() {
+        return retainedTasks.get();
+    }
+
+    public long getRetainedBytes() {
+        return retainedBytes.get();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("task.retention.retained", this, RetentionSweeper::getRetainedTasks)
+             .description("ended tasks not evicted yet")
+             .register(registry);
+        Gauge.builder("task.retention.retained.output", this, RetentionSweeper::getRetainedBytes)
+             .description("output bytes retained by ended tasks")
+             .baseUnit("bytes")
+             .register(registry);
+        FunctionCounter.builder("task.retention.evictions", expired, AtomicLong::get)
+                       .tag("cause", "ttl")
+                       .register(registry);
+        FunctionCounter.builder("task.retention.evictions", overCount, AtomicLong::get)
+                       .tag("cause", "max-tasks")
+                       .register(registry);
+        FunctionCounter.builder("task.retention.evictions", overSize, AtomicLong::get)
+                       .tag("cause", "max-output")
+                       .register(registry);
+    }
+
+    /**
+     * Stops the sweeper thread.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(sweeper);
+        try {
+            sweeper.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
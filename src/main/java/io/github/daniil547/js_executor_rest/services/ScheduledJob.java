@@ -0,0 +1,45 @@
+package io.github.daniil547.js_executor_rest.services;
+
+import io.github.daniil547.js_executor_rest.domain.LanguageTask;
+
+/**
+ * A job with the information {@link FairShareQueue} schedules by:
+ * who submitted it and how urgent it is.
+ * Jobs that don't implement it are {@link LanguageTask.Priority#NORMAL}
+ * jobs of {@link TaskDispatcher#ANONYMOUS_CLIENT}.
+ */
+public interface ScheduledJob extends Runnable {
+
+    LanguageTask.Priority getPriority();
+
+    String getClient();
+
+    static ScheduledJob of(String client, LanguageTask.Priority priority, Runnable job) {
+        return new ScheduledJob() {
+            @Override
+            public LanguageTask.Priority getPriority() {
+                return priority;
+            }
+
+            @Override
+            public String getClient() {
+                return client;
+            }
+
+            @Override
+            public void run() {
+                job.run();
+            }
+        };
+    }
+
+    static LanguageTask.Priority priorityOf(Object job) {
+        return job instanceof ScheduledJob scheduled ? scheduled.getPriority()
+                                                     : LanguageTask.Priority.NORMAL;
+    }
+
+    static String clientOf(Object job) {
+        return job instanceof ScheduledJob scheduled ? scheduled.getClient()
+                                                     : TaskDispatcher.ANONYMOUS_CLIENT;
+    }
+}
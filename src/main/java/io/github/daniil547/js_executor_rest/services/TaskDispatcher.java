@@ -1,11 +1,19 @@
 package io.github.daniil547.js_executor_rest.services;
 
 import io.github.daniil547.js_executor_rest.domain.LanguageTask;
+import io.github.daniil547.js_executor_rest.domain.OutputRange;
+import io.github.daniil547.js_executor_rest.domain.OutputSubscription;
+import io.github.daniil547.js_executor_rest.dtos.OutputView;
+import io.github.daniil547.js_executor_rest.dtos.TaskStatusView;
 import io.github.daniil547.js_executor_rest.dtos.TaskView;
 import org.springframework.data.domain.Pageable;
 
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
 import java.util.function.Predicate;
 
 /**
@@ -14,12 +22,48 @@ import java.util.function.Predicate;
 public interface TaskDispatcher {
 
     /**
-     * Adds a task to this task dispatcher.<br>
+     * Client of tasks, whose submitter isn't known.
+     */
+    String ANONYMOUS_CLIENT = "anonymous";
+
+    /**
+     * Adds a task of {@link #ANONYMOUS_CLIENT} to this task dispatcher.<br>
      * Might queue or start execution immediately.
      *
      * @param task - task to execute
      */
-    void addForExecution(LanguageTask task);
+    default void addForExecution(LanguageTask task) {
+        addForExecution(task, ANONYMOUS_CLIENT);
+    }
+
+    /**
+     * Adds a task to this task dispatcher.<br>
+     * Might queue or start execution immediately.
+     *
+     * @param task   - task to execute
+     * @param client - who submitted the task; the dispatcher may use it to share resources fairly
+     */
+    void addForExecution(LanguageTask task, String client);
+
+    /**
+     * Adds tasks to this task dispatcher in order, until one of them is rejected.
+     * It and all tasks after it aren't added.
+     *
+     * @param tasks  - tasks to execute
+     * @param client - who submitted the tasks
+     * @return how many tasks were added and why the rest weren't
+     */
+    BatchAdmission addAllForExecution(List<? extends LanguageTask> tasks, String client);
+
+    /**
+     * Restores tasks this dispatcher had before a restart, if it keeps them (see {@link TaskJournal}).
+     * Must be called once, before any task is added.
+     *
+     * @param newTask - makes a task of what's journaled about it, ended unless it's
+     *                {@link LanguageTask.Status#SCHEDULED}; it's executed anew then
+     * @return how many tasks were restored
+     */
+    int recover(Function<JournaledTask, LanguageTask> newTask);
 
     /**
      * Cancels task execution but doesn't remove from the
@@ -42,6 +86,73 @@ public interface TaskDispatcher {
      */
     TaskView getTask(UUID id);
 
+    /**
+     * Doesn't block: the returned stage is completed when the task ends.
+     *
+     * @param id of the task to wait for
+     * @return the task with the given ID, as it is once it has ended
+     */
+    CompletionStage<TaskView> whenTerminated(UUID id);
+
+    /**
+     * Unlike {@link #getTask(UUID)} doesn't copy source and output of the task.
+     *
+     * @param id of the task
+     * @return current status of the task with the given ID
+     */
+    TaskStatusView getTaskStatus(UUID id);
+
+    /**
+     * Same as {@link #whenTerminated(UUID)}, but for status only, so
+     * that long polling is as cheap as waiting itself.
+     *
+     * @param id of the task to wait for
+     * @return status of the task with the given ID, once it has ended
+     */
+    CompletionStage<TaskStatusView> whenTerminatedStatus(UUID id);
+
+    /**
+     * See {@link LanguageTask#readOutput(long)}.
+     *
+     * @param id   of the task
+     * @param from offset to read the output from
+     * @return output of the task with the given ID from the offset on
+     */
+    OutputView getTaskOutput(UUID id, long from);
+
+    /**
+     * See {@link LanguageTask#tailOutput(int)}.
+     *
+     * @param id    of the task
+     * @param lines how many lines to read
+     * @return last lines of output of the task with the given ID
+     */
+    OutputView getTaskOutputTail(UUID id, int lines);
+
+    /**
+     * See {@link LanguageTask#getOutputRange()}.
+     *
+     * @param id of the task
+     * @return offsets of output of the task with the given ID that's kept
+     */
+    OutputRange getTaskOutputRange(UUID id);
+
+    /**
+     * See {@link LanguageTask#transferOutput(long, long, WritableByteChannel)}.
+     *
+     * @param id of the task
+     * @return number of bytes of output of the task with the given ID written to the target
+     */
+    long transferTaskOutput(UUID id, long from, long to, WritableByteChannel target) throws IOException;
+
+    /**
+     * See {@link LanguageTask#subscribeToOutput(long, long, Runnable)}.
+     *
+     * @param id of the task to watch
+     * @return subscription to output of the task with the given ID
+     */
+    OutputSubscription subscribeToOutput(UUID id, long from, long maxPendingBytes, Runnable onSignal);
+
     /**
      * @return all tasks managed by this dispatcher
      */
@@ -0,0 +1,139 @@
+package io.github.daniil547.js_executor_rest.services;
+
+import io.github.daniil547.js_executor_rest.domain.LanguageTask;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * A task submitted for execution, as seen by {@link DefaultTaskDispatcher}:
+ * who submitted it, its {@link Future}, its timeout and the moment its cancellation was requested.
+ * <p>
+ * Outlives the execution itself, as the task's entry in {@link TaskRegistry},
+ * so the future and the timeout are {@link #release() released} once the task has ended.
+ * Once it has, the entry is either {@link #retain(long) retained} until a {@link RetentionSweeper}
+ * evicts it, or removed on request, whichever {@link #discard() discards} it first.
+ */
+class TaskExecution {
+    private static final long NOT_CANCELED = Long.MIN_VALUE;
+    private static final int ACTIVE = 0;
+    private static final int RETAINED = 1;
+    private static final int DISCARDED = 2;
+    // a field updater rather than an atomic, since there are millions of executions
+    private static final AtomicIntegerFieldUpdater<TaskExecution> RETENTION =
+            AtomicIntegerFieldUpdater.newUpdater(TaskExecution.class, "retention");
+
+    private final LanguageTask task;
+    private final String client;
+    private volatile Future<?> future;
+    // the task might be canceled before it's submitted
+    private volatile boolean futureCanceled = false;
+    private volatile HashedTimerWheel.Timeout timeout;
+    private volatile long cancelRequestedAt = NOT_CANCELED;
+    private volatile int retention = ACTIVE;
+    // orders journaled tasks by submission, see TaskJournal
+    private volatile long submissionSeq;
+    // what the ended task retains, as accounted for by the sweeper
+    private long retainedBytes;
+
+    TaskExecution(LanguageTask task, String client) {
+        this.task = task;
+        this.client = client;
+    }
+
+    LanguageTask getTask() {
+        return task;
+    }
+
+    String getClient() {
+        return client;
+    }
+
+    long getSubmissionSeq() {
+        return submissionSeq;
+    }
+
+    void setSubmissionSeq(long submissionSeq) {
+        this.submissionSeq = submissionSeq;
+    }
+
+    void setFuture(Future<?> future) {
+        this.future = future;
+        if (futureCanceled) {
+            future.cancel(true);
+        }
+    }
+
+    /**
+     * Cancels the future now, or as soon as it's set.
+     */
+    void cancelFuture() {
+        futureCanceled = true;
+        Future<?> current = future;
+        if (current != null) {
+            current.cancel(true);
+        }
+    }
+
+    void setTimeout(HashedTimerWheel.Timeout timeout) {
+        this.timeout = timeout;
+    }
+
+    void cancelTimeout() {
+        HashedTimerWheel.Timeout current = timeout;
+        if (current != null) {
+            current.cancel();
+        }
+    }
+
+    /**
+     * Drops what's only needed while the task is queued or running.
+     */
+    void release() {
+        future = null;
+        timeout = null;
+    }
+
+    /**
+     * @param bytes how much memory the ended task retains
+     * @return whether the entry is retained, i.e. it hasn't been discarded before the task has ended
+     */
+    boolean retain(long bytes) {
+        retainedBytes = bytes;
+        return RETENTION.compareAndSet(this, ACTIVE, RETAINED);
+    }
+
+    /**
+     * @return whether the entry was retained, i.e. it's discarded now
+     * and what it retained is no longer accounted for
+     */
+    boolean discard() {
+        return RETENTION.getAndSet(this, DISCARDED) == RETAINED;
+    }
+
+    boolean isDiscarded() {
+        return retention == DISCARDED;
+    }
+
+    long getRetainedBytes() {
+        return retainedBytes;
+    }
+
+    void cancelRequested() {
+        // the first request is the one the worker has been waiting on since
+        if (cancelRequestedAt == NOT_CANCELED) {
+            cancelRequestedAt = System.nanoTime();
+        }
+    }
+
+    boolean isCancelRequested() {
+        return cancelRequestedAt != NOT_CANCELED;
+    }
+
+    /**
+     * @return {@link System#nanoTime()} at the moment cancellation was requested
+     */
+    long getCancelRequestedAt() {
+        return cancelRequestedAt;
+    }
+}
@@ -0,0 +1,224 @@
+package io.github.daniil547.js_executor_rest.services;
+
+import io.github.daniil547.js_executor_rest.domain.LanguageTask;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A fixed-size thread pool with a bounded {@link FairShareQueue}.
+ * <p>
+ * Submitted jobs, which are {@link ScheduledJob}s, are started according to their client and priority.
+ * Time from submission until start is recorded per priority ({@code task.queue.wait}).
+ * Canceled jobs are removed from the queue right away, so that they don't take up room.
+ * <p>
+ * When the queue is full, a task is handled according to a {@link RejectionPolicy}.
+ * Rejected tasks cause a {@link TaskRejectedException}, which tells
+ * when the queue is expected to have room again: the time workers need
+ * to complete as many tasks as there are queued ahead of the client's next one,
+ * judging by recent throughput.
+ */
+public class TaskExecutor extends ThreadPoolExecutor implements MeterBinder {
+    private final FairShareQueue queue;
+    private final RejectionPolicy rejectionPolicy;
+    private final Duration admissionWait;
+
+    private final AtomicLong rejections = new AtomicLong();
+    private final DrainEstimate drainEstimate = new DrainEstimate();
+    // empty until bound to a registry
+    private volatile Map<LanguageTask.Priority, Timer> queueWait = Map.of();
+    // since the last drainMeanQueueWait()
+    private final LongAdder queueWaitNanos = new LongAdder();
+    private final LongAdder queueWaitCount = new LongAdder();
+
+    /**
+     * @param parallelism     number of worker threads
+     * @param queue           holds tasks waiting for a worker; must not be used by anything else
+     * @param rejectionPolicy what to do when the queue is full
+     * @param admissionWait   how long to wait for room in the queue with {@link RejectionPolicy#WAIT}
+     */
+    public TaskExecutor(int parallelism,
+                        FairShareQueue queue,
+                        RejectionPolicy rejectionPolicy,
+                        Duration admissionWait) {
+        super(parallelism, parallelism,
+              0L, TimeUnit.MILLISECONDS,
+              queue);
+        this.queue = queue;
+        this.rejectionPolicy = rejectionPolicy;
+        this.admissionWait = admissionWait;
+        setRejectedExecutionHandler(this::onQueueFull);
+        // otherwise the first tasks are handed to new workers directly,
+        // bypassing the queue and its accounting
+        prestartAllCoreThreads();
+    }
+
+    private void onQueueFull(Runnable task, ThreadPoolExecutor executor) {
+        if (isShutdown()) {
+            throw new RejectedExecutionException("Executor is shut down");
+        }
+        switch (rejectionPolicy) {
+            case ABORT -> throw reject(task);
+            case WAIT -> {
+                try {
+                    if (!queue.offer(task, admissionWait.toNanos(), TimeUnit.NANOSECONDS)) {
+                        throw reject(task);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw reject(task);
+                }
+            }
+        }
+    }
+
+    private TaskRejectedException reject(Runnable task) {
+        rejections.incrementAndGet();
+        String client = ScheduledJob.clientOf(task);
+        // racy, but it's just for the message
+        String message = queue.remainingCapacity() > 0
+                         ? "Client " + client + " has too many queued tasks ("
+                           + queue.getClientCapacity() + " tasks)"
+                         : "Task queue is full (" + queue.getCapacity() + " tasks)";
+        return new TaskRejectedException(message, estimateRetryAfter(client));
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value) {
+        return new QueuedTask<>(Executors.callable(runnable, value),
+                                ScheduledJob.clientOf(runnable),
+                                ScheduledJob.priorityOf(runnable));
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+        return new QueuedTask<>(callable,
+                                ScheduledJob.clientOf(callable),
+                                ScheduledJob.priorityOf(callable));
+    }
+
+    @Override
+    protected void beforeExecute(Thread t, Runnable r) {
+        if (r instanceof QueuedTask<?> queued) {
+            long waited = System.nanoTime() - queued.submittedAt;
+            queueWaitNanos.add(waited);
+            queueWaitCount.increment();
+            Timer timer = queueWait.get(queued.priority);
+            if (timer != null) {
+                timer.record(waited, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+    /**
+     * @return mean queue wait of tasks started since the previous call
+     */
+    public Duration drainMeanQueueWait() {
+        long count = queueWaitCount.sumThenReset();
+        long nanos = queueWaitNanos.sumThenReset();
+        return count == 0 ? Duration.ZERO : Duration.ofNanos(nanos / count);
+    }
+
+    /**
+     * Changes the number of workers. Surplus workers quit once they complete their current task.
+     *
+     * @param parallelism new number of workers
+     */
+    public synchronized void resize(int parallelism) {
+        if (parallelism > getMaximumPoolSize()) {
+            setMaximumPoolSize(parallelism);
+            setCorePoolSize(parallelism);
+            // new workers are only started for queued tasks, and then
+            // they'd be handed the next submitted tasks, bypassing the queue;
+            // the ones submitted meanwhile still are, the queue ignores their completion
+            prestartAllCoreThreads();
+        } else {
+            setCorePoolSize(parallelism);
+            setMaximumPoolSize(parallelism);
+        }
+    }
+
+    @Override
+    protected void afterExecute(Runnable r, Throwable t) {
+        queue.completed(r);
+        drainEstimate.completed();
+    }
+
+    /**
+     * @param client a client
+     * @return time until the queue is expected to have room for the client's tasks again
+     */
+    public Duration estimateRetryAfter(String client) {
+        int ahead = queue.remainingCapacity() > 0 ? queue.drainLength(client)
+                                                  : queue.size();
+        return drainEstimate.retryAfter(ahead);
+    }
+
+    public int getQueueDepth() {
+        return getQueue().size();
+    }
+
+    public long getRejections() {
+        return rejections.get();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("task.queue.depth", this, TaskExecutor::getQueueDepth)
+             .register(registry);
+        Gauge.builder("task.workers", this, TaskExecutor::getCorePoolSize)
+             .register(registry);
+        Gauge.builder("task.queue.capacity", queue, FairShareQueue::getCapacity)
+             .register(registry);
+        FunctionCounter.builder("task.queue.rejections", this, TaskExecutor::getRejections)
+                       .register(registry);
+        Map<LanguageTask.Priority, Timer> timers = new EnumMap<>(LanguageTask.Priority.class);
+        for (LanguageTask.Priority priority : LanguageTask.Priority.values()) {
+            timers.put(priority, Timer.builder("task.queue.wait")
+                                      .description("time from submission until a worker starts the task")
+                                      .tag("priority", priority.name().toLowerCase())
+                                      .publishPercentiles(0.5, 0.99)
+                                      .register(registry));
+        }
+        queueWait = timers;
+    }
+
+    private final class QueuedTask<T> extends FutureTask<T> implements ScheduledJob {
+        private final String client;
+        private final LanguageTask.Priority priority;
+        private final long submittedAt = System.nanoTime();
+
+        QueuedTask(Callable<T> callable, String client, LanguageTask.Priority priority) {
+            super(callable);
+            this.client = client;
+            this.priority = priority;
+        }
+
+        @Override
+        public String getClient() {
+            return client;
+        }
+
+        @Override
+        public LanguageTask.Priority getPriority() {
+            return priority;
+        }
+
+        @Override
+        protected void done() {
+            if (isCancelled()) {
+                // a no-op if it has already been taken by a worker
+                queue.remove(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,667 @@
+package io.github.daniil547.js_executor_rest.services;
+
+import io.github.daniil547.js_executor_rest.domain.LanguageTask;
+import io.github.daniil547.js_executor_rest.domain.OutputRange;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead journal of tasks of a {@link DefaultTaskDispatcher}, so that they survive a restart:
+ * submissions, starts, ends (along with the output) and removals.
+ * <p>
+ * Records are appended to journal files by a single writer thread. It writes whatever has been
+ * appended meanwhile as one batch, and forces it to disk once, so that concurrent appends share
+ * a sync instead of waiting for one each (group commit). Only submissions are waited for,
+ * see {@link #submitted(TaskExecution)}.
+ * <p>
+ * Once journal files grow past a threshold, they are compacted into a snapshot: the writer moves on
+ * to a new file, all registered tasks are written to the snapshot as they are, and journal files
+ * before the new one are deleted. Snapshots are records like any others, and replaying records
+ * is idempotent, so tasks changing while the snapshot is written are fine: the new file has
+ * whatever changed since the writer moved on to it.
+ * <p>
+ * Journaled tasks are {@link #recover() recovered} when the journal is opened, from the latest
+ * snapshot and the journal files after it. A record torn by a crash fails its checksum, and ends
+ * its file. Appends always go to a new file, so a torn file is never written to again.
+ * <p>
+ * Evictions (see {@link RetentionSweeper}) aren't journaled: evicted tasks are just left out
+ * of the next snapshot, and are evicted again if recovered before that.
+ */
+public class TaskJournal implements MeterBinder, AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(TaskJournal.class);
+    private static final String JOURNAL_PREFIX = "journal-";
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SUFFIX = ".log";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+    // frame header: payload length and checksum
+    private static final int HEADER_SIZE = Integer.BYTES * 2;
+
+    private static final byte SUBMITTED = 1;
+    private static final byte STARTED = 2;
+    private static final byte ENDED = 3;
+    private static final byte REMOVED = 4;
+    // not records, told apart by identity: to move on to a new journal file, and to stop
+    private static final byte[] ROTATE = new byte[0];
+    private static final byte[] CLOSE = new byte[0];
+
+    private final Path directory;
+    private final long maxBatchBytes;
+    private final long snapshotAfterBytes;
+
+    private List<JournaledTask> recovered;
+    private final BlockingQueue<Append> appends = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private final Thread snapshotter;
+    private volatile Supplier<Stream<TaskExecution>> executions;
+    private volatile boolean closed = false;
+    // once set, the journal can't be trusted, so nothing is appended anymore
+    private volatile IOException failure;
+
+    // owned by the writer
+    private FileChannel journal;
+    private volatile long journalSeq;
+    private volatile long bytesSinceSnapshot = 0;
+    private volatile boolean snapshotRequested = false;
+    // snapshots write tasks in no particular order, so submissions are numbered
+    private final AtomicLong nextSubmissionSeq = new AtomicLong();
+
+    private final AtomicLong records = new AtomicLong();
+    private final AtomicLong commits = new AtomicLong();
+    private final AtomicLong snapshots = new AtomicLong();
+
+    /**
+     * Recovers what's journaled in the directory, and starts a new journal file.
+     *
+     * @param directory          where journal and snapshot files are kept; created if missing
+     * @param maxBatchBytes      most bytes written per sync, more are synced separately
+     * @param snapshotAfterBytes how much is journaled before it's compacted into a snapshot
+     */
+    public TaskJournal(Path directory, long maxBatchBytes, long snapshotAfterBytes) {
+        this.directory = directory;
+        this.maxBatchBytes = maxBatchBytes;
+        this.snapshotAfterBytes = snapshotAfterBytes;
+        try {
+            Files.createDirectories(directory);
+            long lastSeq = replay();
+            journalSeq = lastSeq + 1;
+            journal = openJournal(journalSeq);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't open task journal in " + directory, e);
+        }
+        this.writer = new Thread(this::write, "task-journal");
+        this.writer.setDaemon(true);
+        this.writer.start();
+        this.snapshotter = new Thread(this::snapshotWhenRequested, "task-journal-snapshot");
+        this.snapshotter.setDaemon(true);
+        this.snapshotter.start();
+    }
+
+    /**
+     * Returns tasks journaled before the journal was opened, in the order they were submitted,
+     * and forgets them.
+     *
+     * @return journaled tasks, except removed ones
+     */
+    public synchronized List<JournaledTask> recover() {
+        List<JournaledTask> result = recovered != null ? recovered : List.of();
+        recovered = null;
+        return result;
+    }
+
+    /**
+     * Starts compacting the journal into snapshots of the given executions.
+     * Must be called only once recovered tasks are registered, so that a snapshot has them all.
+     *
+     * @param executions all registered executions
+     */
+    void snapshotFrom(Supplier<Stream<TaskExecution>> executions) {
+        this.executions = executions;
+        requestSnapshotIfDue();
+    }
+
+    /**
+     * Must be called once the task is registered, so that a snapshot
+     * started after the submission is journaled has the task.
+     *
+     * @return completed once the submission is on disk
+     */
+    CompletableFuture<Void> submitted(TaskExecution execution) {
+        execution.setSubmissionSeq(nextSubmissionSeq.getAndIncrement());
+        return append(submittedRecord(execution));
+    }
+
+    void started(UUID id) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            writeHeader(out, STARTED, id);
+            writeTime(out, ZonedDateTime.now());
+        } catch (IOException e) {
+            throw new AssertionError("Writing to memory doesn't fail", e);
+        }
+        append(bytes.toByteArray());
+    }
+
+    /**
+     * Journals the task's end, along with what's kept of its output.
+     */
+    void ended(LanguageTask task) {
+        try {
+            append(endedRecord(task));
+        } catch (IOException e) {
+            // the output couldn't be read, which would only fail if it can't be read by anyone either
+            log.warn("Failed to journal the end of task {}", task.getId(), e);
+        }
+    }
+
+    void removed(UUID id) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            writeHeader(out, REMOVED, id);
+        } catch (IOException e) {
+            throw new AssertionError("Writing to memory doesn't fail", e);
+        }
+        append(bytes.toByteArray());
+    }
+
+    private CompletableFuture<Void> append(byte[] payload) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        IOException failed = failure;
+        if (failed != null || closed) {
+            done.completeExceptionally(failed != null ? new UncheckedIOException("Task journal has failed", failed)
+                                                      : new IllegalStateException("Task journal is closed"));
+            return done;
+        }
+        appends.add(new Append(frame(payload), done));
+        return done;
+    }
+
+    private static byte[] submittedRecord(TaskExecution execution) {
+        LanguageTask task = execution.getTask();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            writeHeader(out, SUBMITTED, task.getId());
+            out.writeLong(execution.getSubmissionSeq());
+            writeBytes(out, execution.getClient().getBytes(StandardCharsets.UTF_8));
+            writeBytes(out, task.getSource().getBytes(StandardCharsets.UTF_8));
+            out.writeUTF(task.getPriority().name());
+            out.writeLong(task.getTimeout().map(Duration::toNanos).orElse(-1L));
+        } catch (IOException e) {
+            throw new AssertionError("Writing to memory doesn't fail", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] endedRecord(LanguageTask task) throws IOException {
+        OutputRange range = task.getOutputRange();
+        OutputBuffer output = new OutputBuffer((int) Math.min(range.length(), Integer.MAX_VALUE));
+        task.transferOutput(range.offset(), range.end(), output);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(output.size() + 128);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            writeHeader(out, ENDED, task.getId());
+            out.writeUTF(task.getStatus().name());
+            out.writeUTF(task.getTerminationReason().map(Enum::name).orElse(""));
+            writeTime(out, task.getStartTime().orElse(null));
+            writeTime(out, task.getEndTime().orElse(null));
+            out.writeLong(range.offset());
+            out.writeLong(task.getOutputSize());
+            out.writeBoolean(range.truncated());
+            writeBytes(out, output.toByteArray());
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeHeader(DataOutputStream out, byte type, UUID id) throws IOException {
+        out.writeByte(type);
+        out.writeLong(id.getMostSignificantBits());
+        out.writeLong(id.getLeastSignificantBits());
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void writeTime(DataOutputStream out, ZonedDateTime time) throws IOException {
+        out.writeBoolean(time != null);
+        if (time != null) {
+            out.writeLong(time.toInstant().getEpochSecond());
+            out.writeInt(time.toInstant().getNano());
+        }
+    }
+
+    private static byte[] frame(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return ByteBuffer.allocate(HEADER_SIZE + payload.length)
+                         .putInt(payload.length)
+                         .putInt((int) crc.getValue())
+                         .put(payload)
+                         .array();
+    }
+
+    private void write() {
+        List<Append> batch = new ArrayList<>();
+        boolean closing = false;
+        while (!closing) {
+            try {
+                batch.add(appends.take());
+            } catch (InterruptedException e) {
+                // only ever stopped by close()
+                Thread.currentThread().interrupt();
+                return;
+            }
+            long size = batch.get(0).size();
+            Append next;
+            while (size < maxBatchBytes && (next = appends.poll()) != null) {
+                batch.add(next);
+                size += next.size();
+            }
+            closing = batch.stream().anyMatch(append -> append.frame() == CLOSE);
+            if (closing) {
+                // appended right before the journal was closed
+                appends.drainTo(batch);
+            }
+            commit(batch);
+            batch.clear();
+        }
+    }
+
+    /**
+     * Writes the batch, forces it to disk, and lets those who append it know.
+     * A rotation in it ends what's written to the current file.
+     */
+    private void commit(List<Append> batch) {
+        int from = 0;
+        try {
+            for (int i = 0; i <= batch.size(); i++) {
+                if (i == batch.size() || batch.get(i).frame() == ROTATE) {
+                    writeAndForce(batch.subList(from, i));
+                    if (i < batch.size()) {
+                        rotate();
+                    }
+                    for (int done = from; done <= Math.min(i, batch.size() - 1); done++) {
+                        batch.get(done).done().complete(null);
+                    }
+                    from = i + 1;
+                }
+            }
+        } catch (IOException e) {
+            if (failure == null) {
+                log.error("Task journal has failed, tasks won't be journaled anymore", e);
+                failure = e;
+            }
+            for (int failed = from; failed < batch.size(); failed++) {
+                batch.get(failed).done().completeExceptionally(new UncheckedIOException("Task journal has failed", e));
+            }
+        }
+        requestSnapshotIfDue();
+    }
+
+    private void writeAndForce(List<Append> frames) throws IOException {
+        ByteBuffer[] buffers = frames.stream()
+                                     .filter(append -> append.frame() != CLOSE)
+                                     .map(append -> ByteBuffer.wrap(append.frame()))
+                                     .toArray(ByteBuffer[]::new);
+        if (buffers.length == 0) {
+            return;
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        long size = 0;
+        for (ByteBuffer buffer : buffers) {
+            size += buffer.remaining();
+        }
+        for (long written = 0; written < size; ) {
+            written += journal.write(buffers);
+        }
+        // metadata doesn't matter: a torn tail is detected anyway
+        journal.force(false);
+        bytesSinceSnapshot += size;
+        records.addAndGet(buffers.length);
+        commits.incrementAndGet();
+    }
+
+    private void rotate() throws IOException {
+        journal.close();
+        journal = openJournal(journalSeq + 1);
+        journalSeq++;
+        bytesSinceSnapshot = 0;
+    }
+
+    private FileChannel openJournal(long seq) throws IOException {
+        return FileChannel.open(file(JOURNAL_PREFIX, seq),
+                                StandardOpenOption.CREATE_NEW,
+                                StandardOpenOption.WRITE);
+    }
+
+    private void requestSnapshotIfDue() {
+        if (executions != null && bytesSinceSnapshot >= snapshotAfterBytes && !snapshotRequested) {
+            snapshotRequested = true;
+            LockSupport.unpark(snapshotter);
+        }
+    }
+
+    private void snapshotWhenRequested() {
+        while (!closed) {
+            if (snapshotRequested) {
+                try {
+                    snapshot();
+                } catch (IOException | RuntimeException e) {
+                    // journal files stay until the next snapshot, which is all it takes
+                    log.warn("Failed to write a snapshot of the task journal", e);
+                } finally {
+                    snapshotRequested = false;
+                }
+            }
+            LockSupport.park(this);
+        }
+    }
+
+    /**
+     * Moves the writer on to a new journal file, writes all executions into a snapshot
+     * as of that file, and deletes the files it covers.
+     */
+    private void snapshot() throws IOException {
+        CompletableFuture<Void> rotated = new CompletableFuture<>();
+        appends.add(new Append(ROTATE, rotated));
+        rotated.join();
+        long seq = journalSeq;
+        Path temporary = directory.resolve(SNAPSHOT_PREFIX + seq + TEMPORARY_SUFFIX);
+        try (FileChannel channel = FileChannel.open(temporary,
+                                                    StandardOpenOption.CREATE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING,
+                                                    StandardOpenOption.WRITE)) {
+            OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16);
+            Iterator<TaskExecution> all = executions.get().iterator();
+            while (all.hasNext()) {
+                TaskExecution execution = all.next();
+                LanguageTask task = execution.getTask();
+                // the status first: whatever happens to the task afterwards is in the new journal file
+                LanguageTask.Status status = task.getStatus();
+                out.write(frame(submittedRecord(execution)));
+                switch (status) {
+                    case RUNNING -> out.write(frame(startedRecord(task)));
+                    case FINISHED, CANCELED -> out.write(frame(endedRecord(task)));
+                }
+            }
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(temporary, file(SNAPSHOT_PREFIX, seq), StandardCopyOption.ATOMIC_MOVE);
+        // covered by the snapshot now
+        for (Path file : files()) {
+            if (seqOf(file) < seq) {
+                Files.delete(file);
+            }
+        }
+        snapshots.incrementAndGet();
+    }
+
+    private static byte[] startedRecord(LanguageTask task) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            writeHeader(out, STARTED, task.getId());
+            writeTime(out, task.getStartTime().orElseGet(ZonedDateTime::now));
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Replays the latest snapshot and the journal files after it into {@link #recovered}.
+     *
+     * @return sequence number of the last file, 0 if there are none
+     */
+    private long replay() throws IOException {
+        List<Path> files = files();
+        long snapshotSeq = files.stream()
+                                .filter(file -> file.getFileName().toString().startsWith(SNAPSHOT_PREFIX))
+                                .mapToLong(TaskJournal::seqOf)
+                                .max()
+                                .orElse(0);
+        Map<UUID, JournaledTask> tasks = new LinkedHashMap<>();
+        long lastSeq = 0;
+        for (Path file : files) {
+            long seq = seqOf(file);
+            lastSeq = Math.max(lastSeq, seq);
+            boolean snapshot = file.getFileName().toString().startsWith(SNAPSHOT_PREFIX);
+            // older ones are left over from a snapshot interrupted while deleting them
+            if (snapshot ? seq == snapshotSeq : seq >= snapshotSeq) {
+                replay(file, tasks);
+                if (!snapshot) {
+                    // so that a long journal is compacted right after recovery
+                    bytesSinceSnapshot += Files.size(file);
+                }
+            }
+        }
+        recovered = new ArrayList<>(tasks.values());
+        recovered.sort(Comparator.comparingLong(JournaledTask::submissionSeq));
+        if (!recovered.isEmpty()) {
+            nextSubmissionSeq.set(recovered.get(recovered.size() - 1).submissionSeq() + 1);
+        }
+        return lastSeq;
+    }
+
+    private static void replay(Path file, Map<UUID, JournaledTask> tasks) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            while (true) {
+                byte[] payload;
+                try {
+                    int length = in.readInt();
+                    int checksum = in.readInt();
+                    if (length < 0) {
+                        throw new EOFException();
+                    }
+                    payload = in.readNBytes(length);
+                    CRC32 crc = new CRC32();
+                    crc.update(payload);
+                    if (payload.length < length || (int) crc.getValue() != checksum) {
+                        throw new EOFException();
+                    }
+                } catch (EOFException e) {
+                    // the end, or a record torn by a crash, after which nothing was written
+                    return;
+                }
+                apply(new DataInputStream(new ByteArrayInputStream(payload)), tasks);
+            }
+        }
+    }
+
+    /**
+     * Applies a record. Records may be applied more than once, and those of a snapshot along with
+     * those of the journal files after it, so each one only ever moves a task forward.
+     */
+    private static void apply(DataInputStream in, Map<UUID, JournaledTask> tasks) throws IOException {
+        byte type = in.readByte();
+        UUID id = new UUID(in.readLong(), in.readLong());
+        switch (type) {
+            case SUBMITTED -> {
+                long submissionSeq = in.readLong();
+                String client = new String(readBytes(in), StandardCharsets.UTF_8);
+                String source = new String(readBytes(in), StandardCharsets.UTF_8);
+                LanguageTask.Priority priority = LanguageTask.Priority.valueOf(in.readUTF());
+                long timeout = in.readLong();
+                tasks.putIfAbsent(id, JournaledTask.submitted(id, submissionSeq, client, source, priority,
+                                                              timeout >= 0 ? Duration.ofNanos(timeout) : null));
+            }
+            case STARTED -> {
+                ZonedDateTime startTime = readTime(in);
+                tasks.computeIfPresent(id, (key, task) -> task.started(startTime));
+            }
+            case ENDED -> {
+                LanguageTask.Status status = LanguageTask.Status.valueOf(in.readUTF());
+                String reason = in.readUTF();
+                ZonedDateTime startTime = readTime(in);
+                ZonedDateTime endTime = readTime(in);
+                long outputOffset = in.readLong();
+                long outputSize = in.readLong();
+                boolean outputTruncated = in.readBoolean();
+                byte[] output = readBytes(in);
+                tasks.computeIfPresent(id, (key, task) -> task.ended(
+                        status,
+                        reason.isEmpty() ? null : LanguageTask.TerminationReason.valueOf(reason),
+                        startTime, endTime, outputOffset, output, outputSize, outputTruncated
+                ));
+            }
+            case REMOVED -> tasks.remove(id);
+            default -> throw new IOException("Unknown journal record type " + type);
+        }
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        return in.readNBytes(in.readInt());
+    }
+
+    private static ZonedDateTime readTime(DataInputStream in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        return ZonedDateTime.ofInstant(Instant.ofEpochSecond(in.readLong(), in.readInt()), ZoneId.systemDefault());
+    }
+
+    /**
+     * Deletes leftovers of interrupted snapshots along the way.
+     *
+     * @return journal and snapshot files, by sequence number, snapshots before journals of the same number
+     */
+    private List<Path> files() throws IOException {
+        List<Path> result = new ArrayList<>();
+        try (DirectoryStream<Path> all = Files.newDirectoryStream(directory)) {
+            for (Path file : all) {
+                String name = file.getFileName().toString();
+                if (name.startsWith(SNAPSHOT_PREFIX) && name.endsWith(TEMPORARY_SUFFIX)) {
+                    Files.delete(file);
+                } else if ((name.startsWith(JOURNAL_PREFIX) || name.startsWith(SNAPSHOT_PREFIX))
+                           && name.endsWith(SUFFIX)) {
+                    result.add(file);
+                }
+            }
+        }
+        result.sort(Comparator.comparingLong(TaskJournal::seqOf)
+                              .thenComparing(file -> !file.getFileName().toString().startsWith(SNAPSHOT_PREFIX)));
+        return result;
+    }
+
+    private Path file(String prefix, long seq) {
+        // zero-padded, so that they're listed in order
+        return directory.resolve(String.format("%s%019d%s", prefix, seq, SUFFIX));
+    }
+
+    private static long seqOf(Path file) {
+        String name = file.getFileName().toString();
+        int start = name.startsWith(SNAPSHOT_PREFIX) ? SNAPSHOT_PREFIX.length() : JOURNAL_PREFIX.length();
+        return Long.parseLong(name.substring(start, name.length() - SUFFIX.length()));
+    }
+
+    public long getRecords() {
+        return records.get();
+    }
+
+    public long getCommits() {
+        return commits.get();
+    }
+
+    public long getSnapshots() {
+        return snapshots.get();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("task.journal.records", this, TaskJournal::getRecords)
+                       .description("records written to the task journal")
+                       .register(registry);
+        FunctionCounter.builder("task.journal.commits", this, TaskJournal::getCommits)
+                       .description("syncs of the task journal, each one for a batch of records")
+                       .register(registry);
+        FunctionCounter.builder("task.journal.snapshots", this, TaskJournal::getSnapshots)
+                       .register(registry);
+    }
+
+    /**
+     * Writes whatever has been appended, and stops. Nothing is appended afterwards.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(snapshotter);
+        try {
+            // a snapshot in progress still needs the writer
+            snapshotter.join();
+            CompletableFuture<Void> stopped = new CompletableFuture<>();
+            appends.add(new Append(CLOSE, stopped));
+            writer.join();
+            journal.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            log.warn("Failed to close the task journal", e);
+        }
+    }
+
+    /**
+     * Collects output in memory. Unlike {@link Channels#newChannel(OutputStream)}, isn't closed
+     * by an interrupt, which is how a worker whose task was canceled is stopped.
+     */
+    private static final class OutputBuffer extends ByteArrayOutputStream implements WritableByteChannel {
+        OutputBuffer(int size) {
+            super(size);
+        }
+
+        @Override
+        public int write(ByteBuffer source) {
+            int length = source.remaining();
+            if (source.hasArray()) {
+                write(source.array(), source.arrayOffset() + source.position(), length);
+                source.position(source.limit());
+            } else {
+                byte[] bytes = new byte[length];
+                source.get(bytes);
+                write(bytes, 0, length);
+            }
+            return length;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+    }
+
+    /**
+     * @param frame framed record, or {@link #ROTATE} or {@link #CLOSE}
+     * @param done  completed once the record is on disk
+     */
+    private record Append(byte[] frame, CompletableFuture<Void> done) {
+        int size() {
+            return frame.length;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package io.github.daniil547.js_executor_rest.services;
+
+import io.github.daniil547.js_executor_rest.domain.IsolatedJsTask;
+import io.github.daniil547.js_executor_rest.domain.JsContextFactory;
+import io.github.daniil547.js_executor_rest.domain.LanguageTask;
+import io.github.daniil547.js_executor_rest.domain.OutputLimit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.time.ZonedDateTime;
+
+/**
+ * Restores tasks journaled before a restart (see {@link TaskJournal}), before the service accepts requests.
+ * <p>
+ * Scheduled tasks are executed anew, with their timeouts counting from the restart.
+ * Tasks that were running are {@link LanguageTask.TerminationReason#INTERRUPTED interrupted}:
+ * guest code can't continue where it stopped, and running it again might repeat its side effects.
+ */
+@Service
+public class TaskRecovery implements SmartInitializingSingleton {
+    private static final Logger log = LoggerFactory.getLogger(TaskRecovery.class);
+    private static final byte[] NO_OUTPUT = new byte[0];
+
+    private final TaskDispatcher taskDispatcher;
+    private final JsContextFactory jsContextFactory;
+    private final long statementLimit;
+    private final OutputLimit outputLimit;
+
+    @Autowired
+    public TaskRecovery(TaskDispatcher taskDispatcher,
+                        JsContextFactory jsContextFactory,
+                        @Value("${task-execution.statement-limit}") Long statementLimit,
+                        @Value("${task-execution.output.max-size}") DataSize maxOutputSize,
+                        @Value("${task-execution.output.limit-policy}") OutputLimit.Policy outputLimitPolicy) {
+        this.taskDispatcher = taskDispatcher;
+        this.jsContextFactory = jsContextFactory;
+        this.statementLimit = statementLimit;
+        this.outputLimit = new OutputLimit(maxOutputSize.toBytes(), outputLimitPolicy);
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        long start = System.nanoTime();
+        int recovered = taskDispatcher.recover(this::restore);
+        if (recovered > 0) {
+            log.info("Recovered {} tasks in {} ms", recovered, (System.nanoTime() - start) / 1_000_000);
+        }
+    }
+
+    private LanguageTask restore(JournaledTask journaled) {
+        IsolatedJsTask task = new IsolatedJsTask(journaled.id(),
+                                                 journaled.source(),
+                                                 statementLimit,
+                                                 journaled.timeout(),
+                                                 journaled.priority(),
+                                                 outputLimit,
+                                                 jsContextFactory);
+        switch (journaled.status()) {
+            case SCHEDULED -> {
+                // executed anew
+            }
+            case RUNNING -> task.restore(LanguageTask.Status.CANCELED,
+                                         LanguageTask.TerminationReason.INTERRUPTED,
+                                         journaled.startTime(),
+                                         ZonedDateTime.now(),
+                                         0,
+                                         NO_OUTPUT,
+                                         0,
+                                         false);
+            case FINISHED, CANCELED -> task.restore(journaled.status(),
+                                                    journaled.terminationReason(),
+                                                    journaled.startTime(),
+                                                    journaled.endTime(),
+                                                    journaled.outputOffset(),
+                                                    journaled.output(),
+                                                    journaled.outputSize(),
+                                                    journaled.outputTruncated());
+        }
+        return task;
+    }
+}
@@ -0,0 +1,310 @@
+package io.github.daniil547.js_executor_rest.services;
+
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Tasks of a {@link DefaultTaskDispatcher}, one {@link TaskExecution} per task, by task id.
+ * <p>
+ * Meant to hold millions of tasks, so an entry costs as little as possible:
+ * ids are stored as their two {@code long} halves in a flat array (no boxed keys,
+ * no map nodes), and the execution is the only object per task, since it holds the task too.
+ * <p>
+ * An open-addressing hash table with linear probing, split into segments.
+ * Writes lock their segment; reads don't lock at all. A slot's id is written once,
+ * before its execution is published, and never changes: removed executions
+ * leave a tombstone, which is only cleaned up when the segment is rebuilt
+ * into a new table. So a reader sees either the execution, or nothing.
+ * <p>
+ * Ids of {@link #evict(TaskExecution) evicted} tasks are remembered (until {@link #forget(UUID) forgotten}),
+ * so that they can be told from ids that never existed, or were removed.
+ * <p>
+ * Ids must not be the nil UUID, which marks empty slots.
+ * Randomly generated ones never are.
+ */
+class TaskRegistry {
+    private static final int SEGMENT_BITS = 4;
+    private static final int MIN_CAPACITY = 16;
+    private static final Object TOMBSTONE = new Object();
+    private static final Object EVICTED = new Object();
+
+    private final Segment[] segments = new Segment[1 << SEGMENT_BITS];
+
+    TaskRegistry() {
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    /**
+     * @return execution of the task with the id, or {@code null} if there is none
+     */
+    TaskExecution get(UUID id) {
+        long msb = id.getMostSignificantBits();
+        long lsb = id.getLeastSignificantBits();
+        int hash = hash(msb, lsb);
+        return segmentFor(hash).get(msb, lsb, hash);
+    }
+
+    /**
+     * @return the execution already registered for the same task, or {@code null} if this one was added
+     */
+    TaskExecution putIfAbsent(TaskExecution execution) {
+        UUID id = execution.getTask().getId();
+        long msb = id.getMostSignificantBits();
+        long lsb = id.getLeastSignificantBits();
+        if (msb == 0 && lsb == 0) {
+            throw new IllegalArgumentException("The nil UUID can't be registered");
+        }
+        int hash = hash(msb, lsb);
+        return segmentFor(hash).putIfAbsent(msb, lsb, hash, execution);
+    }
+
+    /**
+     * @return the removed execution, or {@code null} if there was none
+     */
+    TaskExecution remove(UUID id) {
+        long msb = id.getMostSignificantBits();
+        long lsb = id.getLeastSignificantBits();
+        int hash = hash(msb, lsb);
+        return segmentFor(hash).remove(msb, lsb, hash);
+    }
+
+    /**
+     * Removes the execution, remembering its id as evicted.
+     *
+     * @return whether it was registered
+     */
+    boolean evict(TaskExecution execution) {
+        UUID id = execution.getTask().getId();
+        long msb = id.getMostSignificantBits();
+        long lsb = id.getLeastSignificantBits();
+        int hash = hash(msb, lsb);
+        return segmentFor(hash).evict(msb, lsb, hash, execution);
+    }
+
+    /**
+     * @return whether the task with the id was evicted, and is still remembered
+     */
+    boolean isEvicted(UUID id) {
+        long msb = id.getMostSignificantBits();
+        long lsb = id.getLeastSignificantBits();
+        int hash = hash(msb, lsb);
+        return segmentFor(hash).table.valueOf(msb, lsb, hash) == EVICTED;
+    }
+
+    /**
+     * Stops remembering an evicted id, so that it takes no room anymore.
+     */
+    void forget(UUID id) {
+        long msb = id.getMostSignificantBits();
+        long lsb = id.getLeastSignificantBits();
+        int hash = hash(msb, lsb);
+        segmentFor(hash).forget(msb, lsb, hash);
+    }
+
+    /**
+     * @return number of registered executions, evicted ones excluded
+     */
+    int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size;
+        }
+        return size;
+    }
+
+    /**
+     * Weakly consistent, like iterators of concurrent collections: reflects
+     * some of the changes made while it's consumed, and never fails because of them.
+     *
+     * @return all registered executions
+     */
+    Stream<TaskExecution> stream() {
+        return Stream.of(segments)
+                     .flatMap(segment -> segment.table.stream());
+    }
+
+    private Segment segmentFor(int hash) {
+        return segments[hash >>> (Integer.SIZE - SEGMENT_BITS)];
+    }
+
+    private static int hash(long msb, long lsb) {
+        // random UUIDs are well mixed already, except for the version and variant bits
+        long h = msb ^ lsb;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+
+    private static final class Segment {
+        // replaced as a whole when rebuilt, so that readers always see a consistent table
+        private volatile Table table = new Table(MIN_CAPACITY);
+        private volatile int size = 0;
+        private int evicted = 0;
+        // slots that aren't empty, i.e. live, evicted and tombstones
+        private int used = 0;
+
+        TaskExecution get(long msb, long lsb, int hash) {
+            Object value = table.valueOf(msb, lsb, hash);
+            return value == TOMBSTONE || value == EVICTED ? null : (TaskExecution) value;
+        }
+
+        synchronized TaskExecution putIfAbsent(long msb, long lsb, int hash, TaskExecution execution) {
+            Table current = table;
+            int slot = current.find(msb, lsb, hash);
+            if (slot >= 0) {
+                Object existing = current.values.get(slot);
+                if (existing != TOMBSTONE && existing != EVICTED) {
+                    return (TaskExecution) existing;
+                }
+                // the id is already there, only the execution is new
+                current.values.set(slot, execution);
+                if (existing == EVICTED) {
+                    evicted--;
+                }
+                size++;
+                return null;
+            }
+            if ((used + 1) * 4L > current.capacity() * 3L) {
+                current = rebuild(current);
+            }
+            current.insert(msb, lsb, hash, execution);
+            used++;
+            size++;
+            return null;
+        }
+
+        synchronized TaskExecution remove(long msb, long lsb, int hash) {
+            Table current = table;
+            int slot = current.find(msb, lsb, hash);
+            if (slot < 0) {
+                return null;
+            }
+            Object existing = current.values.get(slot);
+            if (existing == TOMBSTONE || existing == EVICTED) {
+                return null;
+            }
+            current.values.set(slot, TOMBSTONE);
+            size--;
+            return (TaskExecution) existing;
+        }
+
+        synchronized boolean evict(long msb, long lsb, int hash, TaskExecution execution) {
+            Table current = table;
+            int slot = current.find(msb, lsb, hash);
+            if (slot < 0 || current.values.get(slot) != execution) {
+                return false;
+            }
+            current.values.set(slot, EVICTED);
+            size--;
+            evicted++;
+            return true;
+        }
+
+        synchronized void forget(long msb, long lsb, int hash) {
+            Table current = table;
+            int slot = current.find(msb, lsb, hash);
+            if (slot >= 0 && current.values.get(slot) == EVICTED) {
+                current.values.set(slot, TOMBSTONE);
+                evicted--;
+            }
+        }
+
+        /**
+         * Copies live executions and evicted ids into a new table, sized for them to fill
+         * at most half of it, so that a table is between 1/2 and 3/4 full, tombstones included.
+         */
+        private Table rebuild(Table old) {
+            int capacity = MIN_CAPACITY;
+            while (capacity < (size + evicted + 1) * 2) {
+                capacity <<= 1;
+            }
+            Table rebuilt = new Table(capacity);
+            for (int slot = 0; slot < old.capacity(); slot++) {
+                Object value = old.values.get(slot);
+                if (value != null && value != TOMBSTONE) {
+                    long msb = old.keys[slot * 2];
+                    long lsb = old.keys[slot * 2 + 1];
+                    rebuilt.insert(msb, lsb, hash(msb, lsb), value);
+                }
+            }
+            used = size + evicted;
+            table = rebuilt;
+            return rebuilt;
+        }
+    }
+
+    private static final class Table {
+        // halves of ids, two per slot; written once, before the slot's value
+        private final long[] keys;
+        // null for empty slots
+        private final AtomicReferenceArray<Object> values;
+        private final int mask;
+
+        Table(int capacity) {
+            this.keys = new long[capacity * 2];
+            this.values = new AtomicReferenceArray<>(capacity);
+            this.mask = capacity - 1;
+        }
+
+        int capacity() {
+            return values.length();
+        }
+
+        /**
+         * @return value of the id's slot, {@code null} if it has none
+         */
+        Object valueOf(long msb, long lsb, int hash) {
+            for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+                // read first: its id is written before it, so it's visible if the value is
+                Object value = values.get(slot);
+                if (value == null || keys[slot * 2] == msb && keys[slot * 2 + 1] == lsb) {
+                    return value;
+                }
+            }
+        }
+
+        /**
+         * Must hold the segment's lock.
+         *
+         * @return slot of the id, or -1 if it's not in the table
+         */
+        int find(long msb, long lsb, int hash) {
+            for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+                if (values.get(slot) == null) {
+                    return -1;
+                }
+                if (keys[slot * 2] == msb && keys[slot * 2 + 1] == lsb) {
+                    return slot;
+                }
+            }
+        }
+
+        /**
+         * Must hold the segment's lock, the id must not be in the table,
+         * and the table must have an empty slot.
+         */
+        void insert(long msb, long lsb, int hash, Object value) {
+            int slot = hash & mask;
+            while (values.get(slot) != null) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot * 2] = msb;
+            keys[slot * 2 + 1] = lsb;
+            // publishes the id along with the value
+            values.set(slot, Objects.requireNonNull(value));
+        }
+
+        Stream<TaskExecution> stream() {
+            return IntStream.range(0, capacity())
+                            .mapToObj(values::get)
+                            .filter(value -> value != null && value != TOMBSTONE && value != EVICTED)
+                            .map(TaskExecution.class::cast);
+        }
+    }
+}
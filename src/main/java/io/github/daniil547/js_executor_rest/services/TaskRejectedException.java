@@ -0,0 +1,21 @@
+package io.github.daniil547.js_executor_rest.services;
+
+import java.time.Duration;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Thrown by {@link TaskExecutor} when there is no room for a task.
+ * Tells when it makes sense to try again.
+ */
+public class TaskRejectedException extends RejectedExecutionException {
+    private final Duration retryAfter;
+
+    public TaskRejectedException(String message, Duration retryAfter) {
+        super(message);
+        this.retryAfter = retryAfter;
+    }
+
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+}
@@ -88,7 +88,7 @@ public class TaskViewRepresentationModelAssembler implements SimpleRepresentatio
                            .withName("getTaskStatus")
                            .toLink(),
                 Affordances.of(
-                                   linkTo(methodOn(controller).getTaskOutput(id)).withRel("self.output"))
+                                   linkTo(methodOn(controller).getTaskOutput(id, null, null)).withRel("self.output"))
                            .afford(HttpMethod.GET)
                            .withName("getTaskOutput")
                            .toLink()
@@ -0,0 +1,165 @@
+package io.github.daniil547.js_executor_rest.services;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An alternative to {@link TaskExecutor} built on a {@link ForkJoinPool}.
+ * <p>
+ * Instead of one lock-guarded queue, every worker has a deque of its own, and
+ * external submissions are spread over several submission queues. Idle workers
+ * steal from others, so submitting threads and workers rarely contend.
+ * Workers take tasks in FIFO order.
+ * <p>
+ * Tasks are never blocked on inside a worker (cancellation blocks the canceling thread),
+ * so no managed blocking is needed. Admission is still bounded: at most {@code capacity}
+ * tasks may wait for a worker, others are rejected right away with a {@link TaskRejectedException},
+ * which tells when there's expected to be room again, judging by recent throughput (see {@link DrainEstimate}).
+ * A canceled task stops counting as waiting right away, though it's only dropped
+ * from the deques once a worker gets to it.
+ * <p>
+ * Doesn't support priorities, fair sharing between clients or resizing.
+ */
+public class WorkStealingExecutor extends AbstractExecutorService implements MeterBinder {
+    private final ForkJoinPool pool;
+    private final int capacity;
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final AtomicLong rejections = new AtomicLong();
+    private final DrainEstimate drainEstimate = new DrainEstimate();
+
+    /**
+     * @param parallelism number of workers
+     * @param capacity    maximum number of tasks waiting for a worker
+     */
+    public WorkStealingExecutor(int parallelism, int capacity) {
+        this.pool = new ForkJoinPool(parallelism,
+                                     ForkJoinPool.defaultForkJoinWorkerThreadFactory,
+                                     null,
+                                     // FIFO
+                                     true);
+        this.capacity = capacity;
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value) {
+        return new AdmittedTask<>(Executors.callable(runnable, value));
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+        return new AdmittedTask<>(callable);
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        AdmittedTask<?> task = command instanceof AdmittedTask<?> admitted
+                               ? admitted
+                               : new AdmittedTask<>(Executors.callable(command, null));
+        if (waiting.incrementAndGet() > capacity) {
+            waiting.decrementAndGet();
+            rejections.incrementAndGet();
+            throw new TaskRejectedException("Task queue is full (" + capacity + " tasks)",
+                                            drainEstimate.retryAfter(waiting.get()));
+        }
+        try {
+            pool.execute(task);
+        } catch (RuntimeException e) {
+            task.leaveQueue();
+            throw e;
+        }
+    }
+
+    public int getQueueDepth() {
+        return waiting.get();
+    }
+
+    public long getRejections() {
+        return rejections.get();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("task.queue.depth", this, WorkStealingExecutor::getQueueDepth)
+             .register(registry);
+        Gauge.builder("task.queue.capacity", this, e -> e.capacity)
+             .register(registry);
+        FunctionCounter.builder("task.queue.rejections", this, WorkStealingExecutor::getRejections)
+                       .register(registry);
+        Gauge.builder("task.workers", pool, ForkJoinPool::getParallelism)
+             .register(registry);
+        FunctionCounter.builder("task.workers.steals", pool, ForkJoinPool::getStealCount)
+                       .register(registry);
+    }
+
+    @Override
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        return pool.shutdownNow();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return pool.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return pool.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return pool.awaitTermination(timeout, unit);
+    }
+
+    private final class AdmittedTask<T> extends FutureTask<T> {
+        private final AtomicBoolean isWaiting = new AtomicBoolean(true);
+
+        AdmittedTask(Callable<T> callable) {
+            super(callable);
+        }
+
+        /**
+         * Either started or canceled, whichever is first.
+         *
+         * @return whether the task has just left the queue
+         */
+        boolean leaveQueue() {
+            if (isWaiting.compareAndSet(true, false)) {
+                waiting.decrementAndGet();
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public void run() {
+            // canceled ones left the queue without taking a worker's time
+            boolean started = leaveQueue();
+            super.run();
+            if (started) {
+                drainEstimate.completed();
+            }
+        }
+
+        @Override
+        protected void done() {
+            if (isCancelled()) {
+                leaveQueue();
+            }
+        }
+    }
+}
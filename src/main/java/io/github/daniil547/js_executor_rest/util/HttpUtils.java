@@ -5,8 +5,15 @@ import org.springframework.web.context.request.RequestContextHolder;
 import org.springframework.web.context.request.ServletRequestAttributes;
 
 import javax.servlet.http.HttpServletRequest;
+import java.time.Duration;
+import java.util.Optional;
 
 public class HttpUtils {
+    // RFC 7240, not in HttpHeaders
+    public static final String PREFER = "Prefer";
+    public static final String PREFERENCE_APPLIED = "Preference-Applied";
+    private static final String WAIT_PREFERENCE = "wait";
+
     public static HttpServletRequest getCurrentHttpRequest() {
         RequestAttributes requestAttributes = RequestContextHolder.getRequestAttributes();
         if (requestAttributes instanceof ServletRequestAttributes) {
@@ -16,4 +23,34 @@ public class HttpUtils {
         throw new AssertionError("HttpUtils.getCurrentHttpRequest() was called" +
                                  " outside the context of an HTTP request, which makes no sense and is a bug.");
     }
+
+    /**
+     * Extracts the {@code wait} preference (RFC 7240) from a {@code Prefer} header,
+     * e.g. {@code Prefer: respond-async, wait=10}. Malformed preferences are ignored,
+     * as the RFC requires.
+     *
+     * @param prefer value of the header, may be {@code null}
+     * @return how long the client is willing to wait for the response
+     */
+    public static Optional<Duration> getPreferredWait(String prefer) {
+        if (prefer == null) {
+            return Optional.empty();
+        }
+        for (String preference : prefer.split(",")) {
+            // parameters of a preference (after ';') don't matter for wait
+            String[] nameAndValue = preference.split(";", 2)[0].split("=", 2);
+            if (nameAndValue.length == 2 && nameAndValue[0].strip().equalsIgnoreCase(WAIT_PREFERENCE)) {
+                String value = nameAndValue[1].strip().replace("\"", "");
+                try {
+                    long seconds = Long.parseLong(value);
+                    if (seconds >= 0) {
+                        return Optional.of(Duration.ofSeconds(seconds));
+                    }
+                } catch (NumberFormatException e) {
+                    // ignored, same as a preference that isn't understood
+                }
+            }
+        }
+        return Optional.empty();
+    }
 }
@@ -0,0 +1,62 @@
+package io.github.daniil547.js_executor_rest.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.function.Supplier;
+
+/**
+ * Fails reading past a number of bytes, instead of reading the whole stream, however long it is.
+ */
+public class LimitedInputStream extends FilterInputStream {
+    private final Supplier<? extends RuntimeException> onExceeded;
+    private long remaining;
+
+    /**
+     * @param limit      number of bytes that may be read
+     * @param onExceeded makes what's thrown by a read past the limit
+     */
+    public LimitedInputStream(InputStream in, long limit, Supplier<? extends RuntimeException> onExceeded) {
+        super(in);
+        this.remaining = limit;
+        this.onExceeded = onExceeded;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int read = super.read();
+        if (read >= 0) {
+            count(1);
+        }
+        return read;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int read = super.read(b, off, len);
+        if (read > 0) {
+            count(read);
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = super.skip(n);
+        count(skipped);
+        return skipped;
+    }
+
+    // marks would make bytes count twice
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    private void count(long read) {
+        remaining -= read;
+        if (remaining < 0) {
+            throw onExceeded.get();
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package io.github.daniil547.js_executor_rest;
+
+import java.util.Arrays;
+
+/**
+ * Collects latency samples for benchmarks and summarizes them.
+ * Not thread-safe.
+ */
+public class LatencyRecorder {
+    private final String name;
+    private long[] samples = new long[1024];
+    private int count = 0;
+
+    public LatencyRecorder(String name) {
+        this.name = name;
+    }
+
+    public void record(long nanos) {
+        if (count == samples.length) {
+            samples = Arrays.copyOf(samples, count * 2);
+        }
+        samples[count++] = nanos;
+    }
+
+    public void recordAll(LatencyRecorder other) {
+        for (int i = 0; i < other.count; i++) {
+            record(other.samples[i]);
+        }
+    }
+
+    public int count() {
+        return count;
+    }
+
+    public double meanMicros() {
+        return Arrays.stream(samples, 0, count).average().orElse(0) / 1000;
+    }
+
+    public double percentileMicros(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        int idx = (int) Math.min(count - 1, Math.ceil(percentile / 100 * count) - 1);
+        return sorted[Math.max(idx, 0)] / 1000.0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%-40s n=%-7d mean=%10.1fus p50=%10.1fus p99=%10.1fus max=%10.1fus",
+                             name, count, meanMicros(),
+                             percentileMicros(50), percentileMicros(99), percentileMicros(100));
+    }
+}
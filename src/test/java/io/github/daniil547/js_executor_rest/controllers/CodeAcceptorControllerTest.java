@@ -0,0 +1,264 @@
+package io.github.daniil547.js_executor_rest.controllers;
+
+import io.github.daniil547.js_executor_rest.domain.LanguageTask;
+import io.github.daniil547.js_executor_rest.domain.OutputRange;
+import io.github.daniil547.js_executor_rest.domain.TaskOutput;
+import io.github.daniil547.js_executor_rest.dtos.TaskStatusView;
+import io.github.daniil547.js_executor_rest.exceptions.OutputTransferAbortedException;
+import io.github.daniil547.js_executor_rest.services.BatchAdmission;
+import io.github.daniil547.js_executor_rest.services.TaskDispatcher;
+import io.github.daniil547.js_executor_rest.util.HttpUtils;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+
+@SpringBootTest(properties = {"task-execution.batch.max-items=2", "task-execution.batch.max-size=1KB"})
+@AutoConfigureMockMvc
+public class CodeAcceptorControllerTest {
+    private static final UUID ID = UUID.randomUUID();
+    private static final byte[] OUTPUT = "0123456789".getBytes(StandardCharsets.UTF_8);
+
+    @Autowired
+    private MockMvc mockMvc;
+    @MockBean
+    private TaskDispatcher taskDispatcher;
+
+    @Test
+    @DisplayName("the whole output must be downloaded with its length")
+    public void download() throws Exception {
+        keptOutput(0, true);
+
+        MvcResult result = mockMvc.perform(get("/execution/{id}/output", ID).accept(MediaType.TEXT_PLAIN))
+                                  .andReturn();
+
+        Assertions.assertEquals(200, result.getResponse().getStatus());
+        Assertions.assertEquals(10, result.getResponse().getContentLength());
+        Assertions.assertEquals("bytes", result.getResponse().getHeader(HttpHeaders.ACCEPT_RANGES));
+        Assertions.assertEquals("0123456789", result.getResponse().getContentAsString());
+    }
+
+    @Test
+    @DisplayName("a single range must be downloaded as partial content, counting from the first kept byte")
+    public void range() throws Exception {
+        // the first 100 bytes were discarded
+        keptOutput(100, true);
+
+        MvcResult result = mockMvc.perform(get("/execution/{id}/output", ID)
+                                                   .accept(MediaType.APPLICATION_OCTET_STREAM)
+                                                   .header(HttpHeaders.RANGE, "bytes=-4"))
+                                  .andReturn();
+
+        Assertions.assertEquals(206, result.getResponse().getStatus());
+        Assertions.assertEquals("bytes 6-9/10", result.getResponse().getHeader(HttpHeaders.CONTENT_RANGE));
+        Assertions.assertEquals(4, result.getResponse().getContentLength());
+        Assertions.assertEquals("6789", result.getResponse().getContentAsString());
+    }
+
+    @Test
+    @DisplayName("a range past the end must not be satisfiable")
+    public void unsatisfiableRange() throws Exception {
+        keptOutput(0, true);
+
+        MvcResult result = mockMvc.perform(get("/execution/{id}/output", ID)
+                                                   .accept(MediaType.TEXT_PLAIN)
+                                                   .header(HttpHeaders.RANGE, "bytes=10-"))
+                                  .andReturn();
+
+        Assertions.assertEquals(416, result.getResponse().getStatus());
+        Assertions.assertEquals("bytes */10", result.getResponse().getHeader(HttpHeaders.CONTENT_RANGE));
+    }
+
+    @Test
+    @DisplayName("output of a running task must be sent as copied, with the length of the copy")
+    public void runningTask() throws Exception {
+        keptOutput(0, false);
+        // the head is discarded while the output is read, every time
+        transfersAtMost(4);
+
+        MvcResult result = mockMvc.perform(get("/execution/{id}/output", ID).accept(MediaType.TEXT_PLAIN))
+                                  .andReturn();
+
+        Assertions.assertEquals(200, result.getResponse().getStatus());
+        Assertions.assertEquals(4, result.getResponse().getContentLength());
+        Assertions.assertEquals("0123", result.getResponse().getContentAsString());
+    }
+
+    @Test
+    @DisplayName("output of an ended task sent only in part must abort the response")
+    public void shortTransfer() throws Exception {
+        keptOutput(0, true);
+        transfersAtMost(4);
+
+        // not turned into a problem, which leaves the container to close the connection
+        Assertions.assertThrows(
+                OutputTransferAbortedException.class,
+                () -> mockMvc.perform(get("/execution/{id}/output", ID).accept(MediaType.TEXT_PLAIN)));
+    }
+
+    @Test
+    @DisplayName("multi-line output must be streamed so that the data of its events adds up to it")
+    public void streamLines() throws Exception {
+        TaskOutput output = new TaskOutput();
+        output.write("one\ntwo\n\nthree\r\nfour\n".getBytes(StandardCharsets.UTF_8));
+        output.close();
+        Mockito.doAnswer(invocation -> output.subscribe(invocation.getArgument(1),
+                                                        invocation.getArgument(2),
+                                                        invocation.getArgument(3)))
+               .when(taskDispatcher)
+               .subscribeToOutput(ArgumentMatchers.eq(ID),
+                                  ArgumentMatchers.anyLong(),
+                                  ArgumentMatchers.anyLong(),
+                                  ArgumentMatchers.any());
+        Mockito.when(taskDispatcher.getTaskStatus(ID))
+               .thenReturn(new TaskStatusView(LanguageTask.Status.FINISHED,
+                                              Optional.of(LanguageTask.TerminationReason.COMPLETED)));
+
+        MvcResult result = mockMvc.perform(get("/execution/{id}/output", ID).accept(MediaType.TEXT_EVENT_STREAM))
+                                  .andReturn();
+        // until the end event is sent
+        result.getAsyncResult(5000);
+
+        StringBuilder streamed = new StringBuilder();
+        String event = null;
+        StringBuilder data = new StringBuilder();
+        // the way browsers read events
+        for (String line : result.getResponse().getContentAsString().split("\n", -1)) {
+            if (line.isEmpty()) {
+                if ("output".equals(event)) {
+                    // the last line break belongs to the last field
+                    streamed.append(data, 0, data.length() - 1);
+                }
+                event = null;
+                data.setLength(0);
+            } else if (line.startsWith("event:")) {
+                event = line.substring("event:".length());
+            } else if (line.startsWith("data:")) {
+                data.append(line.substring("data:".length())).append('\n');
+            }
+        }
+        Assertions.assertEquals("one\ntwo\n\nthree\nfour\n", streamed.toString());
+    }
+
+    @Test
+    @DisplayName("a submission preferring not to wait must be answered right away")
+    public void noWait() throws Exception {
+        // never ends
+        Mockito.when(taskDispatcher.whenTerminated(ArgumentMatchers.any())).thenReturn(new CompletableFuture<>());
+
+        MvcResult submitted = mockMvc.perform(post("/execution/")
+                                                      .contentType(MediaType.TEXT_PLAIN)
+                                                      .content("while (true) {}")
+                                                      .header(HttpUtils.PREFER, "wait=0"))
+                                     .andReturn();
+        MvcResult result = mockMvc.perform(asyncDispatch(submitted)).andReturn();
+
+        Assertions.assertEquals(201, result.getResponse().getStatus());
+        Assertions.assertEquals("wait=0", result.getResponse().getHeader(HttpUtils.PREFERENCE_APPLIED));
+    }
+
+    @Test
+    @DisplayName("a batch must be submitted as read, whether JSON or NDJSON")
+    public void batch() throws Exception {
+        Mockito.when(taskDispatcher.addAllForExecution(ArgumentMatchers.anyList(), ArgumentMatchers.anyString()))
+               .thenReturn(new BatchAdmission(2, Optional.empty()));
+
+        MvcResult json = mockMvc.perform(post("/execution/batch")
+                                                 .contentType(MediaType.APPLICATION_JSON)
+                                                 .content("[{\"source\": \"1\"}, {\"source\": \"2\"}]"))
+                                .andReturn();
+        MvcResult ndjson = mockMvc.perform(post("/execution/batch")
+                                                   .contentType(CodeAcceptorController.NDJSON)
+                                                   .content("{\"source\": \"1\"}\n{\"source\": \"2\"}\n"))
+                                  .andReturn();
+
+        Assertions.assertEquals(201, json.getResponse().getStatus());
+        Assertions.assertEquals(201, ndjson.getResponse().getStatus());
+        Mockito.verify(taskDispatcher, Mockito.times(2))
+               .addAllForExecution(ArgumentMatchers.argThat(tasks -> tasks.size() == 2), ArgumentMatchers.anyString());
+    }
+
+    @Test
+    @DisplayName("a batch with too many items, or too large, must be rejected as a whole")
+    public void batchTooLarge() throws Exception {
+        MvcResult tooMany = mockMvc.perform(post("/execution/batch")
+                                                    .contentType(CodeAcceptorController.NDJSON)
+                                                    .content("{\"source\": \"1\"}\n".repeat(3)))
+                                   .andReturn();
+        MvcResult tooLarge = mockMvc.perform(post("/execution/batch")
+                                                     .contentType(MediaType.APPLICATION_JSON)
+                                                     .content("[{\"source\": \"" + "1;".repeat(1024) + "\"}]"))
+                                    .andReturn();
+        MvcResult malformed = mockMvc.perform(post("/execution/batch")
+                                                      .contentType(MediaType.APPLICATION_JSON)
+                                                      .content("[{\"source\": "))
+                                     .andReturn();
+
+        Assertions.assertEquals(413, tooMany.getResponse().getStatus());
+        Assertions.assertEquals(413, tooLarge.getResponse().getStatus());
+        Assertions.assertEquals(400, malformed.getResponse().getStatus());
+        Mockito.verify(taskDispatcher, Mockito.never())
+               .addAllForExecution(ArgumentMatchers.anyList(), ArgumentMatchers.anyString());
+    }
+
+    /**
+     * Makes the dispatcher keep {@link #OUTPUT} of the task, and transfer any part of it.
+     *
+     * @param offset offset of the first kept byte in the whole output
+     */
+    private void keptOutput(long offset, boolean complete) throws Exception {
+        Mockito.when(taskDispatcher.getTaskOutputRange(ID))
+               .thenReturn(new OutputRange(offset, offset + OUTPUT.length, complete, offset > 0));
+        Mockito.doAnswer(invocation -> {
+                   long from = invocation.getArgument(1);
+                   long to = invocation.getArgument(2);
+                   return write(from - offset, (int) (to - from), invocation.getArgument(3));
+               })
+               .when(taskDispatcher)
+               .transferTaskOutput(ArgumentMatchers.eq(ID),
+                                   ArgumentMatchers.anyLong(),
+                                   ArgumentMatchers.anyLong(),
+                                   ArgumentMatchers.any());
+    }
+
+    /**
+     * Makes the dispatcher stop transferring output of the task after the given number of bytes,
+     * as if the rest was discarded.
+     */
+    private void transfersAtMost(int count) throws Exception {
+        Mockito.doAnswer(invocation -> {
+                   long from = invocation.getArgument(1);
+                   long to = invocation.getArgument(2);
+                   return write(from, (int) Math.min(count, to - from), invocation.getArgument(3));
+               })
+               .when(taskDispatcher)
+               .transferTaskOutput(ArgumentMatchers.eq(ID),
+                                   ArgumentMatchers.anyLong(),
+                                   ArgumentMatchers.anyLong(),
+                                   ArgumentMatchers.any());
+    }
+
+    private static long write(long from, int count, WritableByteChannel target) throws Exception {
+        return target.write(ByteBuffer.wrap(OUTPUT, (int) from, count));
+    }
+}
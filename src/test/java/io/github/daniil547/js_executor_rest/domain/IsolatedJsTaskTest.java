@@ -1,10 +1,19 @@
 package io.github.daniil547.js_executor_rest.domain;
 
+import io.github.daniil547.js_executor_rest.exceptions.ScriptStateConflictProblem;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class IsolatedJsTaskTest {
     /**
@@ -32,4 +41,169 @@ public class IsolatedJsTaskTest {
         Assertions.assertEquals(LanguageTask.Status.CANCELED,
                                 task.getStatus());
     }
+
+    /**
+     * Sharing an engine must only share code, never guest state.
+     */
+    @Test
+    @DisplayName("tasks on a shared engine must not see each other's globals")
+    public void sharedEngineIsolation() {
+        try (JsContextFactory factory = JsContextFactory.withSharedEngine()) {
+            IsolatedJsTask writer = new IsolatedJsTask("globalThis.leaked = 42; var alsoLeaked = 1;",
+                                                       Long.MAX_VALUE, factory);
+            writer.execute();
+            IsolatedJsTask reader = new IsolatedJsTask("console.log(typeof leaked, typeof alsoLeaked);",
+                                                       Long.MAX_VALUE, factory);
+            reader.execute();
+
+            Assertions.assertEquals("undefined undefined", reader.getOutput().strip());
+        }
+    }
+
+    @Test
+    @DisplayName("a task canceled while scheduled must never start")
+    public void cancelScheduled() {
+        IsolatedJsTask task = new IsolatedJsTask("console.log(\"hello\");", Long.MAX_VALUE);
+        task.cancel();
+
+        Assertions.assertThrows(ScriptStateConflictProblem.class, task::execute);
+        Assertions.assertEquals(LanguageTask.Status.CANCELED, task.getStatus());
+        Assertions.assertEquals("", task.getOutput());
+        Assertions.assertTrue(task.getStartTime().isEmpty());
+        Assertions.assertTrue(task.getEndTime().isPresent());
+    }
+
+    /**
+     * Canceling a running task must actually stop its guest code,
+     * otherwise it keeps occupying the thread executing it.
+     *
+     * @throws InterruptedException should never throw;
+     * if throws, the cause lies outside the scope of this test
+     */
+    @Test
+    @DisplayName("canceling a running task must free the thread executing it")
+    public void cancelStopsGuestCode() throws InterruptedException {
+        IsolatedJsTask task = new IsolatedJsTask("while (true) {}", Long.MAX_VALUE);
+        Thread executor = new Thread(task::execute);
+        executor.start();
+        while (task.getStatus() == LanguageTask.Status.SCHEDULED) {
+            Thread.sleep(10);
+        }
+        // let the guest code actually start
+        Thread.sleep(200);
+
+        task.cancel();
+
+        executor.join(2000);
+        Assertions.assertFalse(executor.isAlive());
+        Assertions.assertEquals(LanguageTask.Status.CANCELED, task.getStatus());
+    }
+
+    @Test
+    @DisplayName("reaching the statement limit must cancel the task")
+    public void statementLimit() {
+        IsolatedJsTask task = new IsolatedJsTask("while (true) {}", 1000);
+        task.execute();
+
+        Assertions.assertEquals(LanguageTask.Status.CANCELED, task.getStatus());
+        Assertions.assertEquals(Optional.of(LanguageTask.TerminationReason.STATEMENT_LIMIT),
+                                task.getTerminationReason());
+    }
+
+    @Test
+    @DisplayName("writing more output than allowed must cancel the task, if the policy says so")
+    public void outputLimit() {
+        IsolatedJsTask task = new IsolatedJsTask("while (true) {console.log(\"hello\");}",
+                                                 Long.MAX_VALUE,
+                                                 null,
+                                                 null,
+                                                 new OutputLimit(1000, OutputLimit.Policy.CANCEL),
+                                                 JsContextFactory.perTaskEngine());
+        task.execute();
+
+        Assertions.assertEquals(LanguageTask.Status.CANCELED, task.getStatus());
+        Assertions.assertEquals(Optional.of(LanguageTask.TerminationReason.OUTPUT_LIMIT),
+                                task.getTerminationReason());
+        Assertions.assertEquals(1000, task.getOutput().length());
+        Assertions.assertTrue(task.isOutputTruncated());
+    }
+
+    /**
+     * Termination is what synchronous submissions wait for,
+     * so it must be signaled however the task ends, with the output final.
+     */
+    @Test
+    @DisplayName("termination must be signaled after the task ends, whether it ran or not")
+    public void termination() throws Exception {
+        IsolatedJsTask finished = new IsolatedJsTask("console.log(\"hello\");", Long.MAX_VALUE);
+        CompletableFuture<LanguageTask> finishedTermination = finished.getTermination().toCompletableFuture();
+        Assertions.assertFalse(finishedTermination.isDone());
+        finished.execute();
+        Assertions.assertEquals("hello", finishedTermination.get(1, TimeUnit.SECONDS).getOutput().strip());
+
+        IsolatedJsTask canceled = new IsolatedJsTask("console.log(\"hello\");", Long.MAX_VALUE);
+        canceled.cancel();
+        Assertions.assertEquals(LanguageTask.Status.CANCELED,
+                                canceled.getTermination().toCompletableFuture().get(1, TimeUnit.SECONDS).getStatus());
+    }
+
+    /**
+     * Starting and canceling race each other, and each must either take effect
+     * or fail with a conflict: a transition must never be lost or applied twice.
+     */
+    @Test
+    @DisplayName("concurrent start and cancels must end the task exactly once")
+    public void concurrentTransitions() throws Exception {
+        ExecutorService racers = Executors.newFixedThreadPool(3);
+        try (JsContextFactory factory = JsContextFactory.withSharedEngine()) {
+            for (int round = 0; round < 200; round++) {
+                IsolatedJsTask task = new IsolatedJsTask("1", Long.MAX_VALUE, factory);
+                CyclicBarrier barrier = new CyclicBarrier(3);
+                AtomicInteger started = new AtomicInteger();
+                AtomicInteger canceled = new AtomicInteger();
+                List<Future<?>> transitions = List.of(
+                        racers.submit(() -> race(barrier, () -> {
+                            task.execute();
+                            started.incrementAndGet();
+                        })),
+                        racers.submit(() -> race(barrier, () -> {
+                            task.cancel();
+                            canceled.incrementAndGet();
+                        })),
+                        racers.submit(() -> race(barrier, () -> {
+                            task.timeOut();
+                            canceled.incrementAndGet();
+                        }))
+                );
+                // rethrows what failed in the racing threads
+                for (Future<?> transition : transitions) {
+                    transition.get(5, TimeUnit.SECONDS);
+                }
+
+                task.getTermination().toCompletableFuture().get(1, TimeUnit.SECONDS);
+                Assertions.assertTrue(task.getEndTime().isPresent());
+                Assertions.assertEquals(started.get() == 1, task.getStartTime().isPresent());
+                if (task.getStatus() == LanguageTask.Status.FINISHED) {
+                    Assertions.assertEquals(1, started.get());
+                    Assertions.assertEquals(0, canceled.get());
+                } else {
+                    Assertions.assertEquals(LanguageTask.Status.CANCELED, task.getStatus());
+                    Assertions.assertEquals(1, canceled.get());
+                }
+            }
+        } finally {
+            racers.shutdownNow();
+        }
+    }
+
+    private static void race(CyclicBarrier barrier, Runnable transition) {
+        try {
+            barrier.await();
+            transition.run();
+        } catch (ScriptStateConflictProblem e) {
+            // lost the race
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+    }
 }
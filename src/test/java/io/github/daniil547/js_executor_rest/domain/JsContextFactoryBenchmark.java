@@ -0,0 +1,51 @@
+package io.github.daniil547.js_executor_rest.domain;
+
+import io.github.daniil547.js_executor_rest.LatencyRecorder;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Compares context creation and task execution latency of a per-task engine
+ * and a shared engine. Run with {@code mvn test -Pbenchmark}.
+ * <p>
+ * Tasks build their contexts when executed, so "execution" includes
+ * building a context too.
+ */
+@Tag("benchmark")
+public class JsContextFactoryBenchmark {
+    private static final String SCRIPT = """
+            function fib(n) { return n < 2 ? n : fib(n - 1) + fib(n - 2); }
+            console.log(fib(15));
+            """;
+    private static final int WARMUP = 50;
+    private static final int ITERATIONS = 300;
+
+    @Test
+    @DisplayName("per-task engine vs shared engine")
+    public void perTaskVsShared() {
+        try (JsContextFactory perTask = JsContextFactory.perTaskEngine();
+             JsContextFactory shared = JsContextFactory.withSharedEngine()) {
+            run("per-task engine", perTask);
+            run("shared engine", shared);
+        }
+    }
+
+    private void run(String mode, JsContextFactory factory) {
+        LatencyRecorder creation = new LatencyRecorder(mode + ": creation");
+        LatencyRecorder execution = new LatencyRecorder(mode + ": execution");
+        for (int i = 0; i < WARMUP + ITERATIONS; i++) {
+            long t0 = System.nanoTime();
+            factory.newTaskContext(Long.MAX_VALUE).close();
+            long t1 = System.nanoTime();
+            new IsolatedJsTask(SCRIPT, Long.MAX_VALUE, factory).execute();
+            long t2 = System.nanoTime();
+            if (i >= WARMUP) {
+                creation.record(t1 - t0);
+                execution.record(t2 - t1);
+            }
+        }
+        System.out.println(creation);
+        System.out.println(execution);
+    }
+}
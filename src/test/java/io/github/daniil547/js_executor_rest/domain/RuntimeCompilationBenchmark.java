@@ -0,0 +1,45 @@
+package io.github.daniil547.js_executor_rest.domain;
+
+import io.github.daniil547.js_executor_rest.LatencyRecorder;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Measures a CPU-bound script on the current Truffle runtime.
+ * Compare {@code mvn test -Pbenchmark} (interpreter-only on a stock JDK)
+ * with {@code mvn test -Pbenchmark,graal-jit}.
+ */
+@Tag("benchmark")
+public class RuntimeCompilationBenchmark {
+    private static final String SCRIPT = """
+            function fib(n) { return n < 2 ? n : fib(n - 1) + fib(n - 2); }
+            let primes = 0;
+            for (let i = 2; i < 20000; i++) {
+                let prime = true;
+                for (let j = 2; j * j <= i; j++) {
+                    if (i % j === 0) { prime = false; break; }
+                }
+                if (prime) primes++;
+            }
+            console.log(fib(24), primes);
+            """;
+    private static final int WARMUP = 30;
+    private static final int ITERATIONS = 30;
+
+    @Test
+    @DisplayName("CPU-bound script")
+    public void cpuBound() {
+        try (JsContextFactory factory = JsContextFactory.withSharedEngine()) {
+            LatencyRecorder warmup = new LatencyRecorder(factory.getImplementationName() + ": warmup");
+            LatencyRecorder steady = new LatencyRecorder(factory.getImplementationName() + ": steady state");
+            for (int i = 0; i < WARMUP + ITERATIONS; i++) {
+                long start = System.nanoTime();
+                new IsolatedJsTask(SCRIPT, Long.MAX_VALUE, factory).execute();
+                (i < WARMUP ? warmup : steady).record(System.nanoTime() - start);
+            }
+            System.out.println(warmup);
+            System.out.println(steady);
+        }
+    }
+}
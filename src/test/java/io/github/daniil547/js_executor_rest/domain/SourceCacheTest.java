@@ -0,0 +1,52 @@
+package io.github.daniil547.js_executor_rest.domain;
+
+import org.graalvm.polyglot.Source;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+public class SourceCacheTest {
+    private static Source load(String code) {
+        return Source.create(IsolatedJsTask.LANG, code);
+    }
+
+    @Test
+    @DisplayName("identical code must be served from the cache")
+    public void hit() {
+        SourceCache cache = new SourceCache(10, 1000);
+        Source first = cache.get("1 + 1", SourceCacheTest::load);
+        Source second = cache.get("1 + 1", SourceCacheTest::load);
+
+        Assertions.assertSame(first, second);
+        Assertions.assertEquals(1, cache.getHits());
+        Assertions.assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    @DisplayName("least recently used sources must be evicted first")
+    public void lruEviction() {
+        SourceCache cache = new SourceCache(2, 1000);
+        Source a = cache.get("'a'", SourceCacheTest::load);
+        cache.get("'b'", SourceCacheTest::load);
+        // 'a' becomes the most recently used one
+        cache.get("'a'", SourceCacheTest::load);
+        cache.get("'c'", SourceCacheTest::load);
+
+        Assertions.assertEquals(1, cache.getEvictions());
+        Assertions.assertSame(a, cache.get("'a'", SourceCacheTest::load));
+        Assertions.assertEquals(2, cache.getHits());
+    }
+
+    @Test
+    @DisplayName("total size of cached sources must be bounded")
+    public void sizeBound() {
+        SourceCache cache = new SourceCache(10, 8);
+        cache.get("'abc'", SourceCacheTest::load);
+        cache.get("'def'", SourceCacheTest::load);
+        // too big to be cached at all
+        cache.get("'0123456789'", SourceCacheTest::load);
+
+        Assertions.assertEquals(1, cache.size());
+        Assertions.assertEquals(1, cache.getEvictions());
+    }
+}
@@ -0,0 +1,76 @@
+package io.github.daniil547.js_executor_rest.domain;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Compares heap taken by what ended tasks keep, a source and an output each,
+ * kept on heap vs {@link SpillStore spilled}. Run with {@code mvn test -Pbenchmark}.
+ * <p>
+ * Measured as the growth of used heap after full GCs, like {@code TaskRegistryBenchmark}.
+ * Task objects themselves (ids, timestamps and so on) are excluded, they're the same either way.
+ */
+@Tag("benchmark")
+public class SpillStoreBenchmark {
+    private static final int TASKS = 100_000;
+    private static final int OUTPUT_SIZE = 2048;
+    private static final String SOURCE = "for (let i = 0; i < 32; i++) { console.log('line ' + i + ' of the output'); }";
+
+    @Test
+    @DisplayName("footprint of ended tasks' sources and outputs, on heap vs spilled")
+    public void footprint(@TempDir Path directory) throws IOException {
+        byte[] line = new byte[64];
+        Arrays.fill(line, (byte) 'x');
+        line[line.length - 1] = '\n';
+
+        long before = usedHeap();
+        TaskOutput[] outputs = new TaskOutput[TASKS];
+        String[] sources = new String[TASKS];
+        for (int i = 0; i < TASKS; i++) {
+            outputs[i] = new TaskOutput();
+            for (int written = 0; written < OUTPUT_SIZE; written += line.length) {
+                outputs[i].write(line);
+            }
+            outputs[i].close();
+            // distinct strings, as sources of different requests are
+            sources[i] = new String(SOURCE.toCharArray());
+        }
+        long onHeap = usedHeap();
+        report("on heap", onHeap - before);
+
+        try (SpillStore store = new SpillStore(directory, 64 * 1024 * 1024, 0.5)) {
+            SpillStore.Record[] spilledSources = new SpillStore.Record[TASKS];
+            for (int i = 0; i < TASKS; i++) {
+                outputs[i].spill(store);
+                spilledSources[i] = store.append(sources[i].getBytes(StandardCharsets.UTF_8));
+                sources[i] = null;
+            }
+            long spilled = usedHeap();
+            report("spilled", spilled - before);
+            System.out.printf("off heap: %6.1f MB in %d segments%n",
+                              store.getLiveBytes() / 1024.0 / 1024.0, store.getSegmentCount());
+            // kept reachable until measured
+            System.out.println(outputs.length + spilledSources.length + " measured");
+        }
+    }
+
+    private static void report(String layout, long bytes) {
+        System.out.printf("%-8s: %6.1f MB, %6.1f bytes per task%n",
+                          layout, bytes / 1024.0 / 1024.0, bytes / (double) TASKS);
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,98 @@
+package io.github.daniil547.js_executor_rest.domain;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+public class SpillStoreTest {
+
+    @Test
+    @DisplayName("records must read back as appended, and empty once freed")
+    public void appendReadFree(@TempDir Path directory) {
+        try (SpillStore store = new SpillStore(directory, 16, 0.5)) {
+            SpillStore.Record first = store.append(bytes("hello"));
+            SpillStore.Record large = store.append(bytes("larger than a segment"));
+
+            Assertions.assertEquals("hello", text(store.read(first)));
+            Assertions.assertEquals("larger than a segment", text(store.read(large)));
+            Assertions.assertEquals(26, store.getLiveBytes());
+
+            store.free(first);
+            store.free(first);
+            Assertions.assertEquals("", text(store.read(first)));
+            Assertions.assertEquals(21, store.getLiveBytes());
+        }
+    }
+
+    /**
+     * Owners keep their records, so compaction must move bytes under them without them noticing.
+     */
+    @Test
+    @DisplayName("a mostly freed segment must be compacted, its records still reading the same")
+    public void compaction(@TempDir Path directory) {
+        try (SpillStore store = new SpillStore(directory, 64, 0.5)) {
+            List<SpillStore.Record> records = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                records.add(store.append(bytes(String.format("record %02d", i))));
+            }
+            // segments of 7 records each, the last one current
+            Assertions.assertEquals(3, store.getSegmentCount());
+            for (int i = 0; i < 7; i++) {
+                if (i != 3) {
+                    store.free(records.get(i));
+                }
+            }
+
+            Assertions.assertEquals(1, store.getCompactions());
+            Assertions.assertEquals("record 03", text(store.read(records.get(3))));
+            for (int i = 7; i < 16; i++) {
+                Assertions.assertEquals(String.format("record %02d", i), text(store.read(records.get(i))));
+            }
+            Assertions.assertEquals(10 * 9, store.getLiveBytes());
+        }
+    }
+
+    @Test
+    @DisplayName("stores sharing a directory must keep their files apart, and delete only abandoned ones")
+    public void sharedDirectory(@TempDir Path directory) throws IOException {
+        Path abandoned = Files.createDirectory(directory.resolve("store-abandoned"));
+        Files.createFile(abandoned.resolve(".lock"));
+        Files.createFile(abandoned.resolve("segment-0.log"));
+        try (SpillStore first = new SpillStore(directory, 64, 0.5)) {
+            SpillStore.Record record = first.append(bytes("first"));
+            Assertions.assertFalse(Files.exists(abandoned));
+
+            try (SpillStore second = new SpillStore(directory, 64, 0.5)) {
+                second.append(bytes("second"));
+                Assertions.assertEquals("first", text(first.read(record)));
+                ByteArrayOutputStream transferred = new ByteArrayOutputStream();
+                first.transferTo(record, 0, record.length(), Channels.newChannel(transferred));
+                Assertions.assertEquals("first", transferred.toString(StandardCharsets.UTF_8));
+            }
+            Assertions.assertEquals("first", text(first.read(record)));
+        }
+        try (Stream<Path> left = Files.list(directory)) {
+            Assertions.assertEquals(0, left.count());
+        }
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String text(ByteBuffer buffer) {
+        return StandardCharsets.UTF_8.decode(buffer).toString();
+    }
+}
@@ -0,0 +1,96 @@
+package io.github.daniil547.js_executor_rest.domain;
+
+import io.github.daniil547.js_executor_rest.LatencyRecorder;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Measures how much concurrent readers of a task's output slow down the task writing it:
+ * a chatty script runs for a fixed time, while pollers read its whole output every millisecond,
+ * as {@code GET /execution/{id}} does, or only new output, as {@code GET .../output?from=} does.
+ * Run with {@code mvn test -Pbenchmark}.
+ */
+@Tag("benchmark")
+public class TaskOutputBenchmark {
+    private static final long RUN_MILLIS = 2000;
+    private static final String CHATTY_SCRIPT = "let start = Date.now();"
+                                                + "for (let i = 0; Date.now() - start < " + RUN_MILLIS + "; i++) {"
+                                                + "    console.log('line ' + i + ' of a chatty script');"
+                                                + "}";
+    // like HTTP pollers, rather than threads spinning on reads
+    private static final long POLL_INTERVAL_NANOS = 1_000_000;
+    // bounds the cost of a whole read, so that pollers don't just measure copying
+    private static final OutputLimit LIMIT = new OutputLimit(1024 * 1024, OutputLimit.Policy.KEEP_TAIL);
+
+    @Test
+    @DisplayName("chatty script vs concurrent pollers")
+    public void pollers() throws InterruptedException {
+        try (JsContextFactory factory = JsContextFactory.withSharedEngine()) {
+            for (int round = 0; round < 2; round++) {
+                // the first round is warmup
+                boolean report = round > 0;
+                for (int pollers : new int[]{0, 4, 16}) {
+                    run(factory, pollers, false, report);
+                    run(factory, pollers, true, report);
+                }
+            }
+        }
+    }
+
+    private void run(JsContextFactory factory, int pollers, boolean incremental, boolean report)
+            throws InterruptedException {
+        IsolatedJsTask task = new IsolatedJsTask(CHATTY_SCRIPT, Long.MAX_VALUE, null, null, LIMIT, factory);
+        AtomicBoolean done = new AtomicBoolean(false);
+        List<Thread> threads = new ArrayList<>();
+        List<LatencyRecorder> readLatencies = new ArrayList<>();
+        for (int p = 0; p < pollers; p++) {
+            LatencyRecorder latencies = new LatencyRecorder("read");
+            readLatencies.add(latencies);
+            Thread poller = new Thread(() -> {
+                long next = 0;
+                while (!done.get()) {
+                    long start = System.nanoTime();
+                    if (incremental) {
+                        next = task.readOutput(next).nextOffset();
+                    } else {
+                        task.getOutput();
+                    }
+                    latencies.record(System.nanoTime() - start);
+                    LockSupport.parkNanos(POLL_INTERVAL_NANOS);
+                }
+            });
+            threads.add(poller);
+            poller.start();
+        }
+        task.execute();
+        done.set(true);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        if (report) {
+            LatencyRecorder reads = new LatencyRecorder(String.format("%2d %s pollers: read",
+                                                                      pollers,
+                                                                      incremental ? "incremental" : "whole"));
+            long readCount = 0;
+            for (LatencyRecorder latencies : readLatencies) {
+                readCount += latencies.count();
+                reads.recordAll(latencies);
+            }
+            System.out.printf("%2d %-11s pollers: script wrote %8.1f KB/s, %10d reads%n",
+                              pollers,
+                              incremental ? "incremental" : "whole",
+                              task.getOutputSize() / 1024.0 / (RUN_MILLIS / 1000.0),
+                              readCount);
+            if (pollers > 0) {
+                System.out.println(reads);
+            }
+        }
+    }
+}
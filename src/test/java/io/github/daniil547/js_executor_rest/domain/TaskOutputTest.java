@@ -0,0 +1,212 @@
+package io.github.daniil547.js_executor_rest.domain;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+public class TaskOutputTest {
+
+    @Test
+    @DisplayName("a subscriber must get what was written before and after it subscribed, exactly once")
+    public void subscribeMidway() throws IOException {
+        TaskOutput output = new TaskOutput();
+        output.write(bytes("hello "));
+        OutputSubscription subscription = output.subscribe(0, 1024, () -> {});
+        output.write(bytes("world"));
+        output.close();
+
+        StringBuilder received = new StringBuilder();
+        OutputChunk chunk;
+        while ((chunk = subscription.poll()) != null) {
+            received.append(chunk.getText());
+        }
+        Assertions.assertEquals("hello world", received.toString());
+        Assertions.assertTrue(subscription.isEnded());
+        Assertions.assertEquals(11, subscription.getPosition());
+    }
+
+    /**
+     * The guest must never wait for, or buffer without limit for, a subscriber that doesn't keep up.
+     */
+    @Test
+    @DisplayName("a subscriber falling behind by more than its bound must be dropped")
+    public void slowSubscriber() throws IOException {
+        TaskOutput output = new TaskOutput();
+        OutputSubscription slow = output.subscribe(0, 8, () -> {});
+        OutputSubscription fast = output.subscribe(0, 8, () -> {});
+        for (int i = 0; i < 4; i++) {
+            output.write(bytes("abc"));
+            fast.poll();
+        }
+
+        Assertions.assertFalse(slow.isOverflowed());
+        Assertions.assertNotNull(slow.poll());
+        Assertions.assertNotNull(slow.poll());
+        Assertions.assertNull(slow.poll());
+        Assertions.assertTrue(slow.isOverflowed());
+        // can be resumed from here
+        Assertions.assertEquals(6, slow.getPosition());
+        Assertions.assertFalse(fast.isOverflowed());
+    }
+
+    @Test
+    @DisplayName("reads from an offset and of last lines must return only that part")
+    public void partialReads() throws IOException {
+        TaskOutput output = new TaskOutput();
+        output.write(bytes("one\ntwo\nthr"));
+
+        OutputSlice first = output.read(0);
+        Assertions.assertEquals("one\ntwo\nthr", first.text());
+        output.write(bytes("ee\n"));
+        Assertions.assertEquals(new OutputSlice("ee\n", 11, 14, false, false), output.read(first.nextOffset()));
+
+        Assertions.assertEquals("two\nthree\n", output.tail(2).text());
+        Assertions.assertEquals("one\ntwo\nthree\n", output.tail(10).text());
+        Assertions.assertEquals("", output.tail(0).text());
+        output.write(bytes("four"));
+        Assertions.assertEquals("three\nfour", output.tail(2).text());
+    }
+
+    @Test
+    @DisplayName("output past the limit must be discarded according to the policy")
+    public void limit() throws IOException {
+        TaskOutput head = new TaskOutput(new OutputLimit(5, OutputLimit.Policy.KEEP_HEAD), () -> {});
+        head.write(bytes("abc"));
+        head.write(bytes("defgh"));
+        Assertions.assertEquals("abcde", head.toString());
+        Assertions.assertEquals(8, head.getWritten());
+        Assertions.assertTrue(head.isTruncated());
+
+        // spans several segments, so that whole segments are dropped
+        int max = TaskOutput.SEGMENT_SIZE * 2 + 10;
+        TaskOutput tail = new TaskOutput(new OutputLimit(max, OutputLimit.Policy.KEEP_TAIL), () -> {});
+        StringBuilder all = new StringBuilder();
+        for (int i = 0; all.length() < max * 3; i++) {
+            String line = "line " + i + "\n";
+            all.append(line);
+            tail.write(bytes(line));
+        }
+        String expected = all.substring(all.length() - max);
+        Assertions.assertEquals(expected, tail.toString());
+        Assertions.assertEquals(new OutputSlice(expected, all.length() - max, all.length(), false, true),
+                                tail.read(0));
+        Assertions.assertEquals(all.substring(all.lastIndexOf("line", all.length() - 2)), tail.tail(1).text());
+
+        int[] limitReached = {0};
+        TaskOutput cancel = new TaskOutput(new OutputLimit(5, OutputLimit.Policy.CANCEL), () -> limitReached[0]++);
+        cancel.write(bytes("abc"));
+        Assertions.assertEquals(0, limitReached[0]);
+        cancel.write(bytes("defgh"));
+        Assertions.assertEquals(1, limitReached[0]);
+        Assertions.assertEquals("abcde", cancel.toString());
+    }
+
+    @Test
+    @DisplayName("spilled output must read the same as before, and empty once freed")
+    public void spilled(@TempDir Path directory) throws IOException {
+        try (SpillStore store = new SpillStore(directory, 1024, 0.5)) {
+            TaskOutput output = new TaskOutput(new OutputLimit(10, OutputLimit.Policy.KEEP_TAIL), () -> {});
+            output.write(bytes("one\ntwo\nthree\nfour"));
+            output.close();
+            OutputSlice all = output.read(0);
+            OutputSlice tail = output.tail(2);
+
+            output.spill(store);
+            Assertions.assertEquals(all, output.read(0));
+            Assertions.assertEquals(tail, output.tail(2));
+            Assertions.assertEquals("e\nfour", output.read(12).text());
+            Assertions.assertEquals("four", output.tail(1).text());
+            Assertions.assertEquals("", output.tail(0).text());
+
+            output.freeSpilled();
+            Assertions.assertEquals(0, store.getLiveBytes());
+            Assertions.assertEquals("", output.read(0).text());
+        }
+    }
+
+    @Test
+    @DisplayName("raw transfers must write the same bytes, whether kept on heap or spilled")
+    public void transfer(@TempDir Path directory) throws IOException {
+        try (SpillStore store = new SpillStore(directory, 1024, 0.5)) {
+            TaskOutput output = new TaskOutput(new OutputLimit(TaskOutput.SEGMENT_SIZE + 10,
+                                                               OutputLimit.Policy.KEEP_TAIL),
+                                               () -> {});
+            StringBuilder all = new StringBuilder();
+            for (int i = 0; all.length() < TaskOutput.SEGMENT_SIZE * 2; i++) {
+                String line = "line " + i + "\n";
+                all.append(line);
+                output.write(bytes(line));
+            }
+            output.close();
+            OutputRange range = output.range();
+            String kept = all.substring((int) range.offset());
+            Assertions.assertEquals(new OutputRange(all.length() - TaskOutput.SEGMENT_SIZE - 10, all.length(), true, true),
+                                    range);
+
+            Assertions.assertEquals(kept, transfer(output, range.offset(), range.end()));
+            Assertions.assertEquals(kept.substring(5, 100), transfer(output, range.offset() + 5, range.offset() + 100));
+            output.spill(store);
+            Assertions.assertEquals(range, output.range());
+            Assertions.assertEquals(kept, transfer(output, range.offset(), range.end()));
+            Assertions.assertEquals(kept.substring(5, 100), transfer(output, range.offset() + 5, range.offset() + 100));
+        }
+    }
+
+    private static String transfer(TaskOutput output, long from, long to) throws IOException {
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+        long transferred = output.transferTo(from, to, Channels.newChannel(target));
+        Assertions.assertEquals(to - from, transferred);
+        return target.toString(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Readers don't lock, so they must not see bytes the writer is in the middle of moving.
+     */
+    @Test
+    @DisplayName("reads concurrent with writes must see a consistent part of the output")
+    public void concurrentReads() throws Exception {
+        int max = TaskOutput.SEGMENT_SIZE * 2;
+        TaskOutput output = new TaskOutput(new OutputLimit(max, OutputLimit.Policy.KEEP_TAIL), () -> {});
+        // every line is determined by where it starts, so any part of the output can be verified
+        Thread writer = new Thread(() -> {
+            try {
+                long offset = 0;
+                while (offset < max * 8L) {
+                    byte[] line = bytes(String.format("%012d\n", offset));
+                    output.write(line);
+                    offset += line.length;
+                }
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            } finally {
+                output.close();
+            }
+        });
+        writer.start();
+
+        OutputSlice slice;
+        do {
+            slice = output.read(0);
+            String text = slice.text();
+            Assertions.assertEquals(slice.nextOffset() - slice.offset(), text.length());
+            Assertions.assertTrue(slice.nextOffset() - slice.offset() <= max);
+            for (int i = (int) (13 - slice.offset() % 13) % 13; i + 13 <= text.length(); i += 13) {
+                Assertions.assertEquals(String.format("%012d\n", slice.offset() + i), text.substring(i, i + 13));
+            }
+            String last = output.tail(1).text();
+            Assertions.assertTrue(last.isEmpty() || last.length() == 13, last);
+        } while (!slice.complete());
+        writer.join();
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+}
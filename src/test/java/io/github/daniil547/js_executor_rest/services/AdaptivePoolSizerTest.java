@@ -0,0 +1,79 @@
+package io.github.daniil547.js_executor_rest.services;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Map;
+
+public class AdaptivePoolSizerTest {
+    private static final Duration TARGET_WAIT = Duration.ofMillis(100);
+
+    private TaskExecutor executor;
+    private AdaptivePoolSizer sizer;
+
+    @BeforeEach
+    public void setUp() {
+        executor = new TaskExecutor(4,
+                                    new FairShareQueue(100, 100, Map.of(), Map.of(), 1),
+                                    RejectionPolicy.ABORT,
+                                    Duration.ZERO);
+        sizer = new AdaptivePoolSizer(executor, 2, 8, Duration.ofSeconds(1), TARGET_WAIT, 0.9);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        sizer.close();
+        executor.shutdownNow();
+    }
+
+    private AdaptivePoolSizer.Decision decide(double throughput, Duration wait, double cpu) {
+        AdaptivePoolSizer.Decision decision = sizer.decide(
+                new AdaptivePoolSizer.Sample(throughput, wait, 10, executor.getCorePoolSize(), cpu)
+        );
+        executor.resize(decision.to());
+        return decision;
+    }
+
+    @Test
+    @DisplayName("workers must be added while that raises throughput, and the last one removed when it doesn't")
+    public void climbs() {
+        Duration backlog = TARGET_WAIT.multipliedBy(10);
+        Assertions.assertEquals(5, decide(100, backlog, 0.5).to());
+        Assertions.assertEquals(6, decide(120, backlog, 0.5).to());
+        Assertions.assertEquals(5, decide(121, backlog, 0.5).to());
+        // the decrease didn't hurt, so it's kept
+        Assertions.assertEquals(5, decide(121, backlog, 0.5).to());
+    }
+
+    @Test
+    @DisplayName("workers must be removed when CPU is saturated, but not below the minimum")
+    public void backsOffOnCpu() {
+        Duration backlog = TARGET_WAIT.multipliedBy(10);
+        Assertions.assertEquals(3, decide(100, backlog, 0.95).to());
+        Assertions.assertEquals(2, decide(100, backlog, 0.95).to());
+        Assertions.assertEquals(2, decide(100, backlog, 0.95).to());
+    }
+
+    @Test
+    @DisplayName("a pinned size must be kept regardless of measurements")
+    public void pinned() {
+        sizer.pin(7);
+        Assertions.assertEquals(7, executor.getCorePoolSize());
+        Assertions.assertEquals(7, decide(0, Duration.ZERO, 1.0).to());
+        sizer.unpin();
+        Assertions.assertNull(sizer.getPinnedSize());
+    }
+
+    @Test
+    @DisplayName("a size outside the bounds must not be pinned")
+    public void pinnedWithinBounds() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> sizer.pin(1_000_000));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> sizer.pin(1));
+        Assertions.assertEquals(4, executor.getCorePoolSize());
+        Assertions.assertNull(sizer.getPinnedSize());
+    }
+}
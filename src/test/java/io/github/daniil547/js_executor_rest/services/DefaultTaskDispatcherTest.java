@@ -0,0 +1,256 @@
+package io.github.daniil547.js_executor_rest.services;
+
+import io.github.daniil547.js_executor_rest.domain.IsolatedJsTask;
+import io.github.daniil547.js_executor_rest.domain.JsContextFactory;
+import io.github.daniil547.js_executor_rest.domain.LanguageTask;
+import io.github.daniil547.js_executor_rest.domain.OutputLimit;
+import io.github.daniil547.js_executor_rest.dtos.TaskStatusView;
+import io.github.daniil547.js_executor_rest.exceptions.TaskExpiredProblem;
+import io.github.daniil547.js_executor_rest.exceptions.TaskNotFoundProblem;
+import io.github.daniil547.js_executor_rest.mappers.TaskToViewMapperImpl;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class DefaultTaskDispatcherTest {
+    // closed after each test, last ones first
+    private final Deque<AutoCloseable> resources = new ArrayDeque<>();
+    // closed once nothing runs on them
+    private final List<JsContextFactory> factories = new ArrayList<>();
+
+    @AfterEach
+    public void close() throws Exception {
+        while (!resources.isEmpty()) {
+            resources.pop().close();
+        }
+        for (JsContextFactory factory : factories) {
+            factory.close();
+        }
+    }
+
+    @Test
+    @DisplayName("a batch must be admitted up to the first rejected task, and no further")
+    public void batchAdmitsPrefix() throws InterruptedException {
+        JsContextFactory factory = newContextFactory();
+        DefaultTaskDispatcher dispatcher = newDispatcher(1, 2);
+        LanguageTask blocker = new IsolatedJsTask("while (true) {}", Long.MAX_VALUE, factory);
+        dispatcher.addForExecution(blocker);
+        while (blocker.getStatus() == LanguageTask.Status.SCHEDULED) {
+            Thread.sleep(10);
+        }
+
+        List<LanguageTask> batch = List.of(
+                new IsolatedJsTask("1", Long.MAX_VALUE, factory),
+                new IsolatedJsTask("2", Long.MAX_VALUE, factory),
+                new IsolatedJsTask("3", Long.MAX_VALUE, factory)
+        );
+        BatchAdmission admission = dispatcher.addAllForExecution(batch, TaskDispatcher.ANONYMOUS_CLIENT);
+
+        Assertions.assertEquals(2, admission.admitted());
+        Assertions.assertTrue(admission.rejection().isPresent());
+        // the blocker and the admitted prefix
+        Assertions.assertEquals(3, dispatcher.getTaskCount());
+
+        dispatcher.cancelExecution(blocker.getId());
+    }
+
+    @Test
+    @DisplayName("waiting for the status must end once a running task is canceled")
+    public void awaitStatusOfCanceled() throws Exception {
+        DefaultTaskDispatcher dispatcher = newDispatcher(1, 2);
+        LanguageTask task = new IsolatedJsTask("while (true) {}", Long.MAX_VALUE);
+        dispatcher.addForExecution(task);
+        CompletableFuture<TaskStatusView> status = dispatcher.whenTerminatedStatus(task.getId())
+                                                             .toCompletableFuture();
+        while (task.getStatus() == LanguageTask.Status.SCHEDULED) {
+            Thread.sleep(10);
+        }
+        Assertions.assertFalse(status.isDone());
+
+        dispatcher.cancelExecution(task.getId());
+
+        Assertions.assertEquals(new TaskStatusView(LanguageTask.Status.CANCELED,
+                                                   Optional.of(LanguageTask.TerminationReason.CANCELED)),
+                                status.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    @DisplayName("of concurrent removals of a task exactly one must succeed, whatever state the task is in")
+    public void concurrentRemovals() throws Exception {
+        JsContextFactory factory = newContextFactory();
+        DefaultTaskDispatcher dispatcher = newDispatcher(2, 64);
+        ExecutorService removers = Executors.newFixedThreadPool(2);
+        resources.push(removers::shutdownNow);
+        for (int round = 0; round < 200; round++) {
+            LanguageTask task = new IsolatedJsTask("1", Long.MAX_VALUE, factory);
+            dispatcher.addForExecution(task);
+            CyclicBarrier barrier = new CyclicBarrier(2);
+            AtomicInteger removed = new AtomicInteger();
+            Callable<Void> remove = () -> {
+                barrier.await();
+                try {
+                    dispatcher.removeTask(task.getId());
+                    removed.incrementAndGet();
+                } catch (TaskNotFoundProblem e) {
+                    // lost the race
+                }
+                return null;
+            };
+            // rethrows what failed in the racing threads
+            for (Future<Void> removal : removers.invokeAll(List.of(remove, remove))) {
+                removal.get();
+            }
+
+            Assertions.assertEquals(1, removed.get());
+            Assertions.assertEquals(0, dispatcher.getTaskCount());
+            LanguageTask.Status status = task.getTermination().toCompletableFuture()
+                                             .get(5, TimeUnit.SECONDS).getStatus();
+            Assertions.assertTrue(status == LanguageTask.Status.FINISHED
+                                  || status == LanguageTask.Status.CANCELED);
+        }
+    }
+
+    @Test
+    @DisplayName("the oldest ended tasks must be evicted past the limit, and answer as expired")
+    public void retention() throws Exception {
+        JsContextFactory factory = newContextFactory();
+        RetentionPolicy retention = new RetentionPolicy(null, 2, Long.MAX_VALUE, 10, Duration.ofMillis(10));
+        DefaultTaskDispatcher dispatcher = newDispatcher(newExecutor(1, 8), retention, null);
+        List<LanguageTask> tasks = List.of(
+                new IsolatedJsTask("1", Long.MAX_VALUE, factory),
+                new IsolatedJsTask("2", Long.MAX_VALUE, factory),
+                new IsolatedJsTask("3", Long.MAX_VALUE, factory)
+        );
+        for (LanguageTask task : tasks) {
+            dispatcher.addForExecution(task);
+            // one worker, so they end in this order
+            task.getTermination().toCompletableFuture().get(5, TimeUnit.SECONDS);
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (dispatcher.getTaskCount() > 2 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+
+        Assertions.assertEquals(2, dispatcher.getTaskCount());
+        Assertions.assertThrows(TaskExpiredProblem.class, () -> dispatcher.getTask(tasks.get(0).getId()));
+        Assertions.assertEquals(LanguageTask.Status.FINISHED, dispatcher.getTask(tasks.get(2).getId()).status());
+        Assertions.assertThrows(TaskNotFoundProblem.class, () -> dispatcher.getTask(UUID.randomUUID()));
+    }
+
+    /**
+     * The journal is closed before tasks are stopped, as if the service had crashed with them running.
+     */
+    @Test
+    @DisplayName("tasks must be recovered after a restart: ended as they were, running ones interrupted, "
+                 + "queued ones executed anew")
+    public void recovery(@TempDir Path directory) throws Exception {
+        JsContextFactory factory = newContextFactory();
+        TaskExecutor executor = newExecutor(1, 8);
+        TaskJournal journal = new TaskJournal(directory, 1024, Long.MAX_VALUE);
+        DefaultTaskDispatcher dispatcher = newDispatcher(executor, RetentionPolicy.UNLIMITED, journal);
+        LanguageTask ended = new IsolatedJsTask("console.log('hi')", Long.MAX_VALUE, factory);
+        dispatcher.addForExecution(ended);
+        ended.getTermination().toCompletableFuture().get(5, TimeUnit.SECONDS);
+        LanguageTask running = new IsolatedJsTask("while (true) {}", Long.MAX_VALUE, factory);
+        dispatcher.addForExecution(running);
+        LanguageTask queued = new IsolatedJsTask("console.log('again')", Long.MAX_VALUE, factory);
+        dispatcher.addForExecution(queued);
+        while (running.getStatus() == LanguageTask.Status.SCHEDULED) {
+            Thread.sleep(10);
+        }
+        journal.close();
+        // the queued task never runs before the restart
+        executor.shutdownNow();
+        dispatcher.cancelExecution(running.getId());
+        running.getTermination().toCompletableFuture().get(5, TimeUnit.SECONDS);
+
+        TaskJournal reopened = new TaskJournal(directory, 1024, Long.MAX_VALUE);
+        resources.push(reopened);
+        DefaultTaskDispatcher restarted = newDispatcher(newExecutor(1, 8), RetentionPolicy.UNLIMITED, reopened);
+        new TaskRecovery(restarted, newContextFactory(), Long.MAX_VALUE, DataSize.ofMegabytes(1),
+                         OutputLimit.Policy.KEEP_TAIL).afterSingletonsInstantiated();
+
+        Assertions.assertEquals(3, restarted.getTaskCount());
+        Assertions.assertEquals(new TaskStatusView(LanguageTask.Status.FINISHED,
+                                                   Optional.of(LanguageTask.TerminationReason.COMPLETED)),
+                                restarted.getTaskStatus(ended.getId()));
+        Assertions.assertEquals("hi\n", restarted.getTaskOutput(ended.getId(), 0).output());
+        Assertions.assertEquals(new TaskStatusView(LanguageTask.Status.CANCELED,
+                                                   Optional.of(LanguageTask.TerminationReason.INTERRUPTED)),
+                                restarted.getTaskStatus(running.getId()));
+        TaskStatusView again = restarted.whenTerminatedStatus(queued.getId())
+                                        .toCompletableFuture()
+                                        .get(5, TimeUnit.SECONDS);
+        Assertions.assertEquals(LanguageTask.Status.FINISHED, again.status());
+        Assertions.assertEquals("again\n", restarted.getTaskOutput(queued.getId(), 0).output());
+    }
+
+    private JsContextFactory newContextFactory() {
+        JsContextFactory factory = JsContextFactory.withSharedEngine();
+        factories.add(factory);
+        return factory;
+    }
+
+    /**
+     * @param capacity of the queue, both overall and per client
+     */
+    private TaskExecutor newExecutor(int parallelism, int capacity) {
+        TaskExecutor executor = new TaskExecutor(parallelism,
+                                                 new FairShareQueue(capacity, capacity, Map.of(), Map.of(), 1),
+                                                 RejectionPolicy.ABORT,
+                                                 Duration.ZERO);
+        resources.push(() -> {
+            executor.shutdownNow();
+            // tasks must stop before their contexts are closed
+            Assertions.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        });
+        return executor;
+    }
+
+    /**
+     * @return a dispatcher with no retention limits and no journal, executing on a new executor
+     */
+    private DefaultTaskDispatcher newDispatcher(int parallelism, int capacity) {
+        return newDispatcher(newExecutor(parallelism, capacity), RetentionPolicy.UNLIMITED, null);
+    }
+
+    /**
+     * @param journal journal of the dispatcher, or {@code null} for none; closed by the caller
+     */
+    private DefaultTaskDispatcher newDispatcher(TaskExecutor executor, RetentionPolicy retention, TaskJournal journal) {
+        HashedTimerWheel timer = new HashedTimerWheel(Duration.ofMillis(10), 8, Runnable::run);
+        resources.push(timer);
+        DefaultTaskDispatcher dispatcher = new DefaultTaskDispatcher(executor,
+                                                                     new TaskToViewMapperImpl(),
+                                                                     timer,
+                                                                     new SimpleMeterRegistry(),
+                                                                     429,
+                                                                     retention,
+                                                                     null,
+                                                                     journal);
+        resources.push(dispatcher);
+        return dispatcher;
+    }
+}
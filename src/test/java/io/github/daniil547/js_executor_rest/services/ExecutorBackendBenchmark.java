@@ -0,0 +1,102 @@
+package io.github.daniil547.js_executor_rest.services;
+
+import io.github.daniil547.js_executor_rest.LatencyRecorder;
+import io.github.daniil547.js_executor_rest.domain.LanguageTask;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link TaskExecutor} and {@link WorkStealingExecutor} under many concurrent submitters:
+ * throughput of submission and latency from submission until a worker starts a job.
+ * Jobs are tiny, so that the executors themselves are what's measured.
+ * Run with {@code mvn test -Pbenchmark}.
+ */
+@Tag("benchmark")
+public class ExecutorBackendBenchmark {
+    private static final int WORKERS = 4;
+    private static final int SUBMITTERS = 16;
+    private static final int JOBS_PER_SUBMITTER = 50_000;
+    private static final int CAPACITY = SUBMITTERS * JOBS_PER_SUBMITTER;
+
+    @Test
+    @DisplayName("fair-share queue vs work stealing")
+    public void backends() throws InterruptedException {
+        for (int round = 0; round < 2; round++) {
+            // the first round is warmup
+            boolean report = round > 0;
+            run("fair-queue", new TaskExecutor(WORKERS,
+                                               new FairShareQueue(CAPACITY, CAPACITY, Map.of(), Map.of(), 1),
+                                               RejectionPolicy.ABORT,
+                                               Duration.ZERO), report);
+            run("work-stealing", new WorkStealingExecutor(WORKERS, CAPACITY), report);
+        }
+    }
+
+    private void run(String name, ExecutorService executor, boolean report) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(SUBMITTERS * JOBS_PER_SUBMITTER);
+        List<long[]> latencies = new ArrayList<>();
+        List<Thread> submitters = new ArrayList<>();
+        CountDownLatch go = new CountDownLatch(1);
+        for (int s = 0; s < SUBMITTERS; s++) {
+            String client = "client-" + s;
+            // written by workers, read after all jobs are done
+            long[] submitterLatencies = new long[JOBS_PER_SUBMITTER];
+            latencies.add(submitterLatencies);
+            Thread submitter = new Thread(() -> {
+                awaitQuietly(go);
+                for (int i = 0; i < JOBS_PER_SUBMITTER; i++) {
+                    int idx = i;
+                    long submittedAt = System.nanoTime();
+                    executor.submit(ScheduledJob.of(client, LanguageTask.Priority.NORMAL, () -> {
+                        submitterLatencies[idx] = System.nanoTime() - submittedAt;
+                        done.countDown();
+                    }));
+                }
+            });
+            submitters.add(submitter);
+            submitter.start();
+        }
+        long start = System.nanoTime();
+        go.countDown();
+        for (Thread submitter : submitters) {
+            submitter.join();
+        }
+        long submitted = System.nanoTime();
+        done.await();
+        long finished = System.nanoTime();
+        executor.shutdownNow();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+
+        LatencyRecorder all = new LatencyRecorder(name + ": submission to start");
+        for (long[] submitterLatencies : latencies) {
+            for (long latency : submitterLatencies) {
+                all.record(latency);
+            }
+        }
+        if (report) {
+            int jobs = SUBMITTERS * JOBS_PER_SUBMITTER;
+            System.out.printf("%-40s submit: %10.0f jobs/s, complete: %10.0f jobs/s%n",
+                              name,
+                              jobs * 1e9 / (submitted - start),
+                              jobs * 1e9 / (finished - start));
+            System.out.println(all);
+        }
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package io.github.daniil547.js_executor_rest.services;
+
+import io.github.daniil547.js_executor_rest.domain.LanguageTask.Priority;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+public class FairShareQueueTest {
+    private static final Map<Priority, Duration> SLACK = Map.of(
+            Priority.INTERACTIVE, Duration.ZERO,
+            Priority.NORMAL, Duration.ofMillis(100),
+            Priority.BATCH, Duration.ofMillis(200)
+    );
+
+    private static FairShareQueue queue(int capacity, int clientCapacity, Map<String, Integer> weights) {
+        return new FairShareQueue(capacity, clientCapacity, SLACK, weights, 1);
+    }
+
+    private static ScheduledJob job(String client, Priority priority) {
+        return ScheduledJob.of(client, priority, () -> {});
+    }
+
+    @Test
+    @DisplayName("jobs of higher priority must be taken first, equal ones in FIFO order")
+    public void ordersByPriority() {
+        FairShareQueue queue = queue(10, 10, Map.of());
+        Runnable batch = job("a", Priority.BATCH);
+        Runnable normal1 = job("a", Priority.NORMAL);
+        Runnable normal2 = job("a", Priority.NORMAL);
+        Runnable interactive = job("a", Priority.INTERACTIVE);
+        queue.offer(batch);
+        queue.offer(normal1);
+        queue.offer(normal2);
+        queue.offer(interactive);
+
+        Assertions.assertSame(interactive, queue.poll());
+        Assertions.assertSame(normal1, queue.poll());
+        Assertions.assertSame(normal2, queue.poll());
+        Assertions.assertSame(batch, queue.poll());
+    }
+
+    @Test
+    @DisplayName("a job of lower priority must not be overtaken by jobs queued after its slack passed")
+    public void agesLowPriority() throws InterruptedException {
+        FairShareQueue queue = queue(10, 10, Map.of());
+        Runnable batch = job("a", Priority.BATCH);
+        queue.offer(batch);
+        Thread.sleep(250);
+        queue.offer(job("a", Priority.INTERACTIVE));
+
+        Assertions.assertSame(batch, queue.poll());
+    }
+
+    @Test
+    @DisplayName("clients must be served in proportion to their weights, regardless of how much they queued")
+    public void sharesByWeight() {
+        FairShareQueue queue = queue(1000, 1000, Map.of("heavy", 3));
+        for (int i = 0; i < 500; i++) {
+            queue.offer(job("flood", Priority.NORMAL));
+        }
+        for (int i = 0; i < 100; i++) {
+            queue.offer(job("heavy", Priority.NORMAL));
+            queue.offer(job("light", Priority.NORMAL));
+        }
+
+        Map<String, Integer> served = new HashMap<>();
+        for (int i = 0; i < 50; i++) {
+            served.merge(ScheduledJob.clientOf(queue.poll()), 1, Integer::sum);
+        }
+        // 3 : 1 : 1
+        Assertions.assertEquals(30, served.get("heavy"));
+        Assertions.assertEquals(10, served.get("light"));
+        Assertions.assertEquals(10, served.get("flood"));
+    }
+
+    @Test
+    @DisplayName("a full queue must refuse jobs, as must a client's full queue")
+    public void bounded() {
+        FairShareQueue queue = queue(3, 2, Map.of());
+        Runnable job = job("a", Priority.NORMAL);
+        Assertions.assertTrue(queue.offer(job));
+        Assertions.assertTrue(queue.offer(job("a", Priority.NORMAL)));
+        Assertions.assertFalse(queue.offer(job("a", Priority.NORMAL)));
+        Assertions.assertTrue(queue.offer(job("b", Priority.NORMAL)));
+        Assertions.assertFalse(queue.offer(job("c", Priority.NORMAL)));
+
+        Assertions.assertTrue(queue.remove(job));
+        Assertions.assertTrue(queue.offer(job("a", Priority.NORMAL)));
+    }
+
+    @Test
+    @DisplayName("clients past the maximum must share the overflow queue, and idle ones be removed with their meters")
+    public void boundedClients() {
+        FairShareQueue queue = new FairShareQueue(100, 2, SLACK, Map.of("weighted", 2), 1, 2);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        queue.bindTo(registry);
+        Runnable a = job("a", Priority.NORMAL);
+        queue.offer(a);
+        queue.offer(job("b", Priority.NORMAL));
+        queue.offer(job("weighted", Priority.NORMAL));
+        // past the maximum, so they share the overflow queue and its limit
+        Assertions.assertTrue(queue.offer(job("c", Priority.NORMAL)));
+        Assertions.assertTrue(queue.offer(job("d", Priority.NORMAL)));
+        Assertions.assertFalse(queue.offer(job("e", Priority.NORMAL)));
+        Assertions.assertEquals(Set.of("a", "b", "weighted", FairShareQueue.OVERFLOW_CLIENT), clientTags(registry));
+        Assertions.assertEquals(2, registry.get("task.client.queued")
+                                           .tag("client", FairShareQueue.OVERFLOW_CLIENT)
+                                           .gauge()
+                                           .value());
+
+        Assertions.assertTrue(queue.remove(a));
+        Assertions.assertEquals(Set.of("b", "weighted", FairShareQueue.OVERFLOW_CLIENT), clientTags(registry));
+        // taken, but still in flight
+        List<Runnable> taken = new ArrayList<>();
+        for (Runnable job; (job = queue.poll()) != null; ) {
+            taken.add(job);
+        }
+        Assertions.assertEquals(Set.of("b", "weighted", FairShareQueue.OVERFLOW_CLIENT), clientTags(registry));
+        taken.forEach(queue::completed);
+        Assertions.assertEquals(Set.of(FairShareQueue.OVERFLOW_CLIENT), clientTags(registry));
+
+        Assertions.assertTrue(queue.offer(job("e", Priority.NORMAL)));
+        Assertions.assertEquals(Set.of("e", FairShareQueue.OVERFLOW_CLIENT), clientTags(registry));
+    }
+
+    @Test
+    @DisplayName("completion of a job not taken from the queue must not count the client's jobs out")
+    public void foreignCompletion() {
+        FairShareQueue queue = queue(100, 10, Map.of());
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        queue.bindTo(registry);
+        Runnable queued = job("a", Priority.NORMAL);
+        queue.offer(queued);
+
+        // e.g. handed to a new worker directly
+        queue.completed(job("a", Priority.NORMAL));
+
+        Assertions.assertEquals(Set.of("a", FairShareQueue.OVERFLOW_CLIENT), clientTags(registry));
+        Assertions.assertEquals(1, queue.drainLength("a"));
+        Assertions.assertSame(queued, queue.poll());
+        queue.completed(queued);
+        Assertions.assertEquals(Set.of(FairShareQueue.OVERFLOW_CLIENT), clientTags(registry));
+    }
+
+    private static Set<String> clientTags(SimpleMeterRegistry registry) {
+        return registry.find("task.client.queued")
+                       .gauges()
+                       .stream()
+                       .map(gauge -> gauge.getId().getTag("client"))
+                       .collect(Collectors.toSet());
+    }
+}
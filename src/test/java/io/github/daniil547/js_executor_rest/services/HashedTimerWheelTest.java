@@ -0,0 +1,72 @@
+package io.github.daniil547.js_executor_rest.services;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class HashedTimerWheelTest {
+    private static final Duration TICK = Duration.ofMillis(5);
+
+    @Test
+    @DisplayName("a timeout must fire no earlier than its delay")
+    public void fires() throws InterruptedException {
+        try (HashedTimerWheel timer = new HashedTimerWheel(TICK, 8, Runnable::run)) {
+            CountDownLatch fired = new CountDownLatch(1);
+            long start = System.nanoTime();
+            // longer than the wheel's circumference
+            timer.schedule(fired::countDown, Duration.ofMillis(100));
+
+            Assertions.assertTrue(fired.await(2, TimeUnit.SECONDS));
+            Assertions.assertTrue(System.nanoTime() - start >= Duration.ofMillis(100).toNanos());
+            Assertions.assertEquals(0, timer.getPending());
+        }
+    }
+
+    @Test
+    @DisplayName("a canceled timeout must never fire")
+    public void canceled() throws InterruptedException {
+        try (HashedTimerWheel timer = new HashedTimerWheel(TICK, 8, Runnable::run)) {
+            AtomicBoolean fired = new AtomicBoolean(false);
+            HashedTimerWheel.Timeout timeout = timer.schedule(() -> fired.set(true), Duration.ofMillis(50));
+
+            Assertions.assertTrue(timeout.cancel());
+            Thread.sleep(150);
+            Assertions.assertFalse(fired.get());
+            Assertions.assertEquals(0, timer.getPending());
+        }
+    }
+
+    @Test
+    @DisplayName("all of many timeouts must fire")
+    public void many() throws InterruptedException {
+        int count = 100_000;
+        try (HashedTimerWheel timer = new HashedTimerWheel(TICK, 64, Runnable::run)) {
+            CountDownLatch fired = new CountDownLatch(count);
+            for (int i = 0; i < count; i++) {
+                timer.schedule(fired::countDown, Duration.ofMillis(i % 500));
+            }
+
+            Assertions.assertTrue(fired.await(10, TimeUnit.SECONDS));
+            Assertions.assertEquals(count, timer.getExpired());
+        }
+    }
+
+    @Test
+    @DisplayName("a failing action must not stop other timeouts from firing")
+    public void failingAction() throws InterruptedException {
+        try (HashedTimerWheel timer = new HashedTimerWheel(TICK, 8, Runnable::run)) {
+            CountDownLatch fired = new CountDownLatch(1);
+            timer.schedule(() -> {
+                throw new IllegalStateException("failed on purpose");
+            }, Duration.ofMillis(10));
+            timer.schedule(fired::countDown, Duration.ofMillis(50));
+
+            Assertions.assertTrue(fired.await(2, TimeUnit.SECONDS));
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package io.github.daniil547.js_executor_rest.services;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class TaskExecutorTest {
+
+    private static FairShareQueue queue(int capacity) {
+        return new FairShareQueue(capacity, capacity, Map.of(), Map.of(), 1);
+    }
+
+    @Test
+    @DisplayName("a task submitted to a full queue must be rejected with a retry hint")
+    public void rejectsWhenFull() throws InterruptedException {
+        TaskExecutor executor = new TaskExecutor(1, queue(1), RejectionPolicy.ABORT, Duration.ZERO);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            // occupies the worker
+            executor.submit(() -> {
+                started.countDown();
+                awaitQuietly(release);
+            });
+            // the worker takes it from the queue
+            started.await();
+            // occupies the queue
+            executor.submit(() -> {});
+
+            TaskRejectedException rejected = Assertions.assertThrows(TaskRejectedException.class,
+                                                                     () -> executor.submit(() -> {}));
+            Assertions.assertFalse(rejected.getRetryAfter().isNegative());
+            Assertions.assertEquals(1, executor.getRejections());
+            Assertions.assertEquals(1, executor.getQueueDepth());
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    @DisplayName("with WAIT policy a task must be admitted once the queue has room")
+    public void waitsForRoom() throws Exception {
+        TaskExecutor executor = new TaskExecutor(1, queue(1), RejectionPolicy.WAIT, Duration.ofSeconds(5));
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            executor.submit(() -> awaitQuietly(release));
+            executor.submit(() -> {});
+            new Thread(() -> {
+                sleepQuietly(100);
+                release.countDown();
+            }).start();
+
+            Future<?> admitted = executor.submit(() -> {});
+            admitted.get(5, TimeUnit.SECONDS);
+            Assertions.assertEquals(0, executor.getRejections());
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package io.github.daniil547.js_executor_rest.services;
+
+import io.github.daniil547.js_executor_rest.domain.IsolatedJsTask;
+import io.github.daniil547.js_executor_rest.domain.LanguageTask;
+import io.github.daniil547.js_executor_rest.domain.OutputLimit;
+import io.github.daniil547.js_executor_rest.domain.SpillStore;
+import io.github.daniil547.js_executor_rest.mappers.TaskToViewMapperImpl;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Measures how fast tasks are journaled, and how long a restart takes to recover them:
+ * replaying the journal, and registering recovered tasks with a dispatcher, spilling them as it goes.
+ * Run with {@code mvn test -Pbenchmark}.
+ * <p>
+ * Tasks are journaled by one thread, as fast as it can, so batches are as large as the journal allows.
+ */
+@Tag("benchmark")
+public class TaskJournalBenchmark {
+    private static final int TASKS = 1_000_000;
+    private static final String SOURCE = "console.log('task ' + 42)";
+    private static final byte[] OUTPUT = "task 42, done in a moment\n".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    @DisplayName("journaling and recovery of a million ended tasks")
+    public void recovery(@TempDir Path directory) throws Exception {
+        Path journalDirectory = directory.resolve("journal");
+        long start = System.nanoTime();
+        TaskJournal written = new TaskJournal(journalDirectory, 1024 * 1024, Long.MAX_VALUE);
+        for (int i = 0; i < TASKS; i++) {
+            IsolatedJsTask task = new IsolatedJsTask(UUID.randomUUID(), SOURCE, Long.MAX_VALUE, null,
+                                                     LanguageTask.Priority.NORMAL, OutputLimit.UNLIMITED, null);
+            ZonedDateTime now = ZonedDateTime.now();
+            task.restore(LanguageTask.Status.FINISHED, LanguageTask.TerminationReason.COMPLETED,
+                         now, now, 0, OUTPUT, OUTPUT.length, false);
+            written.submitted(new TaskExecution(task, TaskDispatcher.ANONYMOUS_CLIENT));
+            written.ended(task);
+        }
+        // writes whatever is still queued
+        written.close();
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("journaled: %d records in %d ms, %.0f records/s, %d syncs (%.0f records each)%n",
+                          written.getRecords(), elapsed / 1_000_000,
+                          written.getRecords() / (elapsed / 1e9),
+                          written.getCommits(), written.getRecords() / (double) written.getCommits());
+
+        start = System.nanoTime();
+        TaskJournal journal = new TaskJournal(journalDirectory, 1024 * 1024, Long.MAX_VALUE);
+        long replayed = System.nanoTime();
+        System.out.printf("replayed: %d ms%n", (replayed - start) / 1_000_000);
+
+        TaskExecutor executor = new TaskExecutor(1,
+                                                 new FairShareQueue(8, 8, Map.of(), Map.of(), 1),
+                                                 RejectionPolicy.ABORT,
+                                                 Duration.ZERO);
+        try (journal;
+             SpillStore spillStore = new SpillStore(directory.resolve("spill"), 64 * 1024 * 1024, 0.5);
+             HashedTimerWheel timer = new HashedTimerWheel(Duration.ofMillis(10), 8, Runnable::run);
+             DefaultTaskDispatcher dispatcher = new DefaultTaskDispatcher(executor,
+                                                                          new TaskToViewMapperImpl(),
+                                                                          timer,
+                                                                          new SimpleMeterRegistry(),
+                                                                          429,
+                                                                          RetentionPolicy.UNLIMITED,
+                                                                          spillStore,
+                                                                          journal)) {
+            // ended tasks don't need a context factory
+            new TaskRecovery(dispatcher, null, Long.MAX_VALUE, DataSize.ofMegabytes(16),
+                             OutputLimit.Policy.KEEP_TAIL).afterSingletonsInstantiated();
+            long rebuilt = System.nanoTime();
+            System.out.printf("rebuilt:  %d ms, %d tasks, %.0f tasks/s overall%n",
+                              (rebuilt - replayed) / 1_000_000, dispatcher.getTaskCount(),
+                              dispatcher.getTaskCount() / ((rebuilt - start) / 1e9));
+            Assertions.assertEquals(TASKS, dispatcher.getTaskCount());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
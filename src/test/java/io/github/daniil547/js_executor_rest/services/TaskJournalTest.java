@@ -0,0 +1,139 @@
+package io.github.daniil547.js_executor_rest.services;
+
+import io.github.daniil547.js_executor_rest.domain.IsolatedJsTask;
+import io.github.daniil547.js_executor_rest.domain.LanguageTask;
+import io.github.daniil547.js_executor_rest.domain.OutputLimit;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+public class TaskJournalTest {
+
+    @Test
+    @DisplayName("tasks must be recovered as journaled, except removed ones")
+    public void recover(@TempDir Path directory) {
+        TaskExecution scheduled = execution("1", null);
+        TaskExecution running = execution("2", null);
+        TaskExecution ended = execution("3", "three\n");
+        TaskExecution removed = execution("4", null);
+        try (TaskJournal journal = new TaskJournal(directory, 1024, Long.MAX_VALUE)) {
+            Assertions.assertTrue(journal.recover().isEmpty());
+            for (TaskExecution execution : List.of(scheduled, running, ended, removed)) {
+                journal.submitted(execution).join();
+            }
+            journal.started(running.getTask().getId());
+            journal.started(ended.getTask().getId());
+            journal.ended(ended.getTask());
+            journal.removed(removed.getTask().getId());
+        }
+
+        try (TaskJournal journal = new TaskJournal(directory, 1024, Long.MAX_VALUE)) {
+            List<JournaledTask> recovered = journal.recover();
+            Assertions.assertEquals(3, recovered.size());
+            assertJournaled(scheduled, LanguageTask.Status.SCHEDULED, recovered.get(0));
+            assertJournaled(running, LanguageTask.Status.RUNNING, recovered.get(1));
+            assertJournaled(ended, LanguageTask.Status.FINISHED, recovered.get(2));
+            Assertions.assertNotNull(recovered.get(1).startTime());
+            Assertions.assertEquals("three\n", new String(recovered.get(2).output(), StandardCharsets.UTF_8));
+            Assertions.assertEquals(6, recovered.get(2).outputSize());
+            Assertions.assertTrue(journal.recover().isEmpty());
+        }
+    }
+
+    /**
+     * A crash can leave a record half-written at the end of a journal file.
+     */
+    @Test
+    @DisplayName("a torn record must end its file, and not be written after")
+    public void tornTail(@TempDir Path directory) throws IOException {
+        TaskExecution first = execution("1", null);
+        TaskExecution second = execution("2", null);
+        try (TaskJournal journal = new TaskJournal(directory, 1024, Long.MAX_VALUE)) {
+            journal.submitted(first).join();
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            Path file = files.findFirst().orElseThrow();
+            Files.write(file, new byte[]{0, 0, 0, 100, 1, 2, 3}, StandardOpenOption.APPEND);
+        }
+
+        try (TaskJournal journal = new TaskJournal(directory, 1024, Long.MAX_VALUE)) {
+            Assertions.assertEquals(1, journal.recover().size());
+            journal.submitted(second).join();
+        }
+        try (TaskJournal journal = new TaskJournal(directory, 1024, Long.MAX_VALUE)) {
+            List<JournaledTask> recovered = journal.recover();
+            Assertions.assertEquals(2, recovered.size());
+            Assertions.assertEquals(second.getTask().getId(), recovered.get(1).id());
+        }
+    }
+
+    @Test
+    @DisplayName("a snapshot must replace the journal files before it, and recover the same tasks in the same order")
+    public void snapshot(@TempDir Path directory) throws IOException, InterruptedException {
+        List<TaskExecution> executions = List.of(execution("1", null), execution("2", "two"), execution("3", null));
+        try (TaskJournal journal = new TaskJournal(directory, 1024, 1)) {
+            for (TaskExecution execution : executions) {
+                journal.submitted(execution).join();
+            }
+            journal.ended(executions.get(1).getTask());
+            // in registry order, which isn't the order of submission
+            journal.snapshotFrom(() -> Stream.of(executions.get(2), executions.get(1)));
+            // the snapshot is made concurrently, once there's something to compact
+            journal.removed(executions.get(0).getTask().getId());
+            long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+            while (journal.getSnapshots() == 0 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            Assertions.assertEquals(1, journal.getSnapshots());
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            // the snapshot, and the journal file after it
+            Assertions.assertEquals(2, files.count());
+        }
+
+        try (TaskJournal journal = new TaskJournal(directory, 1024, Long.MAX_VALUE)) {
+            List<JournaledTask> recovered = journal.recover();
+            Assertions.assertEquals(2, recovered.size());
+            assertJournaled(executions.get(1), LanguageTask.Status.FINISHED, recovered.get(0));
+            assertJournaled(executions.get(2), LanguageTask.Status.SCHEDULED, recovered.get(1));
+            Assertions.assertEquals("two", new String(recovered.get(0).output(), StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * @param output output of the task if it has ended, {@code null} if it's scheduled
+     */
+    private static TaskExecution execution(String source, String output) {
+        IsolatedJsTask task = new IsolatedJsTask(UUID.randomUUID(), source, Long.MAX_VALUE, Duration.ofSeconds(5),
+                                                 LanguageTask.Priority.BATCH, OutputLimit.UNLIMITED, null);
+        if (output != null) {
+            byte[] bytes = output.getBytes(StandardCharsets.UTF_8);
+            ZonedDateTime now = ZonedDateTime.now();
+            task.restore(LanguageTask.Status.FINISHED, LanguageTask.TerminationReason.COMPLETED,
+                         now, now, 0, bytes, bytes.length, false);
+        }
+        return new TaskExecution(task, "client " + source);
+    }
+
+    private static void assertJournaled(TaskExecution expected, LanguageTask.Status status, JournaledTask actual) {
+        LanguageTask task = expected.getTask();
+        Assertions.assertEquals(task.getId(), actual.id());
+        Assertions.assertEquals(expected.getClient(), actual.client());
+        Assertions.assertEquals(task.getSource(), actual.source());
+        Assertions.assertEquals(task.getPriority(), actual.priority());
+        Assertions.assertEquals(task.getTimeout().orElseThrow(), actual.timeout());
+        Assertions.assertEquals(status, actual.status());
+    }
+}
@@ -0,0 +1,85 @@
+package io.github.daniil547.js_executor_rest.services;
+
+import io.github.daniil547.js_executor_rest.domain.IsolatedJsTask;
+import io.github.daniil547.js_executor_rest.domain.LanguageTask;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.function.Supplier;
+
+/**
+ * Compares heap taken by the dispatcher's bookkeeping of a million ended tasks:
+ * two {@link ConcurrentHashMap}s (tasks, and executions holding their futures), as it used to be,
+ * vs a {@link TaskRegistry} of released executions. Tasks themselves are excluded.
+ * Run with {@code mvn test -Pbenchmark}.
+ * <p>
+ * Measured as the growth of used heap after full GCs, which is precise enough
+ * at this scale, and needs no agent.
+ */
+@Tag("benchmark")
+public class TaskRegistryBenchmark {
+    private static final int TASKS = 1_000_000;
+
+    @Test
+    @DisplayName("footprint of two maps vs the registry")
+    public void footprint() {
+        LanguageTask[] tasks = new LanguageTask[TASKS];
+        for (int i = 0; i < TASKS; i++) {
+            tasks[i] = new IsolatedJsTask("1", Long.MAX_VALUE);
+        }
+
+        report("two maps", () -> {
+            Map<UUID, LanguageTask> taskRegister = new ConcurrentHashMap<>();
+            Map<UUID, TaskExecution> futureRegister = new ConcurrentHashMap<>();
+            for (LanguageTask task : tasks) {
+                taskRegister.put(task.getId(), task);
+                TaskExecution execution = new TaskExecution(task, TaskDispatcher.ANONYMOUS_CLIENT);
+                execution.setFuture(completedFuture());
+                futureRegister.put(task.getId(), execution);
+            }
+            return new Object[]{taskRegister, futureRegister};
+        });
+        report("registry", () -> {
+            TaskRegistry registry = new TaskRegistry();
+            for (LanguageTask task : tasks) {
+                TaskExecution execution = new TaskExecution(task, TaskDispatcher.ANONYMOUS_CLIENT);
+                execution.setFuture(completedFuture());
+                registry.putIfAbsent(execution);
+                execution.release();
+            }
+            return registry;
+        });
+    }
+
+    private static Future<?> completedFuture() {
+        FutureTask<?> future = new FutureTask<>(() -> null);
+        future.run();
+        return future;
+    }
+
+    private static void report(String layout, Supplier<Object> build) {
+        long before = usedHeap();
+        Object built = build.get();
+        long after = usedHeap();
+        System.out.printf("%-8s: %6.1f MB, %5.1f bytes per task%n",
+                          layout,
+                          (after - before) / 1024.0 / 1024.0,
+                          (after - before) / (double) TASKS);
+        // kept reachable until measured
+        System.out.println(built.getClass().getSimpleName() + " measured");
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
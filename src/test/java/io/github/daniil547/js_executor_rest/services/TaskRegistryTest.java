@@ -0,0 +1,47 @@
+package io.github.daniil547.js_executor_rest.services;
+
+import io.github.daniil547.js_executor_rest.domain.IsolatedJsTask;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+public class TaskRegistryTest {
+
+    @Test
+    @DisplayName("executions must be found by id through growth and removals")
+    public void putGetRemove() {
+        TaskRegistry registry = new TaskRegistry();
+        List<TaskExecution> executions = new ArrayList<>();
+        // enough for every segment to be rebuilt several times
+        for (int i = 0; i < 5000; i++) {
+            TaskExecution execution = new TaskExecution(new IsolatedJsTask("1", Long.MAX_VALUE),
+                                                        TaskDispatcher.ANONYMOUS_CLIENT);
+            executions.add(execution);
+            Assertions.assertNull(registry.putIfAbsent(execution));
+        }
+        TaskExecution duplicate = new TaskExecution(executions.get(0).getTask(), TaskDispatcher.ANONYMOUS_CLIENT);
+        Assertions.assertSame(executions.get(0), registry.putIfAbsent(duplicate));
+        Assertions.assertEquals(5000, registry.size());
+
+        for (int i = 0; i < executions.size(); i += 2) {
+            UUID id = executions.get(i).getTask().getId();
+            Assertions.assertSame(executions.get(i), registry.remove(id));
+            Assertions.assertNull(registry.remove(id));
+        }
+        Assertions.assertEquals(2500, registry.size());
+        Assertions.assertEquals(2500, registry.stream().count());
+        for (int i = 0; i < executions.size(); i++) {
+            TaskExecution found = registry.get(executions.get(i).getTask().getId());
+            Assertions.assertSame(i % 2 == 0 ? null : executions.get(i), found);
+        }
+
+        // removed ids can come back
+        Assertions.assertNull(registry.putIfAbsent(executions.get(0)));
+        Assertions.assertSame(executions.get(0), registry.get(executions.get(0).getTask().getId()));
+        Assertions.assertEquals(2501, registry.size());
+    }
+}
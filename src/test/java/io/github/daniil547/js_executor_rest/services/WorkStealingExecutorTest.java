@@ -0,0 +1,47 @@
+package io.github.daniil547.js_executor_rest.services;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class WorkStealingExecutorTest {
+
+    @Test
+    @DisplayName("a canceled queued task must never run, and tasks over capacity must be rejected")
+    public void cancelAndReject() throws Exception {
+        WorkStealingExecutor executor = new WorkStealingExecutor(1, 1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            executor.submit(() -> {
+                started.countDown();
+                release.await();
+                return null;
+            });
+            started.await();
+            AtomicBoolean ran = new AtomicBoolean(false);
+            Future<?> queued = executor.submit(() -> ran.set(true));
+
+            TaskRejectedException rejected = Assertions.assertThrows(TaskRejectedException.class,
+                                                                     () -> executor.submit(() -> {}));
+            // nothing has completed yet, so the queue isn't expected to drain any sooner
+            Assertions.assertEquals(Duration.ofSeconds(1), rejected.getRetryAfter());
+            Assertions.assertEquals(1, executor.getRejections());
+
+            queued.cancel(true);
+            release.countDown();
+            executor.submit(() -> {}).get(5, TimeUnit.SECONDS);
+            Assertions.assertFalse(ran.get());
+            Assertions.assertEquals(0, executor.getQueueDepth());
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+}